@@ -0,0 +1,39 @@
+package net.sandum.benchmark;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import javax.servlet.http.HttpServletRequest;
+import net.sandum.util.servlet.RequestHandlingException;
+import net.sandum.util.servlet.RequestProxy;
+import net.sandum.util.servlet.UpstreamConnector;
+
+/**
+ * A proxy with the defaults of {@link RequestProxy}, forwarding the path info to a backend answered by
+ * a {@link MockUpstreamConnector}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class BenchmarkProxy extends RequestProxy {
+    private final static String BACKEND = "http://backend.example.com:8080";
+
+    private final UpstreamConnector upstream;
+
+    BenchmarkProxy(UpstreamConnector upstream) {
+        this.upstream = upstream;
+    }
+
+    @Override
+    public URL getTargetUrl(HttpServletRequest request) throws RequestHandlingException {
+        try {
+            return new URL(BACKEND + request.getPathInfo());
+        } catch (MalformedURLException ex) {
+            throw RequestHandlingException.internalServerError(ex);
+        }
+    }
+
+    @Override
+    protected UpstreamConnector getUpstreamConnector() {
+        return upstream;
+    }
+}
@@ -0,0 +1,87 @@
+package net.sandum.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import net.sandum.util.servlet.BodyPump;
+import net.sandum.util.servlet.ByteBufferedHttpServletResponseWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Response bodies of different sizes through {@link net.sandum.util.servlet.RequestProxy}: streamed
+ * straight to the client, and captured by a {@link ByteBufferedHttpServletResponseWrapper} and written
+ * out afterwards, as under a {@link net.sandum.servlet.FormatConversionFilter} passing the body on
+ * untransformed.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyCopyBenchmark {
+
+    // bytes:
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    private BenchmarkProxy proxy;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++)
+            body[i] = (byte) ('a' + i % 26);
+
+        proxy = new BenchmarkProxy(new MockUpstreamConnector(200, body)
+                .addHeader("Content-Type", "application/octet-stream")
+                .addHeader("Content-Length", String.valueOf(size)));
+        request = new MockHttpServletRequest("GET", "/app", "/proxy", "/files/blob.bin", null)
+                .addHeader("Host", "proxy.example.com:8080")
+                .addHeader("Accept", "*/*");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public long streamed() throws IOException, ServletException {
+        request.reset();
+        response.reset();
+        proxy.service(request, response);
+        return response.getByteCount();
+    }
+
+    @Benchmark
+    public long buffered() throws IOException, ServletException {
+        request.reset();
+        response.reset();
+        ByteBufferedHttpServletResponseWrapper wrapper = new ByteBufferedHttpServletResponseWrapper(response);
+        proxy.service(request, wrapper);
+
+        InputStream content = wrapper.getDownstreamContentStream();
+        try {
+            response.setContentType(wrapper.getDownstreamContentType());
+            response.setContentLengthLong(wrapper.getDownstreamContentSize());
+            BodyPump.INSTANCE.pump(content, response.getOutputStream(), wrapper.getDownstreamContentSize());
+        } finally {
+            content.close();
+            wrapper.releaseDownstreamContent();
+        }
+        return response.getByteCount();
+    }
+}
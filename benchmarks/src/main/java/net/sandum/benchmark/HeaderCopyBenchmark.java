@@ -0,0 +1,80 @@
+package net.sandum.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A bodiless exchange through {@link net.sandum.util.servlet.RequestProxy}: request headers copied to
+ * the upstream connection, response headers copied back to the client, with a browser's and a
+ * backend's usual headers plus a number of custom ones each way.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderCopyBenchmark {
+
+    @Param({"0", "20"})
+    private int extraHeaders;
+
+    private BenchmarkProxy proxy;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        MockUpstreamConnector upstream = new MockUpstreamConnector(200, new byte[0])
+                .addHeader("Date", "Sun, 18 Oct 2026 10:00:00 GMT")
+                .addHeader("Server", "Apache")
+                .addHeader("Content-Type", "text/html; charset=UTF-8")
+                .addHeader("Content-Length", "0")
+                .addHeader("Cache-Control", "private, max-age=0")
+                .addHeader("ETag", "\"5f3a-1b2c\"")
+                .addHeader("Last-Modified", "Sat, 17 Oct 2026 08:30:00 GMT")
+                .addHeader("Vary", "Accept-Encoding")
+                .addHeader("Keep-Alive", "timeout=5, max=100")
+                .addHeader("Connection", "Keep-Alive");
+        for (int i = 0; i < extraHeaders; i++)
+            upstream.addHeader("X-Backend-" + i, "value-" + i);
+        proxy = new BenchmarkProxy(upstream);
+
+        request = new MockHttpServletRequest("GET", "/app", "/proxy", "/svc/orders/42", null)
+                .addHeader("Host", "proxy.example.com:8080")
+                .addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:131.0) Gecko/20100101 Firefox/131.0")
+                .addHeader("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .addHeader("Accept-Language", "en-US,en;q=0.5")
+                .addHeader("Accept-Encoding", "gzip, deflate, br")
+                .addHeader("Referer", "http://proxy.example.com:8080/app/proxy/svc/orders")
+                .addHeader("Connection", "keep-alive")
+                .addHeader("Upgrade-Insecure-Requests", "1")
+                .addHeader("Cache-Control", "max-age=0");
+        for (int i = 0; i < extraHeaders; i++)
+            request.addHeader("X-Client-" + i, "value-" + i);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public int proxy() throws IOException, ServletException {
+        request.reset();
+        response.reset();
+        proxy.service(request, response);
+        return response.getHeaderCount();
+    }
+}
@@ -0,0 +1,377 @@
+package net.sandum.benchmark;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+
+/**
+ * A bodiless request, as the container would pass it in, for driving servlets and filters without one.
+ * Header names and values are kept in order; {@link #reset()} clears what the last exchange left
+ * behind so one instance can be reused across benchmark invocations.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@SuppressWarnings("deprecation")
+public class MockHttpServletRequest implements HttpServletRequest {
+    private final String method;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String queryString;
+    private final List<String> headerNames = new ArrayList<String>();
+    private final List<String> headerValues = new ArrayList<String>();
+    private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+    public MockHttpServletRequest(String method, String contextPath, String servletPath, String pathInfo, String queryString) {
+        this.method = method;
+        this.contextPath = contextPath;
+        this.servletPath = servletPath;
+        this.pathInfo = pathInfo;
+        this.queryString = queryString;
+    }
+
+    public MockHttpServletRequest addHeader(String name, String value) {
+        headerNames.add(name);
+        headerValues.add(value);
+        return this;
+    }
+
+    public void reset() {
+        attributes.clear();
+    }
+
+    // HttpServletRequest:
+
+    public String getAuthType() {
+        return null;
+    }
+
+    public Cookie[] getCookies() {
+        return null;
+    }
+
+    public long getDateHeader(String name) {
+        return -1;
+    }
+
+    public String getHeader(String name) {
+        for (int i = 0; i < headerNames.size(); i++)
+            if (headerNames.get(i).equalsIgnoreCase(name))
+                return headerValues.get(i);
+        return null;
+    }
+
+    public Enumeration<String> getHeaders(String name) {
+        List<String> res = new ArrayList<String>();
+        for (int i = 0; i < headerNames.size(); i++)
+            if (headerNames.get(i).equalsIgnoreCase(name))
+                res.add(headerValues.get(i));
+        return Collections.enumeration(res);
+    }
+
+    public Enumeration<String> getHeaderNames() {
+        List<String> res = new ArrayList<String>();
+        for (String name : headerNames)
+            if (!res.contains(name))
+                res.add(name);
+        return Collections.enumeration(res);
+    }
+
+    public int getIntHeader(String name) {
+        String s = getHeader(name);
+        return s != null ? Integer.parseInt(s) : -1;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    public String getPathTranslated() {
+        return null;
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public String getQueryString() {
+        return queryString;
+    }
+
+    public String getRemoteUser() {
+        return null;
+    }
+
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    public String getRequestedSessionId() {
+        return null;
+    }
+
+    public String getRequestURI() {
+        return contextPath + servletPath + (pathInfo != null ? pathInfo : "");
+    }
+
+    public StringBuffer getRequestURL() {
+        return new StringBuffer("http://").append(getServerName()).append(':').append(getServerPort()).append(getRequestURI());
+    }
+
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    public HttpSession getSession(boolean create) {
+        if (create)
+            throw new UnsupportedOperationException();
+        return null;
+    }
+
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    public String changeSessionId() {
+        throw new IllegalStateException("no session");
+    }
+
+    public boolean isRequestedSessionIdValid() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromCookie() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromURL() {
+        return false;
+    }
+
+    public boolean isRequestedSessionIdFromUrl() {
+        return false;
+    }
+
+    public boolean authenticate(HttpServletResponse response) {
+        return false;
+    }
+
+    public void login(String username, String password) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void logout() {
+    }
+
+    public Collection<Part> getParts() {
+        return Collections.emptyList();
+    }
+
+    public Part getPart(String name) {
+        return null;
+    }
+
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) {
+        throw new UnsupportedOperationException();
+    }
+
+    // ServletRequest:
+
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    public String getCharacterEncoding() {
+        return null;
+    }
+
+    public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+    }
+
+    public int getContentLength() {
+        return -1;
+    }
+
+    public long getContentLengthLong() {
+        return -1;
+    }
+
+    public String getContentType() {
+        return null;
+    }
+
+    public ServletInputStream getInputStream() {
+        return new ServletInputStream() {
+            public int read() {
+                return -1;
+            }
+
+            public boolean isFinished() {
+                return true;
+            }
+
+            public boolean isReady() {
+                return true;
+            }
+
+            public void setReadListener(ReadListener listener) {
+                throw new IllegalStateException("not async");
+            }
+        };
+    }
+
+    public String getParameter(String name) {
+        return null;
+    }
+
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(Collections.<String>emptyList());
+    }
+
+    public String[] getParameterValues(String name) {
+        return null;
+    }
+
+    public Map<String, String[]> getParameterMap() {
+        return Collections.emptyMap();
+    }
+
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    public String getScheme() {
+        return "http";
+    }
+
+    public String getServerName() {
+        return "proxy.example.com";
+    }
+
+    public int getServerPort() {
+        return 8080;
+    }
+
+    public BufferedReader getReader() {
+        return new BufferedReader(new InputStreamReader(getInputStream()));
+    }
+
+    public String getRemoteAddr() {
+        return "192.0.2.1";
+    }
+
+    public String getRemoteHost() {
+        return getRemoteAddr();
+    }
+
+    public void setAttribute(String name, Object o) {
+        if (o == null)
+            attributes.remove(name);
+        else
+            attributes.put(name, o);
+    }
+
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    public Locale getLocale() {
+        return Locale.ENGLISH;
+    }
+
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(Collections.singletonList(Locale.ENGLISH));
+    }
+
+    public boolean isSecure() {
+        return false;
+    }
+
+    public RequestDispatcher getRequestDispatcher(String path) {
+        return null;
+    }
+
+    public String getRealPath(String path) {
+        return null;
+    }
+
+    public int getRemotePort() {
+        return 49152;
+    }
+
+    public String getLocalName() {
+        return getServerName();
+    }
+
+    public String getLocalAddr() {
+        return "192.0.2.2";
+    }
+
+    public int getLocalPort() {
+        return getServerPort();
+    }
+
+    public ServletContext getServletContext() {
+        return null;
+    }
+
+    public AsyncContext startAsync() {
+        throw new IllegalStateException("not async");
+    }
+
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        throw new IllegalStateException("not async");
+    }
+
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    public AsyncContext getAsyncContext() {
+        throw new IllegalStateException("not async");
+    }
+
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+}
@@ -0,0 +1,241 @@
+package net.sandum.benchmark;
+
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A response that keeps the status and headers and counts the body bytes without keeping them, so
+ * that writing to it costs about what writing to a fast client would. Reusable after {@link #reset()}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@SuppressWarnings("deprecation")
+public class MockHttpServletResponse implements HttpServletResponse {
+    private int status = SC_OK;
+    private String contentType;
+    private long contentLength = -1;
+    private final List<String> headerNames = new ArrayList<String>();
+    private final List<String> headerValues = new ArrayList<String>();
+    private long byteCount;
+    private PrintWriter writer;
+
+    private final ServletOutputStream stream = new ServletOutputStream() {
+        @Override
+        public void write(int b) {
+            byteCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            byteCount += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            throw new IllegalStateException("not async");
+        }
+    };
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public int getHeaderCount() {
+        return headerNames.size();
+    }
+
+    @Override
+    public void reset() {
+        status = SC_OK;
+        contentType = null;
+        contentLength = -1;
+        headerNames.clear();
+        headerValues.clear();
+        byteCount = 0;
+        writer = null;
+    }
+
+    // HttpServletResponse:
+
+    public void addCookie(Cookie cookie) {
+        addHeader("Set-Cookie", cookie.getName() + "=" + cookie.getValue());
+    }
+
+    public boolean containsHeader(String name) {
+        return getHeader(name) != null;
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    public void sendError(int sc, String msg) {
+        status = sc;
+    }
+
+    public void sendError(int sc) {
+        status = sc;
+    }
+
+    public void sendRedirect(String location) {
+        status = SC_FOUND;
+        setHeader("Location", location);
+    }
+
+    public void setDateHeader(String name, long date) {
+        setHeader(name, String.valueOf(date));
+    }
+
+    public void addDateHeader(String name, long date) {
+        addHeader(name, String.valueOf(date));
+    }
+
+    public void setHeader(String name, String value) {
+        for (int i = headerNames.size() - 1; i >= 0; i--)
+            if (headerNames.get(i).equalsIgnoreCase(name)) {
+                headerNames.remove(i);
+                headerValues.remove(i);
+            }
+        addHeader(name, value);
+    }
+
+    public void addHeader(String name, String value) {
+        headerNames.add(name);
+        headerValues.add(value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    public void setStatus(int sc, String sm) {
+        status = sc;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getHeader(String name) {
+        for (int i = 0; i < headerNames.size(); i++)
+            if (headerNames.get(i).equalsIgnoreCase(name))
+                return headerValues.get(i);
+        return null;
+    }
+
+    public Collection<String> getHeaders(String name) {
+        List<String> res = new ArrayList<String>();
+        for (int i = 0; i < headerNames.size(); i++)
+            if (headerNames.get(i).equalsIgnoreCase(name))
+                res.add(headerValues.get(i));
+        return res;
+    }
+
+    public Collection<String> getHeaderNames() {
+        List<String> res = new ArrayList<String>();
+        for (String name : headerNames)
+            if (!res.contains(name))
+                res.add(name);
+        return res;
+    }
+
+    // ServletResponse:
+
+    public String getCharacterEncoding() {
+        return "UTF-8";
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public ServletOutputStream getOutputStream() {
+        return stream;
+    }
+
+    public PrintWriter getWriter() throws UnsupportedEncodingException {
+        if (writer == null)
+            writer = new PrintWriter(new OutputStreamWriter(stream, "UTF-8"));
+        return writer;
+    }
+
+    public void setCharacterEncoding(String charset) {
+    }
+
+    public void setContentLength(int len) {
+        contentLength = len;
+    }
+
+    public void setContentLengthLong(long len) {
+        contentLength = len;
+    }
+
+    public void setContentType(String type) {
+        contentType = type;
+    }
+
+    public void setBufferSize(int size) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() {
+        if (writer != null)
+            writer.flush();
+    }
+
+    public void resetBuffer() {
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void setLocale(Locale loc) {
+    }
+
+    public Locale getLocale() {
+        return Locale.ENGLISH;
+    }
+}
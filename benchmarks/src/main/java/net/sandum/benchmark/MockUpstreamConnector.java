@@ -0,0 +1,123 @@
+package net.sandum.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import net.sandum.util.servlet.UpstreamConnector;
+
+/**
+ * Answers every upstream request with the same canned response from memory, so the proxy can be
+ * measured without a network or a backend in the picture.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class MockUpstreamConnector implements UpstreamConnector {
+    private final int status;
+    private final List<String> headerNames = new ArrayList<String>();
+    private final List<String> headerValues = new ArrayList<String>();
+    private final byte[] body;
+
+    public MockUpstreamConnector(int status, byte[] body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    public MockUpstreamConnector addHeader(String name, String value) {
+        headerNames.add(name);
+        headerValues.add(value);
+        return this;
+    }
+
+    public URLConnection openConnection(URL url) {
+        return new Connection(url);
+    }
+
+    public void shutdown() {
+    }
+
+    private class Connection extends HttpURLConnection {
+        Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+
+        @Override
+        public int getResponseCode() {
+            connect();
+            return status;
+        }
+
+        @Override
+        public String getResponseMessage() {
+            return status == HTTP_OK ? "OK" : null;
+        }
+
+        /**
+         * @return header n, where header 0 is the status line
+         */
+        @Override
+        public String getHeaderFieldKey(int n) {
+            return n > 0 && n <= headerNames.size() ? headerNames.get(n - 1) : null;
+        }
+
+        @Override
+        public String getHeaderField(int n) {
+            if (n == 0)
+                return "HTTP/1.1 " + status + " " + getResponseMessage();
+            return n <= headerValues.size() ? headerValues.get(n - 1) : null;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            for (int i = 0; i < headerNames.size(); i++)
+                if (headerNames.get(i).equalsIgnoreCase(name))
+                    return headerValues.get(i);
+            return null;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            connect();
+            return new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return status >= 400 ? new ByteArrayInputStream(body) : null;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            connect();
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            };
+        }
+    }
+}
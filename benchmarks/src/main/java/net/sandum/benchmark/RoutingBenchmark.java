@@ -0,0 +1,130 @@
+package net.sandum.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.sandum.servlet.PatternReplacements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Route resolution: the indexed {@link PatternReplacements} against the linear scan it replaced.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int routes;
+
+    private PatternReplacements indexed;
+    private LinearScan linear;
+    private String[] paths;
+    private int next;
+
+    /**
+     * The original {@link PatternReplacements#match(String)}: every pattern in turn until one matches.
+     */
+    static class LinearScan {
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+        private final List<String> replacements = new ArrayList<String>();
+
+        void add(String regex, String replacement) {
+            patterns.add(Pattern.compile(regex));
+            replacements.add(replacement);
+        }
+
+        String match(String src) {
+            for (int i = 0; i < patterns.size(); i++) {
+                Matcher m = patterns.get(i).matcher(src);
+                if (m.matches())
+                    return m.replaceFirst(replacements.get(i));
+            }
+            return null;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        indexed = new PatternReplacements();
+        linear = new LinearScan();
+        for (String[] route : routeTable(routes)) {
+            indexed.addPatternReplacement(route[0], route[1]);
+            linear.add(route[0], route[1]);
+        }
+        paths = samplePaths(routes, 1024);
+    }
+
+    /**
+     * Routes shaped like a real configuration: mostly one service prefix each, some with a query, and a
+     * catch-all at the end.
+     */
+    static List<String[]> routeTable(int n) {
+        List<String[]> res = new ArrayList<String[]>();
+        for (int i = 0; i < n - 1; i++) {
+            String backend = "http://backend" + (i % 7) + ".example.com:8080";
+            if (i % 10 == 3)
+                res.add(new String[]{"/svc" + i + "/search\\?q=(.*)", backend + "/search?query=$1"});
+            else if (i % 10 == 7)
+                res.add(new String[]{"/svc" + i + "/v[0-9]+/(.*)", backend + "/api/$1"});
+            else
+                res.add(new String[]{"/svc" + i + "/(.*)", backend + "/svc" + i + "/$1"});
+        }
+        res.add(new String[]{"/(.*)", "http://default.example.com/$1"});
+        return res;
+    }
+
+    static String[] samplePaths(int n, int count) {
+        Random rnd = new Random(42);
+        String[] res = new String[count];
+        for (int i = 0; i < count; i++) {
+            int route = rnd.nextInt(n);
+            switch (route % 10) {
+            case 3:
+                res[i] = "/svc" + route + "/search?q=item" + i;
+                break;
+            case 7:
+                res[i] = "/svc" + route + "/v2/orders/" + i;
+                break;
+            default:
+                res[i] = "/svc" + route + "/assets/img/" + i + ".png";
+            }
+        }
+        return res;
+    }
+
+    private String nextPath() {
+        String path = paths[next];
+        next = (next + 1) & (paths.length - 1);
+        return path;
+    }
+
+    @Benchmark
+    public String linearScan() {
+        return linear.match(nextPath());
+    }
+
+    @Benchmark
+    public String indexed() {
+        return indexed.match(nextPath());
+    }
+}
@@ -0,0 +1,113 @@
+package net.sandum.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.sandum.servlet.FormatTransformerConfig;
+import net.sandum.servlet.SaxHtmlXmlTransformer;
+import net.sandum.servlet.SimpleFormatTransformer;
+import net.sandum.servlet.TidyHtmlXmlTransformer;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The HTML to XML conversion of {@link TidyHtmlXmlTransformer} and {@link SaxHtmlXmlTransformer}, on its
+ * own and followed by one or two XSLT stages, for a small and a large page of sloppy HTML.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+    private final static String[] STAGES = { "strip.xsl", "rows.xsl" };
+
+    @Param({"tidy", "sax"})
+    private String engine;
+
+    @Param({"0", "1", "2"})
+    private int stages;
+
+    // table rows, about 100 bytes each:
+    @Param({"10", "1000"})
+    private int rows;
+
+    private SimpleFormatTransformer transformer;
+    private byte[] page;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        final String templates = stages > 0 ? join(Arrays.copyOf(STAGES, stages)) : null;
+        transformer = "sax".equals(engine) ? new SaxHtmlXmlTransformer() : new TidyHtmlXmlTransformer();
+        transformer.init(new FormatTransformerConfig() {
+            public URL getResource(String path) {
+                return TransformBenchmark.class.getResource(path);
+            }
+
+            public String getInitParameter(String name) {
+                return "templates".equals(name) ? templates : null;
+            }
+
+            public Iterable<String> getInitParameterNames() {
+                return stages > 0 ? Collections.singletonList("templates") : Collections.<String>emptyList();
+            }
+        });
+        page = page(rows).getBytes("UTF-8");
+    }
+
+    private static String join(String[] names) {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A page the way they come: unclosed paragraphs and cells, upper-case tags, unquoted attributes.
+     */
+    static String page(int rows) {
+        StringBuilder sb = new StringBuilder(256 + rows * 100);
+        sb.append("<HTML><HEAD><TITLE>Orders</TITLE>\n");
+        sb.append("<style>td { padding: 2px }</style>\n");
+        sb.append("<script>var loaded = new Date();</script>\n");
+        sb.append("</HEAD><BODY bgcolor=white>\n<h1>Orders</h1>\n<p>All orders of the last month<br>\n");
+        sb.append("<table border=1 width=100%>\n<tr><th>No.<th>Customer<th>Item<th>Qty<th>Total\n");
+        for (int i = 0; i < rows; i++)
+            sb.append("<tr class=r").append(i % 2).append("><td>").append(10000 + i)
+                    .append("<td>Customer &amp; Co. ").append(i % 37)
+                    .append("<td><a href=/items/").append(i % 101).append(">Item ").append(i % 101).append("</a>")
+                    .append("<td align=right>").append(1 + i % 9)
+                    .append("<td align=right>").append(i * 7 % 1000).append(".50\n");
+        sb.append("</table>\n<p>&copy; Example<p>Generated ").append(rows).append(" rows\n</BODY></HTML>\n");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public long transform() throws IOException {
+        CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+        transformer.transform(new ByteArrayInputStream(page), out);
+        return out.getByteCount();
+    }
+}
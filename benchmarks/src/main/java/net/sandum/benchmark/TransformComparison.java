@@ -0,0 +1,120 @@
+package net.sandum.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import net.sandum.servlet.FormatTransformerConfig;
+import net.sandum.servlet.SaxHtmlXmlTransformer;
+import net.sandum.servlet.SimpleFormatTransformer;
+import net.sandum.servlet.TidyHtmlXmlTransformer;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compares the output of {@link SaxHtmlXmlTransformer} with that of {@link TidyHtmlXmlTransformer} for
+ * the snippets of {@code corpus/cases.txt} and a few sample pages, and reports every difference that
+ * isn't listed in {@code corpus/divergences.txt}, as well as every listed one that has gone away. It
+ * exits with status 1 if there are any. Run it as
+ * <pre>
+ *     java -cp benchmarks/target/benchmarks.jar net.sandum.benchmark.TransformComparison
+ * </pre>
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class TransformComparison {
+    private final static String[] PAGES = {
+        "orders.html", "fragment.html", "loose.html", "catalogue.html", "report.html", "blog.html",
+        "latin1.html", "utf8.html"
+    };
+
+    private final SimpleFormatTransformer tidy = new TidyHtmlXmlTransformer();
+    private final SimpleFormatTransformer sax = new SaxHtmlXmlTransformer();
+    private final Set<String> divergences;
+    private int compared;
+    private int failed;
+
+    public TransformComparison() throws IOException {
+        FormatTransformerConfig config = new FormatTransformerConfig() {
+            public URL getResource(String path) {
+                return TransformComparison.class.getResource(path);
+            }
+
+            public String getInitParameter(String name) {
+                // the SAX parser doesn't add a generator meta element:
+                return "jtidy.tidy-mark".equals(name) ? "no" : null;
+            }
+
+            public Iterable<String> getInitParameterNames() {
+                return Collections.singletonList("jtidy.tidy-mark");
+            }
+        };
+        tidy.init(config);
+        sax.init(config);
+        divergences = new LinkedHashSet<String>(lines("corpus/divergences.txt"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        TransformComparison comparison = new TransformComparison();
+        for (String line : lines("corpus/cases.txt"))
+            comparison.compare(line, line.replace("\\n", "\n").getBytes("ISO-8859-1"));
+        for (String page : PAGES)
+            comparison.compare(page, resource("corpus/" + page));
+        for (String name : comparison.divergences) {
+            System.out.println(name + ": listed as divergent, but not compared");
+            comparison.failed++;
+        }
+        System.out.println(comparison.compared + " compared, " + comparison.failed + " unexpected");
+        System.exit(comparison.failed > 0 ? 1 : 0);
+    }
+
+    private void compare(String name, byte[] html) throws IOException {
+        String expected = transform(tidy, html);
+        String actual = transform(sax, html);
+        boolean divergent = divergences.remove(name);
+        compared++;
+        if (expected.equals(actual) == !divergent)
+            return;
+        failed++;
+        if (divergent) {
+            System.out.println(name + ": listed as divergent, but the same");
+            return;
+        }
+        System.out.println(name + ":");
+        System.out.println("  tidy: " + expected.replace("\n", "\\n"));
+        System.out.println("  sax:  " + actual.replace("\n", "\\n"));
+    }
+
+    private static String transform(SimpleFormatTransformer transformer, byte[] html) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(new ByteArrayInputStream(html), out);
+        return out.toString("UTF-8");
+    }
+
+    private static byte[] resource(String path) throws IOException {
+        InputStream in = TransformComparison.class.getResourceAsStream(path);
+        if (in == null)
+            throw new IOException(path + ": not found");
+        try {
+            return IOUtils.toByteArray(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // the lines of a corpus file, less blank lines and comments; ISO-8859-1 keeps the bytes as they are:
+    private static List<String> lines(String path) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (String line : IOUtils.readLines(new ByteArrayInputStream(resource(path)), "ISO-8859-1"))
+            if (line.trim().length() > 0 && !line.startsWith("#"))
+                lines.add(line);
+        return lines;
+    }
+}
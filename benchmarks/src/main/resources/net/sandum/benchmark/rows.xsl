@@ -0,0 +1,17 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Reduces the tables of the document to records of their cells. -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+
+    <xsl:template match="/">
+        <records>
+            <xsl:for-each select="//*[local-name() = 'tr'][*[local-name() = 'td']]">
+                <record n="{position()}">
+                    <xsl:for-each select="*[local-name() = 'td']">
+                        <field><xsl:value-of select="normalize-space(.)"/></field>
+                    </xsl:for-each>
+                </record>
+            </xsl:for-each>
+        </records>
+    </xsl:template>
+
+</xsl:stylesheet>
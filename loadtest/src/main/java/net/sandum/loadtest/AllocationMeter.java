@@ -0,0 +1,56 @@
+package net.sandum.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+
+/**
+ * Bytes allocated on the heap by threads, as counted by the HotSpot thread MXBean. Threads ending
+ * between two readings take their allocations with them, so readings are lower bounds.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threads;
+
+    public AllocationMeter() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) mx).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) mx;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else
+            threads = null;
+    }
+
+    public boolean isSupported() {
+        return threads != null;
+    }
+
+    /**
+     * @return bytes allocated by all live threads, -1 if unknown
+     */
+    public long allocated() {
+        return threads != null ? sum(threads.getThreadAllocatedBytes(threads.getAllThreadIds())) : -1;
+    }
+
+    /**
+     * @return bytes allocated by the given threads, -1 if unknown
+     */
+    public long allocated(Collection<Thread> ts) {
+        if (threads == null)
+            return -1;
+        long[] ids = new long[ts.size()];
+        int i = 0;
+        for (Thread t : ts)
+            ids[i++] = t.getId();
+        return sum(threads.getThreadAllocatedBytes(ids));
+    }
+
+    private static long sum(long[] bytes) {
+        long res = 0;
+        for (long b : bytes)
+            if (b > 0)
+                res += b;
+        return res;
+    }
+}
@@ -0,0 +1,193 @@
+package net.sandum.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import net.sandum.util.servlet.Histogram;
+
+/**
+ * Sends GET requests to a URL for a while and records their latencies. Either closed-loop, each of a
+ * number of clients sending its next request when the previous one is answered, or open-loop, requests
+ * sent at a fixed rate whether or not the earlier ones were answered, on up to a number of connections.
+ * In open-loop, latencies are counted from when each request was due, so requests kept waiting by a
+ * slow server count against it. Only a 200 with a complete, non-empty body counts as answered.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class LoadGenerator {
+    // milliseconds:
+    private final static int TIMEOUT = 30000;
+    private final static long DRAIN_TIMEOUT = 30000;
+
+    private final int concurrency;
+    private final double rate;
+    private final AllocationMeter allocations;
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Result {
+        private final long requests;
+        private final long errors;
+        private final long nanos;
+        private final Histogram.Snapshot latencies;
+        private final long serverAllocated;
+
+        Result(long requests, long errors, long nanos, Histogram.Snapshot latencies, long serverAllocated) {
+            this.requests = requests;
+            this.errors = errors;
+            this.nanos = nanos;
+            this.latencies = latencies;
+            this.serverAllocated = serverAllocated;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        public double getRequestsPerSecond() {
+            return requests / getSeconds();
+        }
+
+        /**
+         * @return latencies, in microseconds, of the requests answered without errors
+         */
+        public Histogram.Snapshot getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * @return bytes allocated by the threads other than the load generator's, -1 if unknown
+         */
+        public long getServerAllocated() {
+            return serverAllocated;
+        }
+    }
+
+    /**
+     * @param concurrency   clients, or connections in open-loop
+     * @param rate          requests per second, 0 for closed-loop
+     */
+    public LoadGenerator(int concurrency, double rate, AllocationMeter allocations) {
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.allocations = allocations;
+    }
+
+    /**
+     * @param duration  milliseconds
+     */
+    public Result run(final URL url, long duration) throws InterruptedException {
+        final Histogram latencies = new Histogram();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final List<Thread> clients = new CopyOnWriteArrayList<Thread>();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "load-" + clients.size());
+                t.setDaemon(true);
+                clients.add(t);
+                return t;
+            }
+        });
+        executor.prestartAllCoreThreads();
+        // in open-loop, this thread sends the requests off:
+        clients.add(Thread.currentThread());
+
+        long allocated0 = allocations.allocated();
+        long clientAllocated0 = allocations.allocated(clients);
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+
+        if (rate <= 0) {
+            for (int i = 0; i < concurrency; i++)
+                executor.execute(new Runnable() {
+                    public void run() {
+                        while (System.nanoTime() < end)
+                            request(url, System.nanoTime(), latencies, requests, errors);
+                    }
+                });
+        } else {
+            long period = (long) (1e9 / rate);
+            for (long due = start; due < end; due += period) {
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                final long scheduled = due;
+                executor.execute(new Runnable() {
+                    public void run() {
+                        request(url, scheduled, latencies, requests, errors);
+                    }
+                });
+            }
+        }
+
+        executor.shutdown();
+        if (!executor.awaitTermination(duration + DRAIN_TIMEOUT, TimeUnit.MILLISECONDS))
+            executor.shutdownNow();
+        long nanos = System.nanoTime() - start;
+
+        long serverAllocated = -1;
+        if (allocations.isSupported())
+            serverAllocated = allocations.allocated() - allocated0 - (allocations.allocated(clients) - clientAllocated0);
+        return new Result(requests.get(), errors.get(), nanos, latencies.snapshot(), serverAllocated);
+    }
+
+    private static void request(URL url, long started, Histogram latencies, AtomicLong requests, AtomicLong errors) {
+        byte[] buf = new byte[8192];
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        boolean ok = false;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            int status = connection.getResponseCode();
+            long contentLength = connection.getContentLengthLong();
+            in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            long received = 0;
+            int n;
+            if (in != null)
+                while ((n = in.read(buf)) >= 0)
+                    received += n;
+            // every scenario has a body, an empty or truncated one is no success:
+            ok = status == HttpURLConnection.HTTP_OK && received > 0 && (contentLength < 0 || received == contentLength);
+        } catch (IOException ex) {
+            if (connection != null)
+                connection.disconnect();
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    // nothing to do about it
+                }
+        }
+
+        requests.incrementAndGet();
+        if (ok)
+            latencies.record((System.nanoTime() - started) / 1000);
+        else
+            errors.incrementAndGet();
+    }
+}
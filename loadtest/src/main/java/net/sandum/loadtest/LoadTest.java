@@ -0,0 +1,139 @@
+package net.sandum.loadtest;
+
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import net.sandum.util.servlet.Histogram;
+
+/**
+ * Boots a {@link StubBackend} and a {@link ProxyServer} in front of it, puts the proxy under load
+ * scenario by scenario and prints throughput, latency quantiles and the allocation rate of the server
+ * side for each.
+ * <pre>
+ * java -jar loadtest.jar [options] [scenario...]
+ *
+ *   --concurrency n    clients (closed-loop) or connections (open-loop), default 32
+ *   --rate r           requests per second, open-loop; default: closed-loop
+ *   --duration s       seconds per scenario, default 10
+ *   --warmup s         seconds of unrecorded load before each scenario, default 5
+ *   --latency ms       \
+ *   --size bytes        | add a scenario "custom" with a backend answering like this
+ *   --chunk bytes       |
+ *   --convert         /
+ * </pre>
+ * Without scenario names, all the predefined ones are run.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class LoadTest {
+    private final static Map<String, Scenario> SCENARIOS = new LinkedHashMap<String, Scenario>();
+
+    static {
+        add(new Scenario("small", false, 0, 1024, 0));
+        add(new Scenario("large", false, 0, 1024 * 1024, 0));
+        add(new Scenario("chunked", false, 0, 64 * 1024, 8192));
+        add(new Scenario("slow", false, 50, 16 * 1024, 0));
+        add(new Scenario("convert", true, 0, 32 * 1024, 0));
+    }
+
+    private static void add(Scenario s) {
+        SCENARIOS.put(s.getName(), s);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = 32;
+        double rate = 0;
+        long duration = 10;
+        long warmup = 5;
+        Long latency = null;
+        Integer size = null;
+        int chunk = 0;
+        boolean convert = false;
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+
+        List<String> argl = Arrays.asList(args);
+        for (int i = 0; i < argl.size(); i++) {
+            String arg = argl.get(i);
+            if ("--concurrency".equals(arg))
+                concurrency = Integer.parseInt(argl.get(++i));
+            else if ("--rate".equals(arg))
+                rate = Double.parseDouble(argl.get(++i));
+            else if ("--duration".equals(arg))
+                duration = Long.parseLong(argl.get(++i));
+            else if ("--warmup".equals(arg))
+                warmup = Long.parseLong(argl.get(++i));
+            else if ("--latency".equals(arg))
+                latency = Long.parseLong(argl.get(++i));
+            else if ("--size".equals(arg))
+                size = Integer.parseInt(argl.get(++i));
+            else if ("--chunk".equals(arg))
+                chunk = Integer.parseInt(argl.get(++i));
+            else if ("--convert".equals(arg))
+                convert = true;
+            else if (SCENARIOS.containsKey(arg))
+                scenarios.add(SCENARIOS.get(arg));
+            else {
+                System.err.println(arg + ": unknown option or scenario, scenarios are " + SCENARIOS.keySet());
+                System.exit(2);
+            }
+        }
+        if (latency != null || size != null)
+            scenarios.add(new Scenario("custom", convert, latency != null ? latency : 0, size != null ? size : 1024, chunk));
+        if (scenarios.isEmpty())
+            scenarios.addAll(SCENARIOS.values());
+
+        // the JDK keeps no more than 5 idle connections per host by default:
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(concurrency, 5)));
+
+        StubBackend backend = new StubBackend();
+        backend.start();
+        ProxyServer proxy = new ProxyServer(backend.getOrigin());
+        proxy.start();
+        try {
+            AllocationMeter allocations = new AllocationMeter();
+            LoadGenerator generator = new LoadGenerator(concurrency, rate, allocations);
+            PrintStream out = System.out;
+            out.println((rate > 0 ? "open-loop, " + rate + " requests/s on up to " + concurrency + " connections"
+                    : "closed-loop, " + concurrency + " clients") + ", " + duration + "s per scenario");
+            for (Scenario s : scenarios)
+                out.println("  " + s);
+            out.println();
+            out.println(String.format(Locale.ROOT, "%-10s %9s %7s %9s %9s %9s %9s %9s %11s %9s",
+                    "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "alloc MB/s", "KB/req"));
+
+            for (Scenario s : scenarios) {
+                URL url = new URL(proxy.getOrigin() + s.getPath());
+                if (warmup > 0)
+                    generator.run(url, warmup * 1000);
+                System.gc();
+                LoadGenerator.Result r = generator.run(url, duration * 1000);
+                out.println(format(s, r));
+            }
+        } finally {
+            proxy.stop();
+            backend.stop();
+        }
+        System.exit(0);
+    }
+
+    private static String format(Scenario s, LoadGenerator.Result r) {
+        Histogram.Snapshot h = r.getLatencies();
+        String alloc = "n/a";
+        String perRequest = "n/a";
+        if (r.getServerAllocated() >= 0) {
+            alloc = String.format(Locale.ROOT, "%.1f", r.getServerAllocated() / r.getSeconds() / (1024 * 1024));
+            if (r.getRequests() > 0)
+                perRequest = String.format(Locale.ROOT, "%.1f", (double) r.getServerAllocated() / r.getRequests() / 1024);
+        }
+        return String.format(Locale.ROOT, "%-10s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %11s %9s",
+                s.getName(), r.getRequests(), r.getErrors(), r.getRequestsPerSecond(),
+                h.getValueAtQuantile(0.5) / 1e3, h.getValueAtQuantile(0.99) / 1e3, h.getValueAtQuantile(0.999) / 1e3,
+                h.getMax() / 1e3, alloc, perRequest);
+    }
+}
@@ -0,0 +1,85 @@
+package net.sandum.loadtest;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import javax.servlet.DispatcherType;
+import net.sandum.servlet.FormatConversionFilter;
+import net.sandum.servlet.ProxyServlet;
+import net.sandum.servlet.TidyHtmlXmlTransformer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * The proxy under test: a {@link ProxyServlet} forwarding everything to one backend, deployed the way a
+ * web.xml would deploy it, at
+ * <ul>
+ * <li>/proxy/* - as is</li>
+ * <li>/xml/* - behind a {@link FormatConversionFilter} converting HTML to XML, so that
+ *     /xml/page.html_xml is /page.html of the backend, converted</li>
+ * </ul>
+ * The filter post-processes the response once the chain returns, so it is not async-supported and the
+ * proxy answers /xml/* synchronously even with -Dproxy.async=true.
+ * Init-parameters given as system properties "proxy.&lt;name&gt;" and "filter.&lt;name&gt;" are added to
+ * those of the servlet and the filter, e.g. -Dproxy.async=true. The resources of the web application,
+ * such as the templates of the filter, are looked up in the current directory.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class ProxyServer {
+    private final Server server;
+    private final ServerConnector connector;
+
+    public ProxyServer(String backend) {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.setResourceBase(".");
+
+        ServletHolder proxy = new ServletHolder("proxy", ProxyServlet.class);
+        proxy.setInitParameter("path-pattern", "/(.*)");
+        proxy.setInitParameter("target-url", backend + "/$1");
+        addInitParameters(proxy.getInitParameters(), "proxy.");
+        proxy.setAsyncSupported(true);
+        proxy.setInitOrder(1);
+        context.addServlet(proxy, "/proxy/*");
+        context.addServlet(proxy, "/xml/*");
+
+        FilterHolder conversion = new FilterHolder(FormatConversionFilter.class);
+        conversion.setName("html-xml");
+        conversion.setInitParameter("transformer", TidyHtmlXmlTransformer.class.getName());
+        addInitParameters(conversion.getInitParameters(), "filter.");
+        // embedded holders default to async-supported:
+        conversion.setAsyncSupported(false);
+        context.addFilter(conversion, "/xml/*", EnumSet.of(DispatcherType.REQUEST));
+
+        server.setHandler(context);
+    }
+
+    private static void addInitParameters(Map<String, String> params, String prefix) {
+        Properties props = System.getProperties();
+        for (String name : props.stringPropertyNames())
+            if (name.startsWith(prefix))
+                params.put(name.substring(prefix.length()), props.getProperty(name));
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    public String getOrigin() {
+        return "http://127.0.0.1:" + connector.getLocalPort();
+    }
+}
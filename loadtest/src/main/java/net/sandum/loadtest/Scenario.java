@@ -0,0 +1,47 @@
+package net.sandum.loadtest;
+
+/**
+ * One kind of request to put the proxy under: the route through the proxy and the shape of the
+ * backend's answer.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class Scenario {
+    private final String name;
+    private final boolean convert;
+    // milliseconds:
+    private final long latency;
+    // bytes:
+    private final int size;
+    private final int chunk;
+
+    /**
+     * @param convert   whether to request the backend's HTML converted to XML
+     * @param latency   of the backend, milliseconds
+     * @param size      of the backend's body, bytes
+     * @param chunk     bytes per chunk of the backend's body, 0 for a body with a Content-Length
+     */
+    public Scenario(String name, boolean convert, long latency, int size, int chunk) {
+        this.name = name;
+        this.convert = convert;
+        this.latency = latency;
+        this.size = size;
+        this.chunk = chunk;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPath() {
+        String query = "?latency=" + latency + "&size=" + size + "&chunk=" + chunk;
+        return convert ? "/xml/page.html_xml" + query + "&type=html" : "/proxy/data.bin" + query;
+    }
+
+    @Override
+    public String toString() {
+        return name + (convert ? ": HTML to XML" : ": proxied") + ", " + size + " bytes"
+                + (chunk > 0 ? " in chunks of " + chunk : "") + ", " + latency + "ms backend latency";
+    }
+}
@@ -0,0 +1,133 @@
+package net.sandum.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * The backend behind the proxy under test. Every path answers 200, shaped by query parameters:
+ * <dl>
+ * <dt>latency</dt><dd>milliseconds to wait before answering, default 0</dd>
+ * <dt>size</dt><dd>bytes of body, default 1024</dd>
+ * <dt>chunk</dt><dd>bytes per chunk of a chunked body, default 0: a body with a Content-Length</dd>
+ * <dt>type</dt><dd>"html" for a page of HTML tables, otherwise an opaque binary body</dd>
+ * </dl>
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class StubBackend {
+    private final Server server;
+    private final ServerConnector connector;
+
+    public StubBackend() {
+        // waiting out the latency takes a thread, so have plenty:
+        QueuedThreadPool threads = new QueuedThreadPool(1000, 16);
+        threads.setName("backend");
+        server = new Server(threads);
+        connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new StubServlet()), "/*");
+        server.setHandler(context);
+    }
+
+    public void start() throws Exception {
+        server.start();
+    }
+
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    public String getOrigin() {
+        return "http://127.0.0.1:" + connector.getLocalPort();
+    }
+
+    private static class StubServlet extends HttpServlet {
+        // "type size" -> body:
+        private final ConcurrentMap<String, byte[]> bodies = new ConcurrentHashMap<String, byte[]>();
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+            long latency = parameter(request, "latency", 0);
+            int size = (int) parameter(request, "size", 1024);
+            int chunk = (int) parameter(request, "chunk", 0);
+            boolean html = "html".equals(request.getParameter("type"));
+
+            if (latency > 0)
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ServletException(ex);
+                }
+
+            byte[] body = body(html, size);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(html ? "text/html; charset=UTF-8" : "application/octet-stream");
+            response.setHeader("Cache-Control", "no-cache");
+            OutputStream out = response.getOutputStream();
+            if (chunk <= 0) {
+                response.setContentLength(body.length);
+                out.write(body);
+                return;
+            }
+            for (int off = 0; off < body.length; off += chunk) {
+                out.write(body, off, Math.min(chunk, body.length - off));
+                out.flush();
+            }
+        }
+
+        private static long parameter(HttpServletRequest request, String name, long dflt) {
+            String s = request.getParameter(name);
+            return StringUtils.isEmpty(s) ? dflt : Long.parseLong(s);
+        }
+
+        private byte[] body(boolean html, int size) {
+            String key = (html ? "html " : "bin ") + size;
+            byte[] res = bodies.get(key);
+            if (res == null) {
+                res = html ? page(size) : binary(size);
+                bodies.putIfAbsent(key, res);
+            }
+            return res;
+        }
+
+        private static byte[] binary(int size) {
+            byte[] res = new byte[size];
+            for (int i = 0; i < size; i++)
+                res[i] = (byte) (i * 31 + (i >> 8));
+            return res;
+        }
+
+        /**
+         * A page of sloppy HTML of about the given size, left for Tidy to clean up.
+         */
+        private static byte[] page(int size) {
+            StringBuilder sb = new StringBuilder(size + 256);
+            sb.append("<HTML><HEAD><TITLE>Orders</TITLE></HEAD><BODY>\n<h1>Orders</h1>\n<p>Last month<br>\n");
+            sb.append("<table border=1>\n<tr><th>No.<th>Customer<th>Item<th>Qty\n");
+            for (int i = 0; sb.length() < size - 32; i++)
+                sb.append("<tr><td>").append(10000 + i).append("<td>Customer &amp; Co. ").append(i % 37)
+                        .append("<td><a href=/items/").append(i % 101).append(">Item</a><td>").append(1 + i % 9).append('\n');
+            sb.append("</table>\n</BODY></HTML>\n");
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -1,30 +1,51 @@
 package net.sandum.servlet;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.servlet.AsyncContext;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
+import net.sandum.util.servlet.BodyPump;
 import net.sandum.util.servlet.ByteBufferedHttpServletResponseWrapper;
+import net.sandum.util.servlet.SpillBuffer;
 import net.sandum.util.servlet.TransformedRequest;
 import net.sandum.util.servlet.TransformingResponse;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Serves a request for {@code name.x_y} by passing a request for {@code name.x} down the chain and
+ * converting the response from the source format of the configured transformer to its target format.
+ * Responses are buffered, or transformed while the chain writes them if the streaming init-parameter
+ * is set; buffered ones get validators of their own and may be answered with 304.
+ *
  * @author     osa
  * @since      07-03-2011
  * @version    $Id: FormatConversionFilter.java 28820 2011-04-28 12:04:11Z osa $
@@ -32,8 +53,39 @@ import org.slf4j.LoggerFactory;
 public class FormatConversionFilter implements Filter {
     private final static Logger log = LoggerFactory.getLogger(FormatConversionFilter.class);
     private SimpleFormatTransformer transformer;
+    private ServletContext servletContext;
+    // transforms streaming responses, null when buffering them:
+    private ExecutorService streamingExecutor;
+    // bytes:
+    private int streamingBufferSize = 64 * 1024;
+    // bytes, of a response or its transformation to keep in memory:
+    private long spillThreshold = ByteBufferedHttpServletResponseWrapper.DEFAULT_SPILL_THRESHOLD;
+    // for the rest, null for the default temporary-file directory:
+    private File spillDirectory;
+    // of transformed responses, null for none:
+    private TransformCache cache;
+    // of the transformer, replaced when it changes:
+    private volatile Configuration configuration;
+
+    /**
+     * What the transformer does: its configuration tag, a hash of that for ETags, and when it was first
+     * seen, the earliest its output may have changed.
+     */
+    private static class Configuration {
+        private final String tag;
+        private final String hash;
+        // milliseconds, whole seconds:
+        private final long since;
+
+        private Configuration(String tag, String hash, long since) {
+            this.tag = tag;
+            this.hash = hash;
+            this.since = since;
+        }
+    }
 
     public final void init(final FilterConfig filterConfig) throws ServletException {
+        servletContext = filterConfig.getServletContext();
         String className = filterConfig.getInitParameter("transformer");
         try {
             Class<?> klass = Class.forName(className);
@@ -73,6 +125,58 @@ public class FormatConversionFilter implements Filter {
                 };
             }
         });
+
+        // bytes:
+        String s = filterConfig.getInitParameter("spill-threshold");
+        if (!StringUtils.isEmpty(s))
+            spillThreshold = Long.valueOf(s);
+        s = filterConfig.getInitParameter("spill-directory");
+        if (!StringUtils.isEmpty(s))
+            spillDirectory = new File(s);
+        else if (filterConfig.getServletContext().getAttribute("javax.servlet.context.tempdir") instanceof File)
+            spillDirectory = (File) filterConfig.getServletContext().getAttribute("javax.servlet.context.tempdir");
+        log.info(filterConfig.getFilterName() + " buffering: spill-threshold=" + spillThreshold + ", spill-directory=" + spillDirectory);
+
+        // bytes:
+        s = filterConfig.getInitParameter("cache-size");
+        if (!StringUtils.isEmpty(s) && Long.valueOf(s) > 0) {
+            cache = new TransformCache(Long.valueOf(s));
+            log.info(filterConfig.getFilterName() + " transform cache: " + cache.getMaxSize() + " bytes, entries up to " + cache.getMaxEntrySize());
+        }
+
+        s = filterConfig.getInitParameter("streaming");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s)) {
+            if (transformer instanceof StreamingFormatTransformer) {
+                int threads = 16;
+                s = filterConfig.getInitParameter("streaming-threads");
+                if (!StringUtils.isEmpty(s))
+                    threads = Integer.valueOf(s);
+                streamingExecutor = createStreamingExecutor(filterConfig.getFilterName(), threads);
+
+                // bytes:
+                s = filterConfig.getInitParameter("streaming-buffer-size");
+                if (!StringUtils.isEmpty(s))
+                    streamingBufferSize = Integer.valueOf(s);
+
+                log.info(filterConfig.getFilterName() + " streaming: " + threads + " thread(s), buffer-size=" + streamingBufferSize);
+                if (cache != null)
+                    log.warn(filterConfig.getFilterName() + ": streamed responses are not cached");
+            } else
+                log.warn(filterConfig.getFilterName() + ": " + transformer.getClass().getName() + " can't stream, responses are buffered");
+        }
+    }
+
+    protected ExecutorService createStreamingExecutor(String name, int threads) {
+        final String prefix = name + "-transform-";
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
@@ -84,57 +188,333 @@ public class FormatConversionFilter implements Filter {
     }
 
     public void destroy() {
+        if (streamingExecutor != null)
+            streamingExecutor.shutdownNow();
+        transformer.destroy();
     }
 
     private void tryFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
         log.debug("HIT: " + request.getRequestURL() + " [" + request.getQueryString() + "]");
 
         RequestWrapper wrappedRequest = new RequestWrapper(request);
+        if (streamingExecutor != null) {
+            streamFilter(wrappedRequest, response, chain);
+            return;
+        }
+        Configuration cfg = configuration();
+        if (isSourceFileNotModified(wrappedRequest, cfg, response))
+            return;
+        wrappedRequest.translateConditions(cfg);
         TransformingResponse wrappedResponse = wrap(response);
 
         try {
             log.debug(">>>> " + wrappedRequest);
             chain.doFilter(wrappedRequest, wrappedResponse);
             log.debug(" ==> " + wrappedRequest + " down-chain finished. Result status: " + wrappedResponse.getDownstreamStatus());
+            if (wrappedRequest.isAsyncStarted())
+                throw new ServletException(wrappedRequest + ": went async, the response can't be converted");
 
-            postProcess(wrappedResponse);
+            postProcess(wrappedRequest, wrappedResponse, cfg);
             log.debug(" ==> " + wrappedRequest + " post-process finished");
         } catch (RuntimeException ex) {
             log.error("     " + wrappedRequest + " failed", ex);
             throw new ServletException(ex);
         } finally {
+            wrappedResponse.releaseDownstreamContent();
+            log.debug("<<<< " + wrappedRequest);
+        }
+    }
+
+    /**
+     * Transforms the response while the chain is writing it.
+     */
+    private void streamFilter(RequestWrapper wrappedRequest, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        StreamingConversionResponse wrappedResponse = new StreamingConversionResponse(response, transformer, streamingExecutor, streamingBufferSize);
+        boolean ok = false;
+        try {
+            log.debug(">>>> " + wrappedRequest + " (streaming)");
+            chain.doFilter(wrappedRequest, wrappedResponse);
+            if (wrappedRequest.isAsyncStarted())
+                throw new ServletException(wrappedRequest + ": went async, the response can't be converted");
+            ok = true;
+        } catch (RuntimeException ex) {
+            log.error("     " + wrappedRequest + " failed", ex);
+            throw new ServletException(ex);
+        } finally {
+            wrappedResponse.finish(ok);
             log.debug("<<<< " + wrappedRequest);
         }
     }
 
     protected TransformingResponse wrap(HttpServletResponse response) {
-        return new ByteBufferedHttpServletResponseWrapper(response);
+        return new ByteBufferedHttpServletResponseWrapper(response, spillThreshold, spillDirectory);
     }
 
-    private void postProcess(TransformingResponse response) throws IOException, ServletException {
-        byte downstreamContent[] = response.getDownstreamContent();
+    /**
+     * Gives a buffered response a strong ETag made of a hash of the transformer configuration and the
+     * ETag of the source, or a hash of the source content when it has no strong ETag, and the
+     * Last-Modified of the source, or the time the configuration was first seen if later. A response
+     * whose validators the client already has is answered with 304 rather than transformed.
+     */
+    private void postProcess(RequestWrapper request, TransformingResponse response, Configuration cfg) throws IOException, ServletException {
+        HttpServletResponse upstreamResponse = response.getUpstreamResponse();
+        long lastModified = response.getDownstreamLastModified() >= 0 ? Math.max(response.getDownstreamLastModified(), cfg.since) : -1;
+        if (response.getDownstreamStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+            // the source is unchanged, so is the transformation:
+            String etag = response.getDownstreamETag();
+            if (request.isConditionalGet() && isStrong(etag))
+                upstreamResponse.setHeader("ETag", eTag(cfg, "e" + opaque(etag)));
+            if (lastModified >= 0)
+                upstreamResponse.setDateHeader("Last-Modified", lastModified);
+            return;
+        }
+
+        InputStream downstreamContent = response.getDownstreamContentStream();
 
         if (downstreamContent == null)
             return;
 
-        HttpServletResponse upstreamResponse = response.getUpstreamResponse();
-        if (response.getDownstreamStatus() == HttpServletResponse.SC_OK) {
-            ByteArrayInputStream is = new ByteArrayInputStream(downstreamContent);
-            ByteArrayOutputStream os = new ByteArrayOutputStream();
-            transformer.transform(is, os);
-            byte result[] = os.toByteArray();
+        try {
+            if (response.getDownstreamStatus() == HttpServletResponse.SC_OK) {
+                String validator = sourceValidator(response);
+                String etag = eTag(cfg, validator);
+                upstreamResponse.setHeader("ETag", etag);
+                if (lastModified >= 0)
+                    upstreamResponse.setDateHeader("Last-Modified", lastModified);
+                if (request.isConditionalGet() && isNotModified(request, etag, lastModified)) {
+                    log.debug("     " + request + " not modified");
+                    upstreamResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+
+                String key = cache != null ? cacheKey(cfg, request, validator) : null;
+                TransformCache.Entry cached = key != null ? cache.get(key) : null;
+                if (cached != null) {
+                    log.debug("     " + request + " transformed before, " + cache);
+                    upstreamResponse.addHeader("X-Transformed-From", transformer.getSourceMimeType());
+                    upstreamResponse.setContentType(cached.getContentType());
+                    upstreamResponse.setContentLength(cached.getContent().length);
+                    upstreamResponse.getOutputStream().write(cached.getContent());
+                    return;
+                }
+
+                int generation = cache != null ? cache.getGeneration() : 0;
+                SpillBuffer result = new SpillBuffer(spillThreshold, spillDirectory);
+                try {
+                    transformer.transform(downstreamContent, result);
+                    result.close();
+                    if (key != null && !result.isSpilled() && result.size() <= cache.getMaxEntrySize())
+                        cache.put(key, transformer.getTargetMimeType(), result.toByteArray(), generation);
+
+                    upstreamResponse.addHeader("X-Transformed-From", transformer.getSourceMimeType());
+                    upstreamResponse.setContentType(transformer.getTargetMimeType());
+                    upstreamResponse.setContentLengthLong(result.size());
+                    InputStream in = result.getInputStream();
+                    try {
+                        BodyPump.INSTANCE.pump(in, upstreamResponse.getOutputStream(), result.size());
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    result.release();
+                }
+            } else {
+                if (response.getDownstreamETag() != null)
+                    upstreamResponse.setHeader("ETag", response.getDownstreamETag());
+                upstreamResponse.setContentType(response.getDownstreamContentType());
+                upstreamResponse.setContentLengthLong(response.getDownstreamContentSize());
+                BodyPump.INSTANCE.pump(downstreamContent, upstreamResponse.getOutputStream(), response.getDownstreamContentSize());
+            }
+        } finally {
+            downstreamContent.close();
+        }
+    }
+
+    /**
+     * @return the configuration of the transformer, the cache cleared if it has changed
+     */
+    private Configuration configuration() {
+        String tag = transformer.getConfigurationTag();
+        Configuration res = configuration;
+        if (res != null && res.tag.equals(tag))
+            return res;
+
+        synchronized (this) {
+            res = configuration;
+            if (res != null && res.tag.equals(tag))
+                return res;
+            if (res != null)
+                log.info("transformation changed" + (cache != null ? ", clearing " + cache : ""));
+            if (cache != null)
+                cache.clear();
+            MessageDigest digest = newDigest();
+            update(digest, tag);
+            // rounded up to whole seconds, as Last-Modified has it:
+            long since = (System.currentTimeMillis() + 999) / 1000 * 1000;
+            res = new Configuration(tag, hex(digest.digest()).substring(0, 16), since);
+            configuration = res;
+            return res;
+        }
+    }
+
+    /**
+     * @return what identifies the downstream content: "e" and its ETag if strong, otherwise "h" and a
+     *         digest of the content
+     */
+    private static String sourceValidator(TransformingResponse response) throws IOException {
+        String etag = response.getDownstreamETag();
+        if (isStrong(etag))
+            return "e" + opaque(etag);
+
+        // a piece at a time, the content may be spilled to disk or held in chunks:
+        MessageDigest digest = newDigest();
+        InputStream in = response.getDownstreamContentStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                digest.update(buf, 0, n);
+        } finally {
+            in.close();
+        }
+        return "h" + hex(digest.digest());
+    }
+
+    private static boolean isStrong(String etag) {
+        return etag != null && etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"");
+    }
+
+    private static String opaque(String etag) {
+        return etag.substring(1, etag.length() - 1);
+    }
+
+    private static String eTag(Configuration cfg, String validator) {
+        return "\"" + cfg.hash + "." + validator + "\"";
+    }
+
+    /**
+     * @return the ETags of the sources of the transformed ETags given, as far as made from source ETags
+     *         by the current configuration; null if none
+     */
+    private static String sourceETags(String ifNoneMatch, Configuration cfg) {
+        String prefix = "\"" + cfg.hash + ".e";
+        StringBuilder sb = new StringBuilder();
+        for (String t : ifNoneMatch.split(",")) {
+            t = t.trim();
+            if (t.startsWith("W/"))
+                t = t.substring(2);
+            if (!"*".equals(t)) {
+                if (!t.startsWith(prefix) || !t.endsWith("\""))
+                    continue;
+                t = "\"" + t.substring(prefix.length());
+            }
+            if (sb.length() > 0)
+                sb.append(", ");
+            sb.append(t);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    /**
+     * @return true if the client's own validators match the transformed response (RFC 7232, section 6)
+     */
+    private static boolean isNotModified(RequestWrapper request, String etag, long lastModified) {
+        String inm = request.getClientIfNoneMatch();
+        if (inm != null) {
+            for (String t : inm.split(",")) {
+                t = t.trim();
+                if (t.startsWith("W/"))
+                    t = t.substring(2);
+                if ("*".equals(t) || t.equals(etag))
+                    return true;
+            }
+            return false;
+        }
+
+        long ims = request.getClientIfModifiedSince();
+        return ims >= 0 && lastModified >= 0 && lastModified / 1000 <= ims / 1000;
+    }
+
+    /**
+     * Answers 304 without running the chain if the client asks If-Modified-Since, and the source is a
+     * file of the web application not modified since, nor the configuration.
+     *
+     * @return true if answered
+     */
+    private boolean isSourceFileNotModified(RequestWrapper request, Configuration cfg, HttpServletResponse response) {
+        if (!request.isConditionalGet() || request.getClientIfNoneMatch() != null || request.getClientIfModifiedSince() < 0)
+            return false;
+        long lastModified = sourceFileLastModified(request);
+        if (lastModified < 0)
+            return false;
+
+        lastModified = Math.max(lastModified, cfg.since);
+        if (lastModified / 1000 > request.getClientIfModifiedSince() / 1000)
+            return false;
+        log.debug("     " + request + " not modified, source file neither");
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setDateHeader("Last-Modified", lastModified);
+        return true;
+    }
+
+    /**
+     * @return the last-modified time of the source when served as a file of the web application, -1 if
+     *         not
+     */
+    private long sourceFileLastModified(RequestWrapper request) {
+        String path = request.getSourceFile();
+        if (path == null)
+            return -1;
+        try {
+            URL url = servletContext.getResource(path);
+            if (url == null || !"file".equals(url.getProtocol()))
+                return -1;
+            File file = new File(url.toURI());
+            return file.isFile() ? file.lastModified() : -1;
+        } catch (MalformedURLException ex) {
+            return -1;
+        } catch (URISyntaxException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the key of the transformed response in the cache: a digest of the transformer
+     *         configuration, the source, and what identifies its content
+     */
+    private static String cacheKey(Configuration cfg, HttpServletRequest request, String validator) {
+        MessageDigest digest = newDigest();
+        update(digest, cfg.tag);
+        update(digest, request.getRequestURI());
+        update(digest, request.getQueryString());
+        update(digest, validator);
+        return hex(digest.digest());
+    }
 
-            upstreamResponse.addHeader("X-Transformed-From", transformer.getSourceMimeType());
-            upstreamResponse.setContentType(transformer.getTargetMimeType());
-            upstreamResponse.setContentLength(result.length);
-            upstreamResponse.getOutputStream().write(result);
-        } else {
-            upstreamResponse.setContentType(response.getDownstreamContentType());
-            upstreamResponse.setContentLength(response.getDownstreamContentLength());
-            upstreamResponse.getOutputStream().write(downstreamContent);
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
         }
     }
 
+    private static void update(MessageDigest digest, String s) {
+        if (s != null)
+            digest.update(s.getBytes(UTF8));
+        // keeps "ab" + "c" apart from "a" + "bc":
+        digest.update((byte) 0);
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder(b.length * 2);
+        for (byte x : b)
+            sb.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        return sb.toString();
+    }
+
     private final static Pattern MAGIC_FORMAT_TAILPATTERN = Pattern.compile("(.*)\\.([a-zA-Z0-9_]+)_([a-zA-Z0-9]+)");
 
     static TransformedRequest parseRequestPath(String path) {
@@ -160,10 +540,28 @@ public class FormatConversionFilter implements Filter {
     private static class RequestWrapper extends HttpServletRequestWrapper {
         private final String pathInfo;
         private final String requestUri;
+        // the source, when served as a file of the web application:
+        private final String sourceFile;
+        // the validators of the client, of the transformed response:
+        private final String clientIfNoneMatch;
+        private final long clientIfModifiedSince;
+        // those passed down the chain instead, once translated:
+        private boolean translated;
+        private String ifNoneMatch;
+        private String ifModifiedSince;
 
         private RequestWrapper(HttpServletRequest request) {
             super(request);
 
+            clientIfNoneMatch = request.getHeader("If-None-Match");
+            long ims;
+            try {
+                ims = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException ex) {
+                ims = -1;
+            }
+            clientIfModifiedSince = ims;
+
             String contextPath = request.getContextPath();
             String servletPath = request.getServletPath();
             String path = request.getPathInfo();
@@ -178,11 +576,87 @@ public class FormatConversionFilter implements Filter {
                 TransformedRequest imageRequest = parseRequestPath(servletPath);
                 requestUri = contextPath + imageRequest.getSourcePath();
                 pathInfo = null;
+                sourceFile = imageRequest.getSourcePath();
             } else {
                 TransformedRequest imageRequest = parseRequestPath(path);
                 requestUri = contextPath + servletPath + imageRequest.getSourcePath();
                 pathInfo = imageRequest.getSourcePath();
+                sourceFile = null;
+            }
+        }
+
+        private String getSourceFile() {
+            return sourceFile;
+        }
+
+        private String getClientIfNoneMatch() {
+            return clientIfNoneMatch;
+        }
+
+        private long getClientIfModifiedSince() {
+            return clientIfModifiedSince;
+        }
+
+        private boolean isConditionalGet() {
+            return ("GET".equals(getMethod()) || "HEAD".equals(getMethod()))
+                    && (clientIfNoneMatch != null || clientIfModifiedSince >= 0);
+        }
+
+        /**
+         * Replaces the validators of a conditional GET by those of the source, as far as there are any:
+         * the ETags the configuration made from source ETags, If-Modified-Since unless the configuration
+         * has changed since, so that the chain may answer 304 itself. If-None-Match takes precedence,
+         * as in RFC 7232.
+         */
+        private void translateConditions(Configuration cfg) {
+            if (!isConditionalGet())
+                return;
+            translated = true;
+            if (clientIfNoneMatch != null)
+                ifNoneMatch = sourceETags(clientIfNoneMatch, cfg);
+            else if (clientIfModifiedSince >= cfg.since)
+                ifModifiedSince = super.getHeader("If-Modified-Since");
+        }
+
+        private boolean isTranslated(String name) {
+            return translated && ("If-None-Match".equalsIgnoreCase(name) || "If-Modified-Since".equalsIgnoreCase(name));
+        }
+
+        private String getTranslated(String name) {
+            return "If-None-Match".equalsIgnoreCase(name) ? ifNoneMatch : ifModifiedSince;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isTranslated(name) ? getTranslated(name) : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (!isTranslated(name))
+                return super.getHeaders(name);
+            String value = getTranslated(name);
+            return Collections.enumeration(value != null ? Collections.singletonList(value) : Collections.<String>emptyList());
+        }
+
+        @Override
+        public long getDateHeader(String name) {
+            if (!isTranslated(name))
+                return super.getDateHeader(name);
+            return getTranslated(name) != null ? super.getDateHeader(name) : -1;
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            if (!translated)
+                return super.getHeaderNames();
+            List<String> res = new ArrayList<String>();
+            for (Enumeration<String> e = super.getHeaderNames(); e.hasMoreElements();) {
+                String name = e.nextElement();
+                if (!isTranslated(name) || getTranslated(name) != null)
+                    res.add(name);
             }
+            return Collections.enumeration(res);
         }
 
         @Override
@@ -194,5 +668,22 @@ public class FormatConversionFilter implements Filter {
         public String getPathInfo() {
             return pathInfo;
         }
+
+        // the response is post-processed when the chain returns, so the chain must finish it by then:
+
+        @Override
+        public boolean isAsyncSupported() {
+            return false;
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            throw new IllegalStateException(getRequestURI() + ": format conversion doesn't support async");
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            throw new IllegalStateException(getRequestURI() + ": format conversion doesn't support async");
+        }
     }
 }
@@ -0,0 +1,1058 @@
+package net.sandum.servlet;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads HTML as SAX events of the XHTML that JTidy would make of it, in one pass: implied html, head,
+ * title and body elements, lower-case names, known elements only, implied ends and missing list and
+ * table elements added, font-style elements closed by a block continued in the next one, empty
+ * elements dropped, whitespace collapsed, a paragraph end without a paragraph taken as two line breaks,
+ * an empty table row given a cell, and a self-closed block element in a paragraph dropped. Only the
+ * open elements are kept, an element being reported once it turns out to have content, so memory is
+ * proportional to the nesting depth, not the size of the document.
+ * <p>
+ * The output is known to differ from JTidy's in these cases, all of them in the comparison corpus of
+ * the benchmarks module ({@code corpus/divergences.txt}):
+ * <ul>
+ * <li>Head elements found after the body has started, like title, style and meta, stay where they
+ *     are rather than move to the head, and an object before any body content goes in the body.
+ * <li>Text directly in a table stays where it is rather than move in front of it, also when the table
+ *     is implied by a stray row. Text directly in a list stays there rather than go in an item of its
+ *     own.
+ * <li>A CDATA section before any element goes in the body rather than before the html element.
+ * <li>No leading space is dropped from a textarea, all trailing spaces are dropped before the end of
+ *     a pre, a whitespace-only inline element between words makes a single space rather than two, and
+ *     no trailing space is kept at the end of an implied form.
+ * <li>The content of xmp and listing is text up to the end tag, where JTidy parses it as markup and
+ *     leaves the end tag as text.
+ * <li>A self-closed block element outside a paragraph is taken as it is: it ends a heading without
+ *     continuing it after, stays in a list item, pre or dt rather than end the list, be escaped as text
+ *     or go in a dd, and ends an address rather than stay in it.
+ * <li>No generator meta element is added.
+ * </ul>
+ * Broken markup beyond these and the usual omissions and misnesting may come out repaired differently.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+final class HtmlSaxParser {
+    // element flags:
+    private final static int INLINE = 1;        // doesn't end a paragraph
+    private final static int EMPTY = 2;         // no content, no end tag
+    private final static int REOPEN = 4;        // font style, continued after a block that ends it
+    private final static int NO_BLOCKS = 8;     // ended by a block starting in it
+    private final static int MIXED = 16;        // inline, but may hold blocks
+    private final static int KEEP = 32;         // kept even when empty
+    private final static int RAW = 64;          // content is text up to the end tag
+    private final static int RCDATA = 128;      // likewise, but with entities
+    private final static int PRESERVE = 256;    // whitespace is kept as is
+    private final static int HEAD = 512;        // belongs in the head
+    private final static int CONTAINER = 1024;  // holds elements, not text
+    private final static int TABLE_PART = 2048; // within a table, ends at the table end
+    private final static int CELL = 4096;       // table or cell, the font styles of its content stay there
+    private final static int ROOT = 8192;       // html, head, body: always there
+
+    private final static class ElementType {
+        private final String name;
+        private final int flags;
+
+        private ElementType(String name, int flags) {
+            this.name = name;
+            this.flags = flags;
+        }
+
+        private boolean is(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    private final static Map<String, ElementType> ELEMENTS = new HashMap<String, ElementType>();
+
+    private static void element(String names, int flags) {
+        for (String name : names.split(" "))
+            ELEMENTS.put(name, new ElementType(name, flags));
+    }
+
+    private static void alias(String name, String target) {
+        ELEMENTS.put(name, ELEMENTS.get(target));
+    }
+
+    static {
+        element("html head", ROOT | CONTAINER);
+        element("body frameset", ROOT);
+        element("title", HEAD | KEEP);
+        element("meta link base bgsound", HEAD | INLINE | EMPTY);
+        element("style", HEAD | INLINE | RAW);
+        element("script", HEAD | INLINE | RAW | KEEP);
+
+        element("b i u s strike em strong font big small tt code var kbd samp cite dfn sub sup blink", INLINE | REOPEN);
+        element("a abbr acronym bdo q span label legend nobr del ins marquee", INLINE);
+        element("noscript map object applet button", INLINE | MIXED);
+        element("iframe select", INLINE | KEEP);
+        element("textarea", INLINE | RCDATA | PRESERVE | KEEP);
+        element("option optgroup", INLINE);
+        element("img input br wbr basefont embed spacer keygen area param", INLINE | EMPTY);
+
+        element("p h1 h2 h3 h4 h5 h6 dt address", NO_BLOCKS);
+        element("div center blockquote form fieldset li dd noframes noembed multicol", 0);
+        element("pre", PRESERVE);
+        element("ul ol dl", CONTAINER);
+        element("hr isindex frame", EMPTY);
+
+        element("table", CONTAINER | CELL);
+        element("thead tbody tfoot colgroup", CONTAINER | TABLE_PART);
+        element("tr", CONTAINER | TABLE_PART | KEEP);
+        element("td th", TABLE_PART | CELL | KEEP);
+        element("caption", TABLE_PART | CELL);
+        element("col", TABLE_PART | EMPTY);
+
+        alias("dir", "ul");
+        alias("menu", "ul");
+        alias("xmp", "pre");
+        alias("listing", "pre");
+        alias("plaintext", "pre");
+    }
+
+    // the form JTidy puts around form controls directly in the body, ended by the next block:
+    private final static ElementType IMPLIED_FORM = new ElementType("form", NO_BLOCKS);
+
+    // attributes with keyword values, which JTidy lower-cases:
+    private final static Set<String> KEYWORD_ATTRIBUTES = new HashSet<String>(Arrays.asList((
+            "align valign clear method scope dir shape checked selected disabled readonly multiple " +
+            "nowrap noshade compact ismap declare defer nohref noresize").split(" ")));
+
+    private final static Map<String, Integer> ENTITIES = new HashMap<String, Integer>();
+
+    static {
+        // the HTML 4 character entities:
+        String[] table = (
+            "quot 34 amp 38 lt 60 gt 62 nbsp 160 iexcl 161 cent 162 pound 163 curren 164 yen 165 " +
+            "brvbar 166 sect 167 uml 168 copy 169 ordf 170 laquo 171 not 172 shy 173 reg 174 macr 175 " +
+            "deg 176 plusmn 177 sup2 178 sup3 179 acute 180 micro 181 para 182 middot 183 cedil 184 " +
+            "sup1 185 ordm 186 raquo 187 frac14 188 frac12 189 frac34 190 iquest 191 Agrave 192 " +
+            "Aacute 193 Acirc 194 Atilde 195 Auml 196 Aring 197 AElig 198 Ccedil 199 Egrave 200 " +
+            "Eacute 201 Ecirc 202 Euml 203 Igrave 204 Iacute 205 Icirc 206 Iuml 207 ETH 208 Ntilde 209 " +
+            "Ograve 210 Oacute 211 Ocirc 212 Otilde 213 Ouml 214 times 215 Oslash 216 Ugrave 217 " +
+            "Uacute 218 Ucirc 219 Uuml 220 Yacute 221 THORN 222 szlig 223 agrave 224 aacute 225 " +
+            "acirc 226 atilde 227 auml 228 aring 229 aelig 230 ccedil 231 egrave 232 eacute 233 " +
+            "ecirc 234 euml 235 igrave 236 iacute 237 icirc 238 iuml 239 eth 240 ntilde 241 ograve 242 " +
+            "oacute 243 ocirc 244 otilde 245 ouml 246 divide 247 oslash 248 ugrave 249 uacute 250 " +
+            "ucirc 251 uuml 252 yacute 253 thorn 254 yuml 255 OElig 338 oelig 339 Scaron 352 scaron 353 " +
+            "Yuml 376 fnof 402 circ 710 tilde 732 Alpha 913 Beta 914 Gamma 915 Delta 916 Epsilon 917 " +
+            "Zeta 918 Eta 919 Theta 920 Iota 921 Kappa 922 Lambda 923 Mu 924 Nu 925 Xi 926 Omicron 927 " +
+            "Pi 928 Rho 929 Sigma 931 Tau 932 Upsilon 933 Phi 934 Chi 935 Psi 936 Omega 937 alpha 945 " +
+            "beta 946 gamma 947 delta 948 epsilon 949 zeta 950 eta 951 theta 952 iota 953 kappa 954 " +
+            "lambda 955 mu 956 nu 957 xi 958 omicron 959 pi 960 rho 961 sigmaf 962 sigma 963 tau 964 " +
+            "upsilon 965 phi 966 chi 967 psi 968 omega 969 thetasym 977 upsih 978 piv 982 ensp 8194 " +
+            "emsp 8195 thinsp 8201 zwnj 8204 zwj 8205 lrm 8206 rlm 8207 ndash 8211 mdash 8212 lsquo 8216 " +
+            "rsquo 8217 sbquo 8218 ldquo 8220 rdquo 8221 bdquo 8222 dagger 8224 Dagger 8225 bull 8226 " +
+            "hellip 8230 permil 8240 prime 8242 Prime 8243 lsaquo 8249 rsaquo 8250 oline 8254 frasl 8260 " +
+            "euro 8364 image 8465 weierp 8472 real 8476 trade 8482 alefsym 8501 larr 8592 uarr 8593 " +
+            "rarr 8594 darr 8595 harr 8596 crarr 8629 lArr 8656 uArr 8657 rArr 8658 dArr 8659 hArr 8660 " +
+            "forall 8704 part 8706 exist 8707 empty 8709 nabla 8711 isin 8712 notin 8713 ni 8715 " +
+            "prod 8719 sum 8721 minus 8722 lowast 8727 radic 8730 prop 8733 infin 8734 ang 8736 and 8743 " +
+            "or 8744 cap 8745 cup 8746 int 8747 there4 8756 sim 8764 cong 8773 asymp 8776 ne 8800 " +
+            "equiv 8801 le 8804 ge 8805 sub 8834 sup 8835 nsub 8836 sube 8838 supe 8839 oplus 8853 " +
+            "otimes 8855 perp 8869 sdot 8901 lceil 8968 rceil 8969 lfloor 8970 rfloor 8971 lang 9001 " +
+            "rang 9002 loz 9674 spades 9824 clubs 9827 hearts 9829 diams 9830 "
+            ).trim().split(" ");
+        for (int i = 0; i < table.length; i += 2)
+            ENTITIES.put(table[i], Integer.valueOf(table[i + 1]));
+    }
+
+    private final static AttributesImpl NO_ATTRIBUTES = new AttributesImpl();
+
+    /**
+     * An open element, reported to the content handler once it has content.
+     */
+    private final static class Frame {
+        private final ElementType type;
+        private final AttributesImpl attributes;
+        private boolean started;
+        // whether an element has been opened in it:
+        private boolean parent;
+        // of a table or cell, the font styles to reopen outside it:
+        private int savedReopenBase;
+
+        private Frame(ElementType type, AttributesImpl attributes) {
+            this.type = type;
+            this.attributes = attributes;
+        }
+    }
+
+    // where the parser is:
+    private final static int BEFORE_HTML = 0;
+    private final static int BEFORE_HEAD = 1;
+    private final static int IN_HEAD = 2;
+    private final static int AFTER_HEAD = 3;
+    private final static int IN_BODY = 4;
+
+    private final ContentHandler content;
+    private final LexicalHandler lexical;
+
+    private Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean lastCR;
+
+    private final char[] text = new char[4096];
+    private int textLength;
+    private final StringBuilder sb = new StringBuilder();
+
+    private final List<Frame> stack = new ArrayList<Frame>();
+    // font styles ended by a block, to continue in the next one:
+    private final List<Frame> reopen = new ArrayList<Frame>();
+    private int reopenBase;
+
+    private int mode = BEFORE_HTML;
+    private boolean titleSeen;
+    private int preserve;
+    private boolean pendingSpace;
+    private boolean skipSpace = true;
+    private boolean skipNewline;
+
+    /**
+     * @param lexical   gets the comments and CDATA sections, may be null
+     */
+    HtmlSaxParser(ContentHandler content, LexicalHandler lexical) {
+        this.content = content;
+        this.lexical = lexical;
+    }
+
+    /**
+     * Reports the document read from in as a whole, from startDocument to endDocument. A parser reads
+     * one document only.
+     */
+    void parse(Reader reader) throws IOException, SAXException {
+        in = reader;
+        content.startDocument();
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '<')
+                markup();
+            else if (c == '&')
+                character(entity());
+            else if (isSpace(c))
+                space((char) c);
+            else
+                character(c);
+        }
+        if (mode != IN_BODY)
+            openBody(ELEMENTS.get("body"), NO_ATTRIBUTES);
+        while (!stack.isEmpty())
+            close(false);
+        content.endDocument();
+    }
+
+    // input:
+
+    /**
+     * @return whether n chars are available from pos, line ends normalized to '\n'
+     */
+    private boolean fill(int n) throws IOException {
+        if (limit - pos >= n)
+            return true;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n && !eof) {
+            int r = in.read(buf, limit, buf.length - limit);
+            if (r < 0) {
+                eof = true;
+                break;
+            }
+            int j = limit;
+            for (int i = limit; i < limit + r; i++) {
+                char c = buf[i];
+                if (c == '\n' && lastCR) {
+                    lastCR = false;
+                    continue;
+                }
+                lastCR = c == '\r';
+                buf[j++] = lastCR ? '\n' : c;
+            }
+            limit = j;
+        }
+        return limit - pos >= n;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill(1))
+            return -1;
+        return buf[pos++];
+    }
+
+    private int peek(int i) throws IOException {
+        if (!fill(i + 1))
+            return -1;
+        return buf[pos + i];
+    }
+
+    private void skipTo(char end) throws IOException {
+        int c;
+        while ((c = read()) >= 0 && c != end)
+            ;
+    }
+
+    private void skipSpaces() throws IOException {
+        while (isSpace(peek(0)))
+            pos++;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLetter(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLetterOrDigit(int c) {
+        return isLetter(c) || c >= '0' && c <= '9';
+    }
+
+    // markup:
+
+    private void markup() throws IOException, SAXException {
+        int c = peek(0);
+        if (isLetter(c))
+            startTag();
+        else if (c == '/' && isLetter(peek(1))) {
+            pos++;
+            endTag();
+        } else if (c == '!' && peek(1) == '-' && peek(2) == '-') {
+            pos += 3;
+            comment();
+        } else if (c == '!' && startsWith("![CDATA[")) {
+            pos += 8;
+            cdata();
+        } else if (c == '!' || c == '?')
+            // doctype, processing instruction: dropped
+            skipTo('>');
+        else
+            character('<');
+    }
+
+    private boolean startsWith(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            if (peek(i) != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    private String readName() throws IOException {
+        sb.setLength(0);
+        int c;
+        while ((c = peek(0)) >= 0 && (isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c == '.')) {
+            sb.append((char) c);
+            pos++;
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private void startTag() throws IOException, SAXException {
+        String name = readName();
+        List<String> names = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        boolean selfClosing = readAttributes(names, values);
+        ElementType type = ELEMENTS.get(name);
+        if (type == null)
+            // unknown: the content is kept, the element dropped
+            return;
+
+        // JTidy lists the attributes last to first, then the ones it adds:
+        AttributesImpl attributes = new AttributesImpl();
+        for (int i = names.size() - 1; i >= 0; i--)
+            attributes.addAttribute("", names.get(i), names.get(i), "CDATA", values.get(i));
+        if (type.name.equals("style") && !names.contains("type"))
+            attributes.addAttribute("", "type", "type", "CDATA", "text/css");
+        else if (type.name.equals("script") && !names.contains("type"))
+            attributes.addAttribute("", "type", "type", "CDATA", "text/javascript");
+        else if (type.name.equals("link") && !names.contains("type") && names.contains("rel")
+                && values.get(names.indexOf("rel")).toLowerCase(Locale.ROOT).contains("stylesheet"))
+            attributes.addAttribute("", "type", "type", "CDATA", "text/css");
+
+        start(type, attributes, selfClosing);
+    }
+
+    /**
+     * Reads the attributes up to the end of the tag, a later one replacing an earlier one of the same
+     * name.
+     *
+     * @return whether the tag ends with "/&gt;"
+     */
+    private boolean readAttributes(List<String> names, List<String> values) throws IOException {
+        while (true) {
+            skipSpaces();
+            int c = peek(0);
+            if (c < 0)
+                return false;
+            pos++;
+            if (c == '>')
+                return false;
+            if (c == '/') {
+                if (peek(0) == '>') {
+                    pos++;
+                    return true;
+                }
+                continue;
+            }
+            if (c == '=' || c == '"' || c == '\'')
+                continue;
+
+            sb.setLength(0);
+            sb.append(Character.toLowerCase((char) c));
+            while ((c = peek(0)) >= 0 && !isSpace(c) && c != '=' && c != '>' && !(c == '/' && peek(1) == '>')) {
+                sb.append(Character.toLowerCase((char) c));
+                pos++;
+            }
+            String name = sb.toString();
+            String value = name;
+            skipSpaces();
+            if (peek(0) == '=') {
+                pos++;
+                skipSpaces();
+                value = readValue(name);
+            }
+            if (!isXmlName(name))
+                continue;
+            if (KEYWORD_ATTRIBUTES.contains(name))
+                value = value.toLowerCase(Locale.ROOT);
+            int i = names.indexOf(name);
+            if (i >= 0) {
+                names.remove(i);
+                values.remove(i);
+            }
+            names.add(name);
+            values.add(value);
+        }
+    }
+
+    /**
+     * @return the value, whitespace collapsed and entities resolved, the name if missing
+     */
+    private String readValue(String name) throws IOException {
+        sb.setLength(0);
+        int c;
+        int quote = peek(0);
+        if (quote == '"' || quote == '\'') {
+            pos++;
+            boolean space = false;
+            while ((c = read()) >= 0 && c != quote) {
+                if (isSpace(c)) {
+                    space = true;
+                    continue;
+                }
+                if (space)
+                    sb.append(' ');
+                space = false;
+                sb.appendCodePoint(c == '&' ? entity() : c);
+            }
+            if (space)
+                sb.append(' ');
+            return sb.toString();
+        }
+        while ((c = peek(0)) >= 0 && !isSpace(c) && c != '>' && !(c == '/' && peek(1) == '>')) {
+            pos++;
+            sb.appendCodePoint(c == '&' ? entity() : c);
+        }
+        return sb.length() > 0 ? sb.toString() : name;
+    }
+
+    private static boolean isXmlName(String name) {
+        if (!isLetter(name.charAt(0)) && name.charAt(0) != '_')
+            return false;
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!isLetterOrDigit(c) && c != '-' && c != '_' && c != ':' && c != '.')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a character reference, the '&amp;' already read.
+     *
+     * @return the character, '&amp;' itself when not followed by a known entity or valid number
+     */
+    private int entity() throws IOException {
+        int c = peek(0);
+        if (c == '#') {
+            int radix = 10;
+            int i = 1;
+            if (peek(1) == 'x' || peek(1) == 'X') {
+                radix = 16;
+                i = 2;
+            }
+            int start = i;
+            int value = 0;
+            while ((c = peek(i)) >= 0 && Character.digit(c, radix) >= 0 && i - start < 8) {
+                value = value * radix + Character.digit(c, radix);
+                i++;
+            }
+            if (i == start || isLetterOrDigit(c) || value == 0 || value > Character.MAX_CODE_POINT)
+                return '&';
+            if (c == ';')
+                i++;
+            pos += i;
+            if (value >= 0xd800 && value <= 0xdfff || value == 0xfffe || value == 0xffff)
+                return 0xfffd;
+            return value;
+        }
+
+        int i = 0;
+        while ((c = peek(i)) >= 0 && isLetterOrDigit(c) && i < 10)
+            i++;
+        if (i == 0 || isLetterOrDigit(c))
+            return '&';
+        Integer res = ENTITIES.get(new String(buf, pos, i));
+        if (res == null)
+            return '&';
+        pos += i;
+        if (peek(0) == ';')
+            pos++;
+        return res;
+    }
+
+    private void endTag() throws IOException, SAXException {
+        String name = readName();
+        skipTo('>');
+        ElementType type = ELEMENTS.get(name);
+        if (type != null)
+            end(type);
+    }
+
+    private void comment() throws IOException, SAXException {
+        sb.setLength(0);
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '-' && peek(0) == '-' && peek(1) == '>') {
+                pos += 2;
+                break;
+            }
+            sb.append((char) c);
+        }
+        // "--" can't be in an XML comment, nor a '-' at the end:
+        String s = sb.toString().replace("--", "==");
+        if (s.endsWith("-"))
+            s = s.substring(0, s.length() - 1) + "=";
+
+        if (mode != BEFORE_HTML)
+            emitPending();
+        flushText();
+        if (lexical != null)
+            lexical.comment(s.toCharArray(), 0, s.length());
+    }
+
+    private void cdata() throws IOException, SAXException {
+        sb.setLength(0);
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == ']' && peek(0) == ']' && peek(1) == '>') {
+                pos += 2;
+                break;
+            }
+            sb.append((char) c);
+        }
+        beforeText();
+        flushText();
+        if (lexical != null)
+            lexical.startCDATA();
+        content.characters(sb.toString().toCharArray(), 0, sb.length());
+        if (lexical != null)
+            lexical.endCDATA();
+    }
+
+    // content:
+
+    private void space(char c) throws SAXException {
+        if (skipNewline) {
+            skipNewline = false;
+            if (c == '\n')
+                return;
+        }
+        if (mode != IN_BODY && !inTitle())
+            return;
+        if (preserve > 0)
+            character(c);
+        else if (!skipSpace)
+            pendingSpace = true;
+    }
+
+    private void character(int c) throws SAXException {
+        beforeText();
+        append(c);
+    }
+
+    private void append(int c) throws SAXException {
+        if (textLength + 2 > text.length)
+            flushText();
+        if (Character.isSupplementaryCodePoint(c))
+            textLength += Character.toChars(c, text, textLength);
+        else
+            text[textLength++] = (char) c;
+    }
+
+    /**
+     * Gets the elements text goes in started.
+     */
+    private void beforeText() throws SAXException {
+        skipNewline = false;
+        if (mode != IN_BODY && !inTitle())
+            openBody(ELEMENTS.get("body"), NO_ATTRIBUTES);
+        reopen();
+        emitPending();
+        skipSpace = false;
+    }
+
+    /**
+     * Reports the pending space and the elements not started yet.
+     */
+    private void emitPending() throws SAXException {
+        if (pendingSpace) {
+            pendingSpace = false;
+            // the space goes before the elements that follow it:
+            if (textLength == text.length)
+                flushText();
+            text[textLength++] = ' ';
+        }
+        for (Frame f : stack)
+            if (!f.started) {
+                flushText();
+                content.startElement("", f.type.name, f.type.name, f.attributes);
+                f.started = true;
+            }
+    }
+
+    private void flushText() throws SAXException {
+        if (textLength > 0)
+            content.characters(text, 0, textLength);
+        textLength = 0;
+    }
+
+    private boolean inTitle() {
+        return mode == IN_HEAD && top().type.is(HEAD);
+    }
+
+    private Frame top() {
+        return stack.get(stack.size() - 1);
+    }
+
+    // structure:
+
+    private void openHtml() throws SAXException {
+        Frame html = new Frame(ELEMENTS.get("html"), NO_ATTRIBUTES);
+        stack.add(html);
+        emitPending();
+        mode = BEFORE_HEAD;
+    }
+
+    private void openHead() throws SAXException {
+        if (mode == BEFORE_HTML)
+            openHtml();
+        stack.add(new Frame(ELEMENTS.get("head"), NO_ATTRIBUTES));
+        emitPending();
+        mode = IN_HEAD;
+    }
+
+    private void closeHead() throws SAXException {
+        while (!top().type.name.equals("head"))
+            close(false);
+        if (!titleSeen) {
+            flushText();
+            content.startElement("", "title", "title", NO_ATTRIBUTES);
+            content.endElement("", "title", "title");
+        }
+        close(false);
+        mode = AFTER_HEAD;
+    }
+
+    private void openBody(ElementType type, AttributesImpl attributes) throws SAXException {
+        if (mode < IN_HEAD)
+            openHead();
+        if (mode == IN_HEAD)
+            closeHead();
+        stack.add(new Frame(type, attributes));
+        emitPending();
+        mode = IN_BODY;
+        pendingSpace = false;
+        skipSpace = true;
+    }
+
+    private void start(ElementType type, AttributesImpl attributes, boolean selfClosing) throws IOException, SAXException {
+        String name = type.name;
+        skipNewline = false;
+        if (name.equals("html")) {
+            if (mode == BEFORE_HTML) {
+                stack.add(new Frame(type, attributes));
+                emitPending();
+                mode = BEFORE_HEAD;
+            }
+            return;
+        }
+        if (name.equals("head")) {
+            if (mode < IN_HEAD)
+                openHead();
+            return;
+        }
+        if (name.equals("body") || name.equals("frameset")) {
+            if (mode != IN_BODY)
+                openBody(type, attributes);
+            return;
+        }
+
+        if (type.is(HEAD) && mode <= IN_HEAD) {
+            if (mode < IN_HEAD)
+                openHead();
+            while (!top().type.name.equals("head"))
+                close(false);
+            if (name.equals("title")) {
+                if (titleSeen)
+                    return;
+                titleSeen = true;
+            }
+        } else {
+            if (mode != IN_BODY)
+                openBody(ELEMENTS.get("body"), NO_ATTRIBUTES);
+            if (selfClosing && !type.is(INLINE) && isInlineContext())
+                // as JTidy drops e.g. <hr/> in a paragraph:
+                return;
+            if (!imply(type))
+                return;
+        }
+        open(type, attributes, selfClosing);
+    }
+
+    /**
+     * @return whether the parser is in a paragraph or an inline element that can't hold blocks
+     */
+    private boolean isInlineContext() {
+        ElementType top = top().type;
+        return top.name.equals("p") || top.is(INLINE) && !top.is(MIXED);
+    }
+
+    /**
+     * Ends the elements the one starting can't be in, and starts the ones it must be in.
+     *
+     * @return false if the element is to be dropped
+     */
+    private boolean imply(ElementType type) throws IOException, SAXException {
+        String name = type.name;
+        if (!type.is(INLINE)) {
+            // a block ends the inline elements and paragraphs it is in:
+            Frame f;
+            while ((f = top()).type.is(INLINE) && !f.type.is(MIXED) || f.type.is(NO_BLOCKS))
+                close(true);
+        }
+
+        int i;
+        if (name.equals("li")) {
+            i = find(CELL, "li", "ul", "ol");
+            closeTo(i, "li");
+            if (i < 0) {
+                AttributesImpl attributes = new AttributesImpl();
+                attributes.addAttribute("", "class", "class", "CDATA", "noindent");
+                open(ELEMENTS.get("ul"), attributes, false);
+            }
+        } else if (name.equals("dt") || name.equals("dd")) {
+            i = find(CELL, "dt", "dd", "dl");
+            closeTo(i, "dt", "dd");
+            if (i < 0)
+                open(ELEMENTS.get("dl"), NO_ATTRIBUTES, false);
+        } else if (name.equals("tr")) {
+            i = find(0, "tr", "thead", "tbody", "tfoot", "table");
+            closeTo(i, "tr");
+            if (i < 0)
+                open(ELEMENTS.get("table"), NO_ATTRIBUTES, false);
+        } else if (name.equals("td") || name.equals("th")) {
+            i = find(0, "td", "th", "tr", "thead", "tbody", "tfoot", "table");
+            closeTo(i, "td", "th");
+            if (i < 0)
+                open(ELEMENTS.get("table"), NO_ATTRIBUTES, false);
+            if (!top().type.name.equals("tr"))
+                open(ELEMENTS.get("tr"), NO_ATTRIBUTES, false);
+        } else if (name.equals("thead") || name.equals("tbody") || name.equals("tfoot")) {
+            i = find(0, "thead", "tbody", "tfoot", "table");
+            closeTo(i, "thead", "tbody", "tfoot");
+            if (i < 0)
+                open(ELEMENTS.get("table"), NO_ATTRIBUTES, false);
+        } else if (name.equals("caption") || name.equals("colgroup") || name.equals("col")) {
+            closeTo(find(0, "table"));
+        } else if (name.equals("option")) {
+            i = find(CELL, "option", "optgroup", "select");
+            if (i < 0)
+                return false;
+            closeTo(i, "option");
+        } else if (name.equals("optgroup")) {
+            i = find(CELL, "optgroup", "select");
+            if (i < 0)
+                return false;
+            closeTo(i, "optgroup");
+        } else if (name.equals("a")) {
+            for (i = stack.size() - 1; i >= 0 && stack.get(i).type.is(INLINE); i--)
+                if (stack.get(i).type.name.equals("a")) {
+                    closeTo(i, "a");
+                    break;
+                }
+        } else if (name.equals("input")) {
+            if (top().type.name.equals("body") && find(0, "form") < 0)
+                open(IMPLIED_FORM, NO_ATTRIBUTES, false);
+        }
+        return true;
+    }
+
+    /**
+     * @param boundary  flags of the elements to look no further than
+     * @return the index of the innermost open element named one of names, -1 if none
+     */
+    private int find(int boundary, String... names) {
+        for (int i = stack.size() - 1; i >= 0; i--) {
+            Frame f = stack.get(i);
+            for (String name : names)
+                if (f.type.name.equals(name))
+                    return i;
+            if (f.type.is(boundary | ROOT))
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Ends the elements within the one at index i, and that one too if named one of inclusive.
+     */
+    private void closeTo(int i, String... inclusive) throws SAXException {
+        if (i < 0)
+            return;
+        while (stack.size() - 1 > i)
+            close(true);
+        for (String name : inclusive)
+            if (top().type.name.equals(name)) {
+                close(false);
+                return;
+            }
+    }
+
+    private void open(ElementType type, AttributesImpl attributes, boolean selfClosing) throws IOException, SAXException {
+        if (type.is(INLINE))
+            reopen();
+        if (!type.is(INLINE) && pendingSpace)
+            emitPending();
+
+        if (type.is(EMPTY)) {
+            if (type.name.equals("br"))
+                pendingSpace = false;
+            emitPending();
+            flushText();
+            content.startElement("", type.name, type.name, attributes);
+            content.endElement("", type.name, type.name);
+            skipSpace = !type.is(INLINE);
+            skipNewline = type.name.equals("br");
+            return;
+        }
+
+        Frame f = new Frame(type, attributes);
+        if (!stack.isEmpty())
+            top().parent = true;
+        stack.add(f);
+        if (type.is(CELL)) {
+            f.savedReopenBase = reopenBase;
+            reopenBase = reopen.size();
+        }
+        if (type.is(PRESERVE))
+            preserve++;
+        if (!type.is(INLINE)) {
+            pendingSpace = false;
+            skipSpace = true;
+        }
+        skipNewline = true;
+
+        if (type.is(RAW | RCDATA))
+            raw(f);
+        else if (selfClosing)
+            close(false);
+    }
+
+    /**
+     * Reads the content of a script, style or textarea element, up to its end tag, and ends it.
+     */
+    private void raw(Frame f) throws IOException, SAXException {
+        String name = f.type.name;
+        boolean entities = f.type.is(RCDATA);
+        int c;
+        while ((c = read()) >= 0) {
+            if (c == '<' && peek(0) == '/' && isEndOf(name))
+                break;
+            if (skipNewline) {
+                skipNewline = false;
+                if (c == '\n')
+                    continue;
+            }
+            if (c == '&' && entities)
+                c = entity();
+            if (!f.started)
+                emitPending();
+            append(c);
+        }
+        skipNewline = false;
+        close(false);
+    }
+
+    /**
+     * @return whether an end tag for the element follows "&lt;", in which case it's skipped
+     */
+    private boolean isEndOf(String name) throws IOException {
+        for (int i = 0; i < name.length(); i++)
+            if (Character.toLowerCase((char) peek(i + 1)) != name.charAt(i))
+                return false;
+        int c = peek(name.length() + 1);
+        if (c >= 0 && !isSpace(c) && c != '>' && c != '/')
+            return false;
+        pos += name.length() + 1;
+        skipTo('>');
+        return true;
+    }
+
+    private void end(ElementType type) throws IOException, SAXException {
+        String name = type.name;
+        skipNewline = false;
+        if (name.equals("html") || name.equals("body") || name.equals("frameset")) {
+            // whatever follows goes in the body still, but not in the inline elements open here:
+            if (mode == IN_BODY) {
+                pendingSpace = false;
+                while (top().type.is(INLINE) && !top().type.is(MIXED))
+                    close(false);
+            }
+            return;
+        }
+        if (name.equals("head")) {
+            if (mode == IN_HEAD)
+                closeHead();
+            return;
+        }
+
+        if (mode == BEFORE_HTML)
+            return;
+
+        int i;
+        if (name.equals("table"))
+            i = find(0, name);
+        else if (type.is(TABLE_PART))
+            i = findInTable(name);
+        else
+            i = find(CELL, name);
+        Frame top = top();
+        if (i < 0 && name.equals("p") && mode == IN_BODY) {
+            // as JTidy takes a paragraph end without a paragraph:
+            start(ELEMENTS.get("br"), NO_ATTRIBUTES, false);
+            start(ELEMENTS.get("br"), NO_ATTRIBUTES, false);
+            return;
+        }
+        if (i < 0) {
+            // no longer open, nor to be continued:
+            for (int j = reopen.size() - 1; j >= reopenBase; j--)
+                if (reopen.get(j).type == type) {
+                    reopen.remove(j);
+                    return;
+                }
+            // a font style ended out of order, as JTidy takes it:
+            if (type.is(REOPEN) && top.type.is(REOPEN))
+                close(false);
+            return;
+        }
+
+        if (type.is(INLINE) && i < stack.size() - 1 && top.type.is(REOPEN)) {
+            // misnested, end the innermost inline element instead:
+            close(false);
+            return;
+        }
+        while (stack.size() - 1 > i)
+            close(true);
+        close(false);
+    }
+
+    private int findInTable(String name) {
+        for (int i = stack.size() - 1; i >= 0 && !stack.get(i).type.is(ROOT); i--) {
+            Frame f = stack.get(i);
+            if (f.type.name.equals(name))
+                return i;
+            if (f.type.name.equals("table"))
+                return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Ends the innermost open element.
+     *
+     * @param reopen    whether to continue it in the next block, if a font style
+     */
+    private void close(boolean reopen) throws SAXException {
+        Frame f = top();
+        boolean block = !f.type.is(INLINE);
+        if (block)
+            pendingSpace = false;
+        if (!f.started && keep(f))
+            emitPending();
+        if (f.type.name.equals("tr") && !f.parent) {
+            // as JTidy fills an empty row:
+            flushText();
+            content.startElement("", "td", "td", NO_ATTRIBUTES);
+            content.endElement("", "td", "td");
+        }
+        stack.remove(stack.size() - 1);
+        if (f.started) {
+            flushText();
+            content.endElement("", f.type.name, f.type.name);
+        }
+        if (block)
+            skipSpace = true;
+        if (f.type.is(PRESERVE))
+            preserve--;
+        if (f.type.is(CELL)) {
+            while (this.reopen.size() > reopenBase)
+                this.reopen.remove(this.reopen.size() - 1);
+            reopenBase = f.savedReopenBase;
+        }
+        if (reopen && f.type.is(REOPEN))
+            this.reopen.add(new Frame(f.type, f.attributes));
+    }
+
+    private static boolean keep(Frame f) {
+        if (f.type.is(KEEP | ROOT))
+            return true;
+        if (f.type.name.equals("a") && f.attributes.getLength() > 0)
+            return true;
+        return f.attributes.getIndex("id") >= 0 || f.attributes.getIndex("name") >= 0;
+    }
+
+    /**
+     * Continues the font styles ended by the last block, if text can go where the parser is.
+     */
+    private void reopen() {
+        ElementType top = top().type;
+        if (reopen.size() <= reopenBase || top.is(CONTAINER) || top.name.equals("select") || top.name.equals("optgroup"))
+            return;
+        // innermost ended first, so outermost last:
+        for (int i = reopen.size() - 1; i >= reopenBase; i--)
+            stack.add(new Frame(reopen.get(i).type, reopen.get(i).attributes));
+        while (reopen.size() > reopenBase)
+            reopen.remove(reopen.size() - 1);
+    }
+}
@@ -0,0 +1,125 @@
+package net.sandum.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.sandum.util.servlet.Histogram;
+import net.sandum.util.servlet.ProxyMetrics;
+
+/**
+ * Serves the metrics of the {@link ProxyServlet}s of the web application in the Prometheus text
+ * exposition format. Latencies are summaries in seconds, labelled with the proxy servlet, the route
+ * (the suffix of its path-pattern init-parameter) and the upstream host.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class MetricsServlet extends HttpServlet {
+    private final static long serialVersionUID = 1L;
+
+    private final static String REGISTRY = MetricsServlet.class.getName() + ".registry";
+    private final static double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    /**
+     * Makes the metrics of a proxy servlet available to the metrics servlets of its context.
+     */
+    public static void register(ServletContext context, String name, ProxyMetrics metrics) {
+        registry(context).put(name, metrics);
+    }
+
+    public static void unregister(ServletContext context, String name) {
+        registry(context).remove(name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ConcurrentMap<String, ProxyMetrics> registry(ServletContext context) {
+        synchronized (context) {
+            ConcurrentMap<String, ProxyMetrics> res = (ConcurrentMap<String, ProxyMetrics>) context.getAttribute(REGISTRY);
+            if (res == null) {
+                res = new ConcurrentHashMap<String, ProxyMetrics>();
+                context.setAttribute(REGISTRY, res);
+            }
+            return res;
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        StringBuilder sb = new StringBuilder(8192);
+        Map<String, ProxyMetrics> metrics = registry(getServletContext());
+
+        header(sb, "proxy_upstream_in_flight", "gauge", "Upstream requests in progress");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                sample(sb, "proxy_upstream_in_flight", labels(e.getKey(), s), s.getInFlight());
+
+        header(sb, "proxy_upstream_responses_total", "counter", "Upstream responses by status");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                for (Map.Entry<Integer, Long> st : s.getStatuses().entrySet())
+                    sample(sb, "proxy_upstream_responses_total", labels(e.getKey(), s) + ",status=\"" + st.getKey() + "\"", st.getValue());
+
+        header(sb, "proxy_upstream_errors_total", "counter", "Upstream requests failing without a response");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                sample(sb, "proxy_upstream_errors_total", labels(e.getKey(), s), s.getErrors());
+
+        header(sb, "proxy_upstream_time_to_headers_seconds", "summary", "Time from request to upstream response headers");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                summary(sb, "proxy_upstream_time_to_headers_seconds", labels(e.getKey(), s), s.getTimeToHeaders(), 1e6);
+
+        header(sb, "proxy_upstream_time_to_last_byte_seconds", "summary", "Time from request to the last byte of the upstream response");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                summary(sb, "proxy_upstream_time_to_last_byte_seconds", labels(e.getKey(), s), s.getTimeToLastByte(), 1e6);
+
+        header(sb, "proxy_upstream_response_bytes", "summary", "Upstream response body sizes");
+        for (Map.Entry<String, ProxyMetrics> e : metrics.entrySet())
+            for (ProxyMetrics.Series s : e.getValue().getSeries())
+                summary(sb, "proxy_upstream_response_bytes", labels(e.getKey(), s), s.getResponseBytes(), 1);
+
+        PrintWriter out = response.getWriter();
+        out.write(sb.toString());
+        out.flush();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name).append('{').append(labels).append("} ");
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            sb.append((long) value);
+        else
+            sb.append(value);
+        sb.append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, Histogram.Snapshot h, double unit) {
+        for (double q : QUANTILES)
+            sample(sb, name, labels + ",quantile=\"" + q + "\"", h.getValueAtQuantile(q) / unit);
+        sample(sb, name + "_sum", labels, h.getSum() / unit);
+        sample(sb, name + "_count", labels, h.getCount());
+    }
+
+    private static String labels(String proxy, ProxyMetrics.Series s) {
+        return "proxy=\"" + escape(proxy) + "\",route=\"" + escape(s.getRoute()) + "\",upstream=\"" + escape(s.getUpstream()) + "\"";
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -1,8 +1,10 @@
-
 package net.sandum.servlet;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +33,10 @@ public class PatternReplacements {
             return m.matches() ?  m.replaceFirst(replacement) : null;
         }
 
+        public boolean matches(String src) {
+            return pattern.matcher(src).matches();
+        }
+
         @Override
         public int hashCode() {
             return (7 + pattern.hashCode()) * 83 + replacement.hashCode();
@@ -48,18 +54,172 @@ public class PatternReplacements {
         }
     };
 
-    private final List<PR> prs = new LinkedList<PR>();
+    /**
+     * The outcome of matching an input: the pattern it matched, and the input with the replacement
+     * applied.
+     */
+    public static class Match {
+        private final String pattern;
+        private final String result;
+
+        Match(String pattern, String result) {
+            this.pattern = pattern;
+            this.result = result;
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public String getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * Trie of the literal prefixes of the patterns. Each node lists (in table order) the patterns whose
+     * prefix ends there, so only patterns whose prefix the input starts with need to be run.
+     */
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<Character, Node>();
+        private int[] routes = new int[0];
 
-    public boolean addPatternReplacement(String p, String r) {
-        return prs.add(new PR(p, r));
+        void add(String prefix, int route) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                Character c = prefix.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null)
+                    node.children.put(c, child = new Node());
+                node = child;
+            }
+            node.routes = Arrays.copyOf(node.routes, node.routes.length + 1);
+            node.routes[node.routes.length - 1] = route;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the table; replaced as a whole when a pattern is added.
+     */
+    private static class Index {
+        private final PR[] prs;
+        private final Node root = new Node();
+
+        Index(List<PR> prs) {
+            this.prs = prs.toArray(new PR[prs.size()]);
+            for (int i = 0; i < this.prs.length; i++)
+                root.add(literalPrefix(this.prs[i].pattern.pattern()), i);
+        }
+
+        /**
+         * @return the first pattern (in table order) matching the input, or null
+         */
+        PR find(String src) {
+            int[] candidates = new int[8];
+            int n = 0;
+
+            Node node = root;
+            for (int i = 0; node != null; i++) {
+                for (int route : node.routes) {
+                    if (n == candidates.length)
+                        candidates = Arrays.copyOf(candidates, 2 * n);
+                    candidates[n++] = route;
+                }
+                node = i < src.length() ? node.children.get(src.charAt(i)) : null;
+            }
+
+            // first match wins:
+            Arrays.sort(candidates, 0, n);
+            for (int i = 0; i < n; i++) {
+                PR pr = prs[candidates[i]];
+                if (pr.matches(src))
+                    return pr;
+            }
+            return null;
+        }
+    }
+
+    private final List<PR> prs = new ArrayList<PR>();
+    private volatile Index index = new Index(prs);
+
+    public synchronized boolean addPatternReplacement(String p, String r) {
+        boolean res = prs.add(new PR(p, r));
+        index = new Index(prs);
+        return res;
+    }
+
+    public int size() {
+        return index.prs.length;
     }
 
     public String match(String src) {
-        for (PR pr : prs) {
-            String res = pr.match(src);
-            if (res != null)
-                return res;
+        PR pr = index.find(src);
+        return pr != null ? pr.match(src) : null;
+    }
+
+    /**
+     * @return the regex of the pattern {@link #match(String)} would use, or null if none matches
+     */
+    public String matchPattern(String src) {
+        PR pr = index.find(src);
+        return pr != null ? pr.pattern.pattern() : null;
+    }
+
+    /**
+     * @return both {@link #matchPattern(String)} and {@link #match(String)} at the cost of one lookup, or
+     *         null if no pattern matches
+     */
+    public Match find(String src) {
+        PR pr = index.find(src);
+        return pr != null ? new Match(pr.pattern.pattern(), pr.match(src)) : null;
+    }
+
+    /**
+     * @return the literal text every input matching the regex must start with; empty if none can be told
+     */
+    static String literalPrefix(String regex) {
+        // top-level alternation: each branch has its own prefix
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (inClass)
+                inClass = c != ']';
+            else if (c == '[')
+                inClass = true;
+            else if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth--;
+            else if (c == '|' && depth == 0)
+                return "";
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            int next = i + 1;
+            if (c == '\\') {
+                if (next >= regex.length())
+                    break;
+                c = regex.charAt(next);
+                if (Character.isLetterOrDigit(c))
+                    // character class or back-reference, \Q...\E etc.
+                    break;
+                next++;
+            } else if (".[]()*+?{}|$^".indexOf(c) >= 0)
+                break;
+
+            // a quantifier makes the character optional or repeated:
+            if (next < regex.length() && "*+?{".indexOf(regex.charAt(next)) >= 0)
+                break;
+
+            prefix.append(c);
+            i = next;
         }
-        return null;
+        return prefix.toString();
     }
 }
@@ -1,13 +1,49 @@
 package net.sandum.servlet;
 
+import net.sandum.util.servlet.Backend;
+import net.sandum.util.servlet.BodyPump;
+import net.sandum.util.servlet.BufferPool;
+import net.sandum.util.servlet.CircuitBreaker;
+import net.sandum.util.servlet.Compression;
+import net.sandum.util.servlet.HealthChecker;
+import net.sandum.util.servlet.HttpCache;
+import net.sandum.util.servlet.JdkUpstreamConnector;
+import net.sandum.util.servlet.LoadBalancer;
+import net.sandum.util.servlet.PooledUpstreamConnector;
+import net.sandum.util.servlet.ProxyMetrics;
+import net.sandum.util.servlet.RequestCoalescer;
 import net.sandum.util.servlet.RequestHandlingException;
 import net.sandum.util.servlet.RequestProxy;
+import net.sandum.util.servlet.RetryPolicy;
+import net.sandum.util.servlet.TunnelEngine;
+import net.sandum.util.servlet.UpstreamConnector;
+import net.sandum.util.servlet.UpstreamTimeouts;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -24,14 +60,40 @@ import org.slf4j.LoggerFactory;
 public class ProxyServlet extends HttpServlet {
     private final static Logger log = LoggerFactory.getLogger(ProxyServlet.class);
 
+    private final static String ROUTE_PATTERN = ProxyServlet.class.getName() + ".routePattern";
+
     // private final static Pattern PATH_PATTERN = Pattern.compile("/(https?):?/([^/]+)(:[0-9]+)?(?:/([^?]*))?(\\?.*)?");
     // private final static String TARGET_URL = "$1://$2$3/$4$5";
 
     private Pattern stripRequestHeadersPattern;
     private Pattern stripResponseHeadersPattern;
     private PatternReplacements pathPatterns;
+    private RouteCache routeCache;
     private boolean followRedirects;
+    private boolean methodOverride;
     private int maxAge = -1;
+    private UpstreamConnector upstreamConnector = JdkUpstreamConnector.INSTANCE;
+    private BodyPump bodyPump = BodyPump.INSTANCE;
+    private ExecutorService asyncExecutor;
+    private TunnelEngine tunnelEngine;
+    private HttpCache httpCache;
+    private Compression compression;
+    private RequestCoalescer requestCoalescer;
+    private boolean coalesce;
+    private final Map<String, Boolean> coalesceRoutes = new HashMap<String, Boolean>();
+    private long asyncTimeout;
+    // target origin -> pool serving it:
+    private final Map<String, LoadBalancer> balancers = new HashMap<String, LoadBalancer>();
+    private final Map<String, Backend> backends = new HashMap<String, Backend>();
+    private CircuitBreaker circuitBreaker;
+    private HealthChecker healthChecker;
+    private final Map<String, UpstreamTimeouts> routeTimeouts = new HashMap<String, UpstreamTimeouts>();
+    private ScheduledExecutorService timer;
+    private ExecutorService hedgeExecutor;
+    private RetryPolicy retryPolicy;
+    private ProxyMetrics metrics;
+    private ObjectName metricsName;
+    private final Map<String, String> routeNames = new HashMap<String, String>();
 
     @Override
     public void init() throws ServletException {
@@ -47,11 +109,71 @@ public class ProxyServlet extends HttpServlet {
         if (!StringUtils.isEmpty(s))
             followRedirects = Boolean.valueOf(s);
 
+        s = getInitParameter("method-override");
+        if (!StringUtils.isEmpty(s))
+            methodOverride = Boolean.valueOf(s);
+
         s = getInitParameter("max-age");
         if (!StringUtils.isEmpty(s))
             maxAge = Integer.valueOf(s);
 
+        s = getInitParameter("upstream-pool");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            upstreamConnector = createPooledUpstreamConnector();
+
+        if (!StringUtils.isEmpty(getInitParameter("body-buffer-size")) || !StringUtils.isEmpty(getInitParameter("body-direct-buffers")))
+            bodyPump = createBodyPump();
+
+        s = getInitParameter("async");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s)) {
+            int threads = 32;
+            s = getInitParameter("async-threads");
+            if (!StringUtils.isEmpty(s))
+                threads = Integer.valueOf(s);
+            asyncExecutor = createAsyncExecutor(threads);
+
+            // milliseconds:
+            s = getInitParameter("async-timeout");
+            if (!StringUtils.isEmpty(s))
+                asyncTimeout = Long.valueOf(s);
+
+            log.info(getServletName() + " async: " + threads + " thread(s), timeout=" + asyncTimeout + "ms");
+        }
+
+        tunnelEngine = createTunnelEngine();
+
+        s = getInitParameter("cache");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            httpCache = createHttpCache();
+
+        s = getInitParameter("compression");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            compression = createCompression();
+
+        s = getInitParameter("coalesce");
+        if (!StringUtils.isEmpty(s))
+            coalesce = Boolean.valueOf(s);
+
+        s = getInitParameter("route-cache-size");
+        if (!StringUtils.isEmpty(s) && Integer.valueOf(s) > 0) {
+            routeCache = new RouteCache(Integer.valueOf(s));
+            log.info(getServletName() + " route cache: " + routeCache.getMaxSize() + " entries");
+        }
+
+        s = getInitParameter("metrics");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            metrics = createMetrics();
+
+        s = getInitParameter("retries");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            retryPolicy = createRetryPolicy();
+
+        s = getInitParameter("circuit-breaker");
+        if (!StringUtils.isEmpty(s) && Boolean.valueOf(s))
+            circuitBreaker = createCircuitBreaker();
+
         pathPatterns = new PatternReplacements();
+        Set<String> targetOrigins = new HashSet<String>();
         Enumeration pns = getInitParameterNames();
         while (pns.hasMoreElements()) {
             String pn = (String)pns.nextElement();
@@ -63,11 +185,459 @@ public class ProxyServlet extends HttpServlet {
             String pattern = getInitParameter("path-pattern" + parameterSuffix);
             String target = getInitParameter("target-url" + parameterSuffix);
             addProxyPatternTarget(pattern, target);
+            routeNames.put(pattern, parameterSuffix.replaceFirst("^[.\\-_]", ""));
+            try {
+                targetOrigins.add(Backend.origin(new URL(target)));
+            } catch (MalformedURLException ex) {
+                // a forward, or a host taken from the path: nothing to check
+            }
+
+            // per route, overrides "coalesce":
+            s = getInitParameter("coalesce" + parameterSuffix);
+            if (parameterSuffix.length() > 0 && !StringUtils.isEmpty(s))
+                coalesceRoutes.put(pattern, Boolean.valueOf(s));
+
+            UpstreamTimeouts timeouts = createUpstreamTimeouts(parameterSuffix);
+            if (timeouts != null) {
+                routeTimeouts.put(pattern, timeouts);
+                log.info(getServletName() + " proxy " + pattern + " timeouts: " + timeouts);
+            }
+
+            // base URLs sharing the route's requests instead of the target URL's own host:
+            s = getInitParameter("target-pool" + parameterSuffix);
+            if (!StringUtils.isEmpty(s))
+                addProxyPool(target, s.trim().split("[\\s,]+"), getInitParameter("balancer" + parameterSuffix));
+        }
+
+        if (coalesce || coalesceRoutes.containsValue(Boolean.TRUE))
+            requestCoalescer = createRequestCoalescer();
+
+        for (UpstreamTimeouts timeouts : routeTimeouts.values()) {
+            // the timer also sends the second attempts of hedged requests:
+            if ((timeouts.getTotalTimeout() > 0 || timeouts.isHedging()) && timer == null)
+                timer = createTimer();
+            if (timeouts.isHedging() && hedgeExecutor == null) {
+                int threads = 16;
+                s = getInitParameter("hedge-threads");
+                if (!StringUtils.isEmpty(s))
+                    threads = Integer.valueOf(s);
+                hedgeExecutor = createHedgeExecutor(threads);
+            }
+        }
+
+        s = getInitParameter("health-check-path");
+        if (!StringUtils.isEmpty(s)) {
+            if (circuitBreaker == null)
+                circuitBreaker = createCircuitBreaker();
+            healthChecker = createHealthChecker(s);
+            for (String origin : targetOrigins)
+                if (!balancers.containsKey(origin) && origin.indexOf('$') < 0)
+                    healthChecker.addOrigin(origin);
+            for (String origin : backends.keySet())
+                healthChecker.addOrigin(origin);
+            healthChecker.start();
+        }
+
+        proxy.compileHeaderPolicy();
+    }
+
+    /**
+     * Lets the pool members take the requests for the target URL's scheme, host and port.
+     *
+     * @param policy    "round-robin", "least-outstanding" or "peak-ewma"; the "balancer" init-parameter
+     *                  or round-robin when null
+     */
+    protected void addProxyPool(String target, String[] members, String policy) throws ServletException {
+        if (StringUtils.isEmpty(policy))
+            policy = getInitParameter("balancer");
+
+        int maxFailures = 3;
+        String s = getInitParameter("balancer-max-failures");
+        if (!StringUtils.isEmpty(s))
+            maxFailures = Integer.valueOf(s);
+
+        // milliseconds:
+        long failureTimeout = 10000;
+        s = getInitParameter("balancer-failure-timeout");
+        if (!StringUtils.isEmpty(s))
+            failureTimeout = Long.valueOf(s);
+
+        try {
+            String origin = Backend.origin(new URL(target));
+            List<Backend> pool = new ArrayList<Backend>();
+            for (String member : members) {
+                Backend backend = new Backend(member, maxFailures, failureTimeout);
+                // a member of several pools carries its load into each of them:
+                Backend known = backends.get(backend.getOrigin());
+                if (known != null)
+                    backend = known;
+                else
+                    backends.put(backend.getOrigin(), backend);
+                pool.add(backend);
+            }
+
+            LoadBalancer balancer = new LoadBalancer(origin, pool,
+                    StringUtils.isEmpty(policy) ? LoadBalancer.Policy.ROUND_ROBIN : LoadBalancer.Policy.parse(policy));
+            balancers.put(origin, balancer);
+            log.info(getServletName() + " pool " + balancer);
+        } catch (MalformedURLException ex) {
+            throw new ServletException(target + ": invalid pool - " + ex.getMessage(), ex);
+        } catch (IllegalArgumentException ex) {
+            throw new ServletException(target + ": invalid pool - " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * @return the route's timeouts, falling back on the unsuffixed init-parameters, or null if none are set
+     */
+    protected UpstreamTimeouts createUpstreamTimeouts(String parameterSuffix) {
+        String connect = getRouteParameter("connect-timeout", parameterSuffix);
+        String firstByte = getRouteParameter("first-byte-timeout", parameterSuffix);
+        String total = getRouteParameter("total-timeout", parameterSuffix);
+        String hedge = getRouteParameter("hedge-percentile", parameterSuffix);
+        if (StringUtils.isEmpty(connect) && StringUtils.isEmpty(firstByte) && StringUtils.isEmpty(total) && StringUtils.isEmpty(hedge))
+            return null;
+
+        UpstreamTimeouts res = new UpstreamTimeouts();
+
+        // milliseconds:
+        if (!StringUtils.isEmpty(connect))
+            res.setConnectTimeout(Integer.valueOf(connect));
+
+        // milliseconds:
+        if (!StringUtils.isEmpty(firstByte))
+            res.setFirstByteTimeout(Integer.valueOf(firstByte));
+
+        // milliseconds:
+        if (!StringUtils.isEmpty(total))
+            res.setTotalTimeout(Long.valueOf(total));
+
+        if (!StringUtils.isEmpty(hedge))
+            res.setHedgePercentile(Double.valueOf(hedge));
+
+        // milliseconds:
+        String s = getRouteParameter("hedge-min-delay", parameterSuffix);
+        if (!StringUtils.isEmpty(s))
+            res.setMinHedgeDelay(Long.valueOf(s));
+
+        return res;
+    }
+
+    private String getRouteParameter(String name, String parameterSuffix) {
+        String s = getInitParameter(name + parameterSuffix);
+        return StringUtils.isEmpty(s) ? getInitParameter(name) : s;
+    }
+
+    protected ScheduledExecutorService createTimer() {
+        final String name = getServletName() + "-timer";
+        ScheduledThreadPoolExecutor res = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // most deadlines are cancelled long before they expire:
+        res.setRemoveOnCancelPolicy(true);
+        return res;
+    }
+
+    /**
+     * @return an executor of at most the given number of threads for the second attempts of hedged
+     *         requests, rejecting any more rather than queue them, so that they are not sent
+     */
+    protected ExecutorService createHedgeExecutor(int threads) {
+        final String prefix = getServletName() + "-hedge-";
+        return new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return the metrics, published to {@link MetricsServlet} and, as "net.sandum.servlet:type=ProxyMetrics",
+     *         to JMX
+     */
+    protected ProxyMetrics createMetrics() {
+        ProxyMetrics res = new ProxyMetrics();
+        MetricsServlet.register(getServletContext(), getServletName(), res);
+        try {
+            ObjectName name = new ObjectName("net.sandum.servlet:type=ProxyMetrics,name=" + ObjectName.quote(getServletName()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(res, name);
+            metricsName = name;
+        } catch (JMException ex) {
+            log.warn(getServletName() + ": metrics not registered with JMX - " + ex);
+        }
+        log.info(getServletName() + " metrics enabled");
+        return res;
+    }
+
+    protected RetryPolicy createRetryPolicy() {
+        RetryPolicy res = new RetryPolicy();
+
+        String s = getInitParameter("retry-max");
+        if (!StringUtils.isEmpty(s))
+            res.setMaxRetries(Integer.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("retry-backoff");
+        if (!StringUtils.isEmpty(s))
+            res.setBackoff(Long.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("retry-max-backoff");
+        if (!StringUtils.isEmpty(s))
+            res.setMaxBackoff(Long.valueOf(s));
+
+        // percent of requests:
+        s = getInitParameter("retry-budget");
+        if (!StringUtils.isEmpty(s))
+            res.setBudgetPercent(Integer.valueOf(s));
+
+        s = getInitParameter("retry-min-budget");
+        if (!StringUtils.isEmpty(s))
+            res.setMinBudget(Integer.valueOf(s));
+
+        // bytes:
+        s = getInitParameter("retry-max-body-size");
+        if (!StringUtils.isEmpty(s))
+            res.setMaxBodyBytes(Long.valueOf(s));
+
+        log.info(getServletName() + " retries: " + res);
+        return res;
+    }
+
+    protected CircuitBreaker createCircuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker();
+
+        String s = getInitParameter("circuit-window-size");
+        if (!StringUtils.isEmpty(s))
+            breaker.setWindowSize(Integer.valueOf(s));
+
+        s = getInitParameter("circuit-min-calls");
+        if (!StringUtils.isEmpty(s))
+            breaker.setMinCalls(Integer.valueOf(s));
+
+        // percent:
+        s = getInitParameter("circuit-failure-rate");
+        if (!StringUtils.isEmpty(s))
+            breaker.setFailureRateThreshold(Integer.valueOf(s));
+
+        // percent:
+        s = getInitParameter("circuit-slow-call-rate");
+        if (!StringUtils.isEmpty(s))
+            breaker.setSlowCallRateThreshold(Integer.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("circuit-slow-call-duration");
+        if (!StringUtils.isEmpty(s))
+            breaker.setSlowCallDuration(Long.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("circuit-open-timeout");
+        if (!StringUtils.isEmpty(s))
+            breaker.setOpenTimeout(Long.valueOf(s));
+
+        s = getInitParameter("circuit-half-open-calls");
+        if (!StringUtils.isEmpty(s))
+            breaker.setHalfOpenCalls(Integer.valueOf(s));
+
+        log.info(getServletName() + " circuit breaker: window=" + breaker.getWindowSize() + ", min-calls=" + breaker.getMinCalls()
+                + ", failure-rate=" + breaker.getFailureRateThreshold() + "%, slow-call-rate=" + breaker.getSlowCallRateThreshold()
+                + "% over " + breaker.getSlowCallDuration() + "ms, open-timeout=" + breaker.getOpenTimeout() + "ms");
+        return breaker;
+    }
+
+    protected HealthChecker createHealthChecker(String path) {
+        HealthChecker checker = new HealthChecker(getServletName(), circuitBreaker, path);
+
+        // milliseconds:
+        String s = getInitParameter("health-check-interval");
+        if (!StringUtils.isEmpty(s))
+            checker.setInterval(Long.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("health-check-timeout");
+        if (!StringUtils.isEmpty(s))
+            checker.setTimeout(Integer.valueOf(s));
+
+        log.info(getServletName() + " health checks: " + path + " every " + checker.getInterval() + "ms");
+        return checker;
+    }
+
+    protected PooledUpstreamConnector createPooledUpstreamConnector() {
+        PooledUpstreamConnector pool = new PooledUpstreamConnector();
+
+        String s = getInitParameter("upstream-max-per-route");
+        if (!StringUtils.isEmpty(s))
+            pool.setMaxPerRoute(Integer.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("upstream-idle-ttl");
+        if (!StringUtils.isEmpty(s))
+            pool.setIdleTtl(Long.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("upstream-max-wait");
+        if (!StringUtils.isEmpty(s))
+            pool.setMaxWait(Long.valueOf(s));
+
+        s = getInitParameter("upstream-validate-on-borrow");
+        if (!StringUtils.isEmpty(s))
+            pool.setValidateOnBorrow(Boolean.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("upstream-validate-after-inactivity");
+        if (!StringUtils.isEmpty(s))
+            pool.setValidateAfterInactivity(Long.valueOf(s));
+
+        log.info(getServletName() + " upstream pool: max-per-route=" + pool.getMaxPerRoute() + ", idle-ttl=" + pool.getIdleTtl()
+                + "ms, max-wait=" + pool.getMaxWait() + "ms, validate-on-borrow=" + pool.isValidateOnBorrow()
+                + ", validate-after-inactivity=" + pool.getValidateAfterInactivity() + "ms");
+        return pool;
+    }
+
+    protected BodyPump createBodyPump() {
+        int maxIdle = 64;
+        String s = getInitParameter("body-pool-size");
+        if (!StringUtils.isEmpty(s))
+            maxIdle = Integer.valueOf(s);
+        BodyPump res = new BodyPump(new BufferPool(maxIdle));
+
+        // bytes:
+        s = getInitParameter("body-buffer-size");
+        if (!StringUtils.isEmpty(s))
+            res.setMaxBufferSize(Integer.valueOf(s));
+
+        s = getInitParameter("body-direct-buffers");
+        if (!StringUtils.isEmpty(s))
+            res.setDirect(Boolean.valueOf(s));
+
+        log.info(getServletName() + " body buffers: max-size=" + res.getMaxBufferSize() + ", direct=" + res.isDirect() + ", pool-size=" + maxIdle);
+        return res;
+    }
+
+    protected ExecutorService createAsyncExecutor(int threads) {
+        final String prefix = getServletName() + "-async-";
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    protected TunnelEngine createTunnelEngine() {
+        int threads = 2;
+        String s = getInitParameter("tunnel-io-threads");
+        if (!StringUtils.isEmpty(s))
+            threads = Integer.valueOf(s);
+
+        TunnelEngine engine = new TunnelEngine(getServletName(), threads);
+
+        s = getInitParameter("tunnel-max");
+        if (!StringUtils.isEmpty(s))
+            engine.setMaxTunnels(Integer.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("tunnel-idle-timeout");
+        if (!StringUtils.isEmpty(s))
+            engine.setIdleTimeout(Long.valueOf(s));
+
+        // milliseconds:
+        s = getInitParameter("tunnel-max-lifetime");
+        if (!StringUtils.isEmpty(s))
+            engine.setMaxLifetime(Long.valueOf(s));
+
+        return engine;
+    }
+
+    protected HttpCache createHttpCache() {
+        HttpCache cache = new HttpCache();
+
+        // bytes:
+        String s = getInitParameter("cache-max-size");
+        if (!StringUtils.isEmpty(s))
+            cache.setMaxBytes(Long.valueOf(s));
+
+        // bytes:
+        s = getInitParameter("cache-max-entry-size");
+        if (!StringUtils.isEmpty(s))
+            cache.setMaxEntryBytes(Long.valueOf(s));
+
+        log.info(getServletName() + " cache: max-size=" + cache.getMaxBytes() + ", max-entry-size=" + cache.getMaxEntryBytes());
+        return cache;
+    }
+
+    protected Compression createCompression() {
+        Compression res = new Compression();
+
+        String s = getInitParameter("compression-mime-types");
+        if (!StringUtils.isEmpty(s))
+            res.setMimeTypes(new HashSet<String>(Arrays.asList(s.split("\\s*,\\s*"))));
+
+        // bytes:
+        s = getInitParameter("compression-min-size");
+        if (!StringUtils.isEmpty(s))
+            res.setMinSize(Long.valueOf(s));
+
+        log.info(getServletName() + " compression: min-size=" + res.getMinSize() + ", mime-types=" + res.getMimeTypes());
+        return res;
+    }
+
+    protected RequestCoalescer createRequestCoalescer() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+
+        // milliseconds:
+        String s = getInitParameter("coalesce-timeout");
+        if (!StringUtils.isEmpty(s))
+            coalescer.setWaitTimeout(Long.valueOf(s));
+
+        // bytes:
+        s = getInitParameter("coalesce-max-size");
+        if (!StringUtils.isEmpty(s))
+            coalescer.setMaxBodyBytes(Long.valueOf(s));
+
+        log.info(getServletName() + " coalescing: timeout=" + coalescer.getWaitTimeout() + "ms, max-size=" + coalescer.getMaxBodyBytes());
+        return coalescer;
+    }
+
+    @Override
+    public void destroy() {
+        if (metrics != null) {
+            MetricsServlet.unregister(getServletContext(), getServletName());
+            if (metricsName != null)
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                } catch (JMException ex) {
+                    log.debug(getServletName() + ": metrics not unregistered from JMX - " + ex);
+                }
         }
+        if (healthChecker != null)
+            healthChecker.shutdown();
+        tunnelEngine.shutdown();
+        if (asyncExecutor != null)
+            asyncExecutor.shutdownNow();
+        if (timer != null)
+            timer.shutdownNow();
+        if (hedgeExecutor != null)
+            hedgeExecutor.shutdownNow();
+        upstreamConnector.shutdown();
+        super.destroy();
     }
 
     protected void addProxyPatternTarget(String regex, String target) {
         pathPatterns.addPatternReplacement(regex, target);
+        if (routeCache != null)
+            routeCache.clear();
         log.info(getServletName() + " proxy " + regex + " -> " + target);
     }
 
@@ -97,11 +667,101 @@ public class ProxyServlet extends HttpServlet {
             return getProxyFollowRedirects();
         }
 
+        @Override
+        protected boolean isMethodOverride() {
+            return isProxyMethodOverride();
+        }
+
         @Override
         protected int getMaxAge() {
             return getProxyMaxAge();
         }
 
+        @Override
+        protected UpstreamConnector getUpstreamConnector() {
+            return getProxyUpstreamConnector();
+        }
+
+        @Override
+        protected BodyPump getBodyPump() {
+            return getProxyBodyPump();
+        }
+
+        @Override
+        protected Executor getAsyncExecutor() {
+            return asyncExecutor;
+        }
+
+        @Override
+        protected long getAsyncTimeout() {
+            return asyncTimeout;
+        }
+
+        @Override
+        protected TunnelEngine getTunnelEngine() {
+            return tunnelEngine;
+        }
+
+        @Override
+        protected HttpCache getHttpCache() {
+            return getProxyHttpCache();
+        }
+
+        @Override
+        protected Compression getCompression() {
+            return getProxyCompression();
+        }
+
+        @Override
+        protected RequestCoalescer getRequestCoalescer() {
+            return getProxyRequestCoalescer();
+        }
+
+        @Override
+        protected boolean isCoalescing(HttpServletRequest request) {
+            return isProxyCoalescing(request);
+        }
+
+        @Override
+        protected LoadBalancer getLoadBalancer(URL url) {
+            return getProxyLoadBalancer(url);
+        }
+
+        @Override
+        protected CircuitBreaker getCircuitBreaker() {
+            return getProxyCircuitBreaker();
+        }
+
+        @Override
+        protected UpstreamTimeouts getUpstreamTimeouts(HttpServletRequest request) {
+            return getProxyUpstreamTimeouts(request);
+        }
+
+        @Override
+        protected RetryPolicy getRetryPolicy() {
+            return getProxyRetryPolicy();
+        }
+
+        @Override
+        protected ProxyMetrics getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        protected String getRouteName(HttpServletRequest request) {
+            return getProxyRouteName(request);
+        }
+
+        @Override
+        protected ScheduledExecutorService getTimer() {
+            return timer;
+        }
+
+        @Override
+        protected Executor getHedgeExecutor() {
+            return hedgeExecutor;
+        }
+
         @Override
         protected void addResponseHeaders(HttpServletResponse response) {
             addProxyResponseHeaders(response);
@@ -109,6 +769,24 @@ public class ProxyServlet extends HttpServlet {
     };
 
     protected String getReplacement(HttpServletRequest request) throws RequestHandlingException {
+        PatternReplacements.Match match = findRoute(request);
+        return match != null ? match.getResult() : null;
+    }
+
+    /**
+     * Looks up the route of the request, and keeps its path-pattern for the per-route settings.
+     */
+    private PatternReplacements.Match findRoute(HttpServletRequest request) {
+        String path = getRoutePath(request);
+        PatternReplacements.Match res = routeCache != null ? routeCache.resolve(path, pathPatterns) : pathPatterns.find(path);
+        if (res != null)
+            request.setAttribute(ROUTE_PATTERN, res.getPattern());
+        else
+            request.removeAttribute(ROUTE_PATTERN);
+        return res;
+    }
+
+    private static String getRoutePath(HttpServletRequest request) {
         String pathInfo = request.getPathInfo();
         if (StringUtils.isEmpty(pathInfo))
             pathInfo = "";
@@ -117,7 +795,7 @@ public class ProxyServlet extends HttpServlet {
         if (!StringUtils.isEmpty(query))
             pathInfo += "?" + query;
 
-        return pathPatterns.match(pathInfo);
+        return pathInfo;
     }
 
     protected URL getProxyTargetUrl(HttpServletRequest request) throws RequestHandlingException {
@@ -144,10 +822,91 @@ public class ProxyServlet extends HttpServlet {
         return followRedirects;
     }
 
+    protected boolean isProxyMethodOverride() {
+        return methodOverride;
+    }
+
     protected int getProxyMaxAge() {
         return maxAge;
     }
 
+    protected UpstreamConnector getProxyUpstreamConnector() {
+        return upstreamConnector;
+    }
+
+    protected BodyPump getProxyBodyPump() {
+        return bodyPump;
+    }
+
+    protected HttpCache getProxyHttpCache() {
+        return httpCache;
+    }
+
+    protected Compression getProxyCompression() {
+        return compression;
+    }
+
+    protected RouteCache getProxyRouteCache() {
+        return routeCache;
+    }
+
+    protected RequestCoalescer getProxyRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    protected boolean isProxyCoalescing(HttpServletRequest request) {
+        if (coalesceRoutes.isEmpty())
+            return coalesce;
+
+        Boolean route = coalesceRoutes.get(getRoutePattern(request));
+        return route != null ? route : coalesce;
+    }
+
+    protected UpstreamTimeouts getProxyUpstreamTimeouts(HttpServletRequest request) {
+        return routeTimeouts.isEmpty() ? null : routeTimeouts.get(getRoutePattern(request));
+    }
+
+    /**
+     * @return the path-pattern the request matched, as found by {@link #getReplacement}
+     */
+    private String getRoutePattern(HttpServletRequest request) {
+        String res = (String) request.getAttribute(ROUTE_PATTERN);
+        if (res == null) {
+            PatternReplacements.Match match = findRoute(request);
+            if (match != null)
+                res = match.getPattern();
+        }
+        return res;
+    }
+
+    protected LoadBalancer getProxyLoadBalancer(URL url) {
+        return balancers.isEmpty() ? null : balancers.get(Backend.origin(url));
+    }
+
+    protected CircuitBreaker getProxyCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    protected HealthChecker getProxyHealthChecker() {
+        return healthChecker;
+    }
+
+    protected RetryPolicy getProxyRetryPolicy() {
+        return retryPolicy;
+    }
+
+    protected ProxyMetrics getProxyMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the suffix of the path-pattern init-parameter the request matched, without its separator
+     */
+    protected String getProxyRouteName(HttpServletRequest request) {
+        String res = routeNames.get(getRoutePattern(request));
+        return res != null ? res : "";
+    }
+
     protected void addProxyResponseHeaders(HttpServletResponse response) {
     }
 
@@ -0,0 +1,132 @@
+package net.sandum.servlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded memo of {@link PatternReplacements#find(String)} results, including misses. Entries are
+ * spread over independently locked LRU segments so concurrent lookups rarely contend; a small cache has
+ * fewer segments, down to one, so that each still holds a useful number of entries.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class RouteCache {
+    private final static int MAX_SEGMENTS = 16;
+    private final static int MIN_SEGMENT_SIZE = 64;
+    private final static int MAX_KEY_LENGTH = 2048;
+
+    // cached "no route matches"
+    private final static PatternReplacements.Match NO_MATCH = new PatternReplacements.Match(null, null);
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private volatile int generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Segment extends LinkedHashMap<String, PatternReplacements.Match> {
+        private final static long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PatternReplacements.Match> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * @param maxSize   number of entries; the segments' shares of it add up to no more than that
+     */
+    public RouteCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException(maxSize + ": invalid route cache size");
+        this.maxSize = maxSize;
+
+        int n = 1;
+        while (n < MAX_SEGMENTS && maxSize / (2 * n) >= MIN_SEGMENT_SIZE)
+            n *= 2;
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++)
+            segments[i] = new Segment(maxSize / n + (i < maxSize % n ? 1 : 0));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * @return the (possibly cached) result of <code>table.find(path)</code>
+     */
+    public PatternReplacements.Match resolve(String path, PatternReplacements table) {
+        if (path.length() > MAX_KEY_LENGTH)
+            return table.find(path);
+
+        Segment segment = segmentFor(path);
+        PatternReplacements.Match res;
+        synchronized (segment) {
+            res = segment.get(path);
+        }
+        if (res != null) {
+            hits.incrementAndGet();
+            return res == NO_MATCH ? null : res;
+        }
+
+        misses.incrementAndGet();
+        int gen = generation;
+        res = table.find(path);
+        synchronized (segment) {
+            // don't cache a result from before the last clear()
+            if (gen == generation)
+                segment.put(path, res != null ? res : NO_MATCH);
+        }
+        return res;
+    }
+
+    /**
+     * Drops all entries; to be called whenever the route table changes.
+     */
+    public synchronized void clear() {
+        generation++;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                segment.clear();
+            }
+    }
+
+    private Segment segmentFor(String path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (segments.length - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return "RouteCache[" + size() + "/" + maxSize + " entries, hits=" + hits + ", misses=" + misses + "]";
+    }
+}
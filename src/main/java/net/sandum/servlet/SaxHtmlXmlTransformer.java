@@ -0,0 +1,140 @@
+package net.sandum.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URL;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Like {@link TidyHtmlXmlTransformer}, but without building a DOM of the whole page: the HTML is read
+ * as SAX events by a {@link HtmlSaxParser} and pushed through the stylesheets as it is read, so memory
+ * stays proportional to how deeply the page nests, not to how large it is. The output is that of JTidy
+ * run with tidy-mark=no, but for the differences listed at {@link HtmlSaxParser}.
+ * <p>
+ * Takes the "indent", "templates" and "templates-reload-interval" init-params of
+ * {@link TidyHtmlXmlTransformer}, and "input-encoding" for the charset of the HTML, ISO-8859-1 by
+ * default as with JTidy.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class SaxHtmlXmlTransformer implements StreamingFormatTransformer {
+
+    private final static Logger LOG = LoggerFactory.getLogger(SaxHtmlXmlTransformer.class);
+
+    private final ErrorListener ERROR_LOG = new ErrorListener() {
+
+        public void warning(TransformerException ex) throws TransformerException {
+            LOG.warn(null, ex);
+        }
+
+        public void error(TransformerException ex) throws TransformerException {
+            LOG.error(null, ex);
+        }
+
+        public void fatalError(TransformerException ex) throws TransformerException {
+            LOG.error(null, ex);
+        }
+    };
+
+    public SaxHtmlXmlTransformer() {
+        TransformerFactory tff = TransformerFactory.newInstance();
+        stff = (SAXTransformerFactory) tff;
+        stylesheets = new StylesheetChain(stff);
+    }
+
+    public String getSourceMimeType() {
+        return "text/html";
+    }
+
+    public String getTargetMimeType() {
+        return "text/xml";
+    }
+
+    public String getConfigurationTag() {
+        return "sax " + indent + " " + inputEncoding + " " + stylesheets.getTag();
+    }
+
+    public void transform(InputStream is, OutputStream os) throws IOException {
+        transform(is, new StreamResult(os));
+    }
+
+    public void transform(InputStream is, Result xslOutput) throws IOException {
+        TransformerHandler serializer;
+        try {
+            serializer = stff.newTransformerHandler();
+            Transformer transformer = serializer.getTransformer();
+            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            // as JTidy's DOM has it:
+            transformer.setOutputProperty(OutputKeys.STANDALONE, "no");
+            if (indent != null) {
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            }
+            transformer.setErrorListener(ERROR_LOG);
+
+            serializer.setResult(stylesheets.chain(xslOutput));
+        } catch (TransformerException ex) {
+            LOG.error("Failed to set up XML serializer", ex);
+            return;
+        }
+
+        Reader html = new InputStreamReader(is, inputEncoding);
+        try {
+            new HtmlSaxParser(serializer, serializer).parse(html);
+        } catch (SAXException ex) {
+            if (ex.getException() instanceof IOException)
+                throw (IOException) ex.getException();
+            throw new IOException("transformation failed", ex);
+        }
+    }
+
+    private final SAXTransformerFactory stff;
+    private final StylesheetChain stylesheets;
+
+    private Integer indent;
+    private String inputEncoding = "ISO-8859-1";
+
+    public void init(FormatTransformerConfig cfg) {
+
+        String s = cfg.getInitParameter("indent");
+        if (s != null)
+            indent = Integer.parseInt(s);
+
+        s = cfg.getInitParameter("input-encoding");
+        if (s != null)
+            inputEncoding = s;
+
+        stylesheets.configure(cfg);
+
+        LOG.info("input encoding " + inputEncoding + ", " + stylesheets.size() + " stylesheet(s)");
+    }
+
+    public void destroy() {
+        stylesheets.shutdown();
+    }
+
+    /**
+     * Compiles a stylesheet and appends it to the chain.
+     *
+     * @throws IllegalArgumentException if the stylesheet doesn't compile
+     */
+    public void addTemplates(URL stylesheet) {
+        stylesheets.add(stylesheet);
+    }
+}
@@ -12,8 +12,19 @@ import java.io.OutputStream;
 public interface SimpleFormatTransformer {
     void init(FormatTransformerConfig cfg);
 
+    /**
+     * Stops whatever {@link #init(FormatTransformerConfig)} started.
+     */
+    void destroy();
+
     String getSourceMimeType();
     String getTargetMimeType();
 
+    /**
+     * @return a tag of what the transformer does, that changes whenever its configuration does, such as
+     *         when a stylesheet is reloaded; output made under another tag is stale
+     */
+    String getConfigurationTag();
+
     void transform(InputStream input, OutputStream output) throws IOException;
 }
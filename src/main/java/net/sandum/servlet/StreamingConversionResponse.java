@@ -0,0 +1,240 @@
+package net.sandum.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import net.sandum.util.servlet.BytePipe;
+import net.sandum.util.servlet.ServletOutputStreamWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The response of a {@link FormatConversionFilter} in streaming mode. Once the chain asks for the
+ * output stream of a successful response, a {@link StreamingFormatTransformer} is started on another
+ * thread, reading what the chain writes through a {@link BytePipe} and writing the result to the client
+ * as it comes, without a Content-Length. Other responses pass through untouched.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class StreamingConversionResponse extends HttpServletResponseWrapper {
+    private final static Logger log = LoggerFactory.getLogger(StreamingConversionResponse.class);
+
+    private final SimpleFormatTransformer transformer;
+    private final ExecutorService executor;
+    private final int bufferSize;
+
+    private String downstreamContentType;
+    private long downstreamContentLength = -1;
+    private int downstreamStatus = SC_OK;
+
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+    private BytePipe pipe;
+    private Future<Void> transform;
+
+    /**
+     * @param bufferSize    bytes of the pipe between the chain and the transformer
+     */
+    StreamingConversionResponse(HttpServletResponse response, SimpleFormatTransformer transformer, ExecutorService executor, int bufferSize) {
+        super(response);
+        this.transformer = transformer;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    private HttpServletResponse getUpstreamResponse() {
+        return (HttpServletResponse) getResponse();
+    }
+
+    private void createOutputStream() throws IOException {
+        HttpServletResponse upstream = getUpstreamResponse();
+        if (downstreamStatus != SC_OK) {
+            if (downstreamContentType != null)
+                upstream.setContentType(downstreamContentType);
+            if (downstreamContentLength >= 0)
+                upstream.setContentLengthLong(downstreamContentLength);
+            stream = upstream.getOutputStream();
+            return;
+        }
+
+        upstream.addHeader("X-Transformed-From", transformer.getSourceMimeType());
+        upstream.setContentType(transformer.getTargetMimeType());
+        final OutputStream out = upstream.getOutputStream();
+        final BytePipe p = new BytePipe(bufferSize);
+        try {
+            transform = executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    try {
+                        transformer.transform(p.getInputStream(), out);
+                        out.flush();
+                        return null;
+                    } catch (IOException ex) {
+                        p.fail(ex);
+                        throw ex;
+                    } catch (RuntimeException ex) {
+                        p.fail(ex);
+                        throw ex;
+                    } finally {
+                        // let the chain finish even if the transformer didn't read it all:
+                        p.closeInput();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            throw new IOException("no thread to transform the response on", ex);
+        }
+        pipe = p;
+        stream = new ServletOutputStreamWrapper(p.getOutputStream());
+    }
+
+    /**
+     * Ends the input of the transformer and waits for it to write the last of its output.
+     *
+     * @param ok    whether the chain completed, if not the transformation is aborted
+     */
+    void finish(boolean ok) throws IOException, ServletException {
+        if (writer != null)
+            writer.flush();
+        if (stream == null && downstreamStatus != SC_OK) {
+            // nothing written, a body-less answer to pass on as is
+            if (downstreamContentType != null)
+                super.setContentType(downstreamContentType);
+            if (downstreamContentLength >= 0)
+                super.setContentLengthLong(downstreamContentLength);
+        }
+        if (pipe == null)
+            return;
+
+        if (ok)
+            pipe.closeOutput();
+        else
+            pipe.fail(new IOException("response aborted"));
+        try {
+            transform.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            transform.cancel(true);
+            throw new ServletException("interrupted waiting for the transformation", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (!ok)
+                log.debug("aborted transformation failed", cause);
+            else if (cause instanceof IOException)
+                throw (IOException) cause;
+            else
+                throw new ServletException("transformation failed", cause);
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called!");
+
+        if (stream == null)
+            createOutputStream();
+
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer != null)
+            return writer;
+
+        if (stream != null)
+            throw new IllegalStateException("getOutputStream() has already been called!");
+
+        createOutputStream();
+        writer = new PrintWriter(new OutputStreamWriter(stream, "UTF-8"));
+
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null)
+            writer.flush();
+        if (pipe == null)
+            super.flushBuffer();
+    }
+
+    @Override
+    public void setContentLength(int length) {
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        if (stream != null && pipe == null)
+            super.setContentLengthLong(length);
+        else
+            downstreamContentLength = length;
+    }
+
+    @Override
+    public void setContentType(String type) {
+        if (stream != null && pipe == null)
+            super.setContentType(type);
+        else
+            downstreamContentType = type;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!intercept(name, value))
+            super.addHeader(name, value);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!intercept(name, value))
+            super.setHeader(name, value);
+    }
+
+    private boolean intercept(String name, String value) {
+        if ("Content-Type".equalsIgnoreCase(name))
+            setContentType(value);
+        else if ("Content-Length".equalsIgnoreCase(name))
+            setContentLengthLong(Long.parseLong(value.trim()));
+        else
+            return false;
+        return true;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        downstreamStatus = sc;
+        super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        downstreamStatus = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        downstreamStatus = sc;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        downstreamStatus = sc;
+        super.sendError(sc, msg);
+    }
+}
@@ -0,0 +1,13 @@
+package net.sandum.servlet;
+
+/**
+ * A {@link SimpleFormatTransformer} that reads its input as it goes rather than all up front, and
+ * writes its output as soon as it has it. Such transformers may be fed by {@link FormatConversionFilter}
+ * while the response is still being produced, from another thread, through a stream that blocks until
+ * more input arrives.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public interface StreamingFormatTransformer extends SimpleFormatTransformer {
+}
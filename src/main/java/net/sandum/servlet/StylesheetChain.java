@@ -0,0 +1,231 @@
+package net.sandum.servlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * XSLT stylesheets applied one after the other, each compiled once. The compiled chain is replaced as a
+ * whole, never modified, so transformations read it without locking. Optionally the stylesheets are
+ * checked for changes on a background thread, and the chain swapped for a recompiled one.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class StylesheetChain {
+    private final static Logger LOG = LoggerFactory.getLogger(StylesheetChain.class);
+
+    /**
+     * A compiled stylesheet, the last-modified time of its source when compiled, and that of a later
+     * version that failed to compile, if any.
+     */
+    private final static class Stylesheet {
+        private final String systemId;
+        private final Templates templates;
+        private final long lastModified;
+        private final long failedLastModified;
+
+        private Stylesheet(String systemId, Templates templates, long lastModified) {
+            this(systemId, templates, lastModified, lastModified);
+        }
+
+        private Stylesheet(String systemId, Templates templates, long lastModified, long failedLastModified) {
+            this.systemId = systemId;
+            this.templates = templates;
+            this.lastModified = lastModified;
+            this.failedLastModified = failedLastModified;
+        }
+    }
+
+    private final SAXTransformerFactory stff;
+    // replaced as a whole, never modified:
+    private volatile List<Stylesheet> stylesheets = Collections.emptyList();
+    private ScheduledExecutorService reloader;
+
+    StylesheetChain(SAXTransformerFactory stff) {
+        this.stff = stff;
+    }
+
+    int size() {
+        return stylesheets.size();
+    }
+
+    synchronized void clear() {
+        stylesheets = Collections.emptyList();
+    }
+
+    /**
+     * Replaces the chain with the comma-separated stylesheets of the "templates" init-param, and starts
+     * reloading them if "templates-reload-interval" is given.
+     */
+    synchronized void configure(FormatTransformerConfig cfg) {
+        clear();
+        String temps = cfg.getInitParameter("templates");
+        if (temps != null) {
+            for (String t : temps.split(","))
+                try {
+                    t = t.trim();
+                    URL systemIdUrl = cfg.getResource(t);
+                    if (systemIdUrl == null)
+                        throw new IllegalArgumentException(temps + ": no such template");
+                    add(systemIdUrl);
+                } catch (MalformedURLException ex) {
+                    throw new RuntimeException(ex);
+                }
+        }
+
+        // milliseconds:
+        String s = cfg.getInitParameter("templates-reload-interval");
+        if (s != null && Long.parseLong(s) > 0)
+            startReloading(Long.parseLong(s));
+    }
+
+    /**
+     * @return the stylesheets and their last-modified times when compiled, changing with the chain
+     */
+    String getTag() {
+        StringBuilder sb = new StringBuilder();
+        for (Stylesheet stylesheet : stylesheets)
+            sb.append(stylesheet.systemId).append('@').append(stylesheet.lastModified).append(' ');
+        return sb.toString();
+    }
+
+    /**
+     * @return where to send a document for the stylesheets to transform it into output, output itself
+     *         when there are none
+     */
+    Result chain(Result output) throws TransformerConfigurationException {
+        // the first stylesheet gets the document, its result goes to the next:
+        List<Stylesheet> chain = stylesheets;
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            TransformerHandler stage = stff.newTransformerHandler(chain.get(i).templates);
+            stage.setResult(output);
+            output = new SAXResult(stage);
+        }
+        return output;
+    }
+
+    /**
+     * Compiles a stylesheet and appends it to the chain.
+     *
+     * @throws IllegalArgumentException if the stylesheet doesn't compile
+     */
+    synchronized void add(URL stylesheet) {
+        String systemId = stylesheet.toString();
+        long lastModified = lastModified(systemId);
+        try {
+            List<Stylesheet> chain = new ArrayList<Stylesheet>(stylesheets);
+            chain.add(new Stylesheet(systemId, compile(systemId), lastModified));
+            stylesheets = Collections.unmodifiableList(chain);
+        } catch (TransformerConfigurationException ex) {
+            throw new IllegalArgumentException(systemId + ": invalid stylesheet", ex);
+        }
+    }
+
+    private Templates compile(String systemId) throws TransformerConfigurationException {
+        long t0 = System.currentTimeMillis();
+        Templates res = stff.newTemplates(new StreamSource(systemId));
+        LOG.info(systemId + ": compiled in " + (System.currentTimeMillis() - t0) + "ms");
+        return res;
+    }
+
+    /**
+     * Checks the stylesheets every interval on a background thread, and swaps in a recompiled chain when
+     * any of them has changed. Only the stylesheets themselves are checked, not what they import.
+     *
+     * @param interval  milliseconds
+     */
+    synchronized void startReloading(long interval) {
+        if (reloader != null)
+            reloader.shutdownNow();
+        reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "templates-reload");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reloader.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reload();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        LOG.info("checking " + stylesheets.size() + " stylesheet(s) for changes every " + interval + "ms");
+    }
+
+    synchronized void shutdown() {
+        if (reloader != null)
+            reloader.shutdownNow();
+        reloader = null;
+    }
+
+    /**
+     * Recompiles the stylesheets modified since they were compiled. A stylesheet failing to compile is
+     * left as it was, and not tried again until modified once more.
+     */
+    synchronized void reload() {
+        List<Stylesheet> chain = new ArrayList<Stylesheet>(stylesheets);
+        boolean changed = false;
+        for (int i = 0; i < chain.size(); i++) {
+            Stylesheet old = chain.get(i);
+            long lastModified = lastModified(old.systemId);
+            if (lastModified == old.lastModified || lastModified == old.failedLastModified)
+                continue;
+
+            try {
+                chain.set(i, new Stylesheet(old.systemId, compile(old.systemId), lastModified));
+            } catch (TransformerConfigurationException ex) {
+                LOG.error(old.systemId + ": changed, but doesn't compile; keeping the previous version", ex);
+                chain.set(i, new Stylesheet(old.systemId, old.templates, old.lastModified, lastModified));
+            }
+            changed = true;
+        }
+        if (changed)
+            stylesheets = Collections.unmodifiableList(chain);
+    }
+
+    /**
+     * @return the last-modified time of the resource, 0 if unknown
+     */
+    private static long lastModified(String systemId) {
+        try {
+            URL url = new URL(systemId);
+            if ("file".equals(url.getProtocol()))
+                return new File(url.toURI()).lastModified();
+
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches(false);
+            try {
+                return connection.getLastModified();
+            } finally {
+                IOUtils.closeQuietly(connection.getInputStream());
+            }
+        } catch (IOException ex) {
+            LOG.warn(systemId + ": can't check for changes - " + ex);
+            return 0;
+        } catch (URISyntaxException ex) {
+            LOG.warn(systemId + ": can't check for changes - " + ex);
+            return 0;
+        }
+    }
+}
@@ -4,32 +4,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
-import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXTransformerFactory;
-import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
-import org.w3c.tidy.Configuration;
 import org.w3c.tidy.Tidy;
 
 /**
@@ -37,7 +32,7 @@ import org.w3c.tidy.Tidy;
  * @since       15-02-2014
  * @version     $Id: TidyHtmlXmlTransformer.java -1 15-02-2014 15:37:26 osa $
  */
-public class TidyHtmlXmlTransformer implements SimpleFormatTransformer {
+public class TidyHtmlXmlTransformer implements StreamingFormatTransformer {
 
     private final static Logger LOG = LoggerFactory.getLogger(TidyHtmlXmlTransformer.class);
 
@@ -56,12 +51,75 @@ public class TidyHtmlXmlTransformer implements SimpleFormatTransformer {
         }
     };
 
+    // what the parsers have to say, logged at debug level and dropped unformatted otherwise:
+    private final static PrintWriter DIAGNOSTICS = new PrintWriter(new Writer() {
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (!LOG.isDebugEnabled())
+                return;
+            // Remove the end of line chars
+            while (len > 0 && (cbuf[off + len - 1] == '\n' || cbuf[off + len - 1] == '\r'))
+                len--;
+            if (len > 0)
+                LOG.debug(String.copyValueOf(cbuf, off, len));
+        }
+
+        public void flush() throws IOException {
+        }
+
+        public void close() {
+        }
+    }, true);
+
+    /**
+     * Idle parsers, all configured alike. A parser is used by one transformation at a time; it is
+     * returned when done, unless the transformation failed, and dropped if enough are idle already.
+     */
+    private final static class ParserPool {
+        private final Properties config;
+        // the configuration, in order:
+        private final String tag;
+        private final int maxIdle;
+        private final Queue<Tidy> idle = new ConcurrentLinkedQueue<Tidy>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private ParserPool(Properties config, int maxIdle) {
+            this.config = config;
+            this.tag = new TreeMap<Object, Object>(config).toString();
+            this.maxIdle = maxIdle;
+        }
+
+        private Tidy acquire() {
+            Tidy res = idle.poll();
+            if (res != null) {
+                idleCount.decrementAndGet();
+                return res;
+            }
+
+            res = new Tidy();
+            res.setOnlyErrors(true);
+            res.setQuiet(true);
+            res.setShowWarnings(LOG.isDebugEnabled());
+            res.getConfiguration().addProps(config);
+            res.setErrout(DIAGNOSTICS);
+            return res;
+        }
+
+        private void release(Tidy tidy) {
+            if (idleCount.incrementAndGet() > maxIdle) {
+                idleCount.decrementAndGet();
+                return;
+            }
+            idle.offer(tidy);
+        }
+    }
+
     public TidyHtmlXmlTransformer() {
         TransformerFactory tff = TransformerFactory.newInstance();
         stff = (SAXTransformerFactory) tff;
+        stylesheets = new StylesheetChain(stff);
 
         tidyProps = new Properties();
-        systemIds = new ArrayList<String>();
+        configureParsers();
     }
 
     public String getSourceMimeType() {
@@ -72,56 +130,28 @@ public class TidyHtmlXmlTransformer implements SimpleFormatTransformer {
         return "text/xml";
     }
 
+    public String getConfigurationTag() {
+        return "tidy " + indent + " " + parsers.tag + " " + stylesheets.getTag();
+    }
+
     public void transform(InputStream is, OutputStream os) throws IOException {
         transform(is, new StreamResult(os));
     }
 
     public void transform(InputStream is, Result xslOutput) throws IOException {
-        Tidy jtidy = new Tidy();
-        jtidy.setOnlyErrors(true);
-        jtidy.getConfiguration().addProps(tidyProps);
-
-        Configuration c = jtidy.getConfiguration();
-        c.printConfigOptions(new PrintWriter(System.out), true);
-
-        jtidy.setErrout(new PrintWriter(new Writer() {
-            public void write(char[] cbuf, int off, int len) throws IOException {
-                // Remove the end of line chars
-                while (len > 0 && (cbuf[len - 1] == '\n' || cbuf[len - 1] == '\r'))
-                    len--;
-                if (len > 0)
-                    LOG.debug(String.copyValueOf(cbuf, off, len));
-            }
-
-            public void flush() throws IOException {
-            }
-
-            public void close() {
-            }
-        }, true));
+        ParserPool pool = parsers;
+        Tidy jtidy = pool.acquire();
         Document doc = jtidy.parseDOM(is, null);
+        pool.release(jtidy);
 
         Source xslInput = new DOMSource(doc);
 
-        // To force reload stylesheet:
-        templates = null;
-
         try {
-            if (templates == null) {
-                templates = new LinkedList<Templates>();
-                for (String si : systemIds)
-                    templates.add(stff.newTemplates(new StreamSource(si)));
-                Collections.reverse(templates);
-            }
             Transformer transformer = stff.newTransformer();
 //                  templates != null ? templates.newTransformer() : stff.newTransformer();
 //          transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
 
-            for (Templates t : templates) {
-                TransformerHandler stage = stff.newTransformerHandler(t);
-                stage.setResult(xslOutput);
-                xslOutput = new SAXResult(stage);
-            }
+            xslOutput = stylesheets.chain(xslOutput);
 
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
             transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
@@ -138,11 +168,13 @@ public class TidyHtmlXmlTransformer implements SimpleFormatTransformer {
     }
 
     private final SAXTransformerFactory stff;
-    private List<String> systemIds;
-    private List<Templates> templates;
+    private final StylesheetChain stylesheets;
 
     private Integer indent;
     private final Properties tidyProps;
+    private int parserPoolSize = 32;
+    // replaced when the properties change:
+    private volatile ParserPool parsers;
 
     public void init(FormatTransformerConfig cfg) {
 
@@ -150,40 +182,47 @@ public class TidyHtmlXmlTransformer implements SimpleFormatTransformer {
         if (s != null)
             indent = Integer.parseInt(s);
 
-        systemIds = new ArrayList<String>();
-        String temps = cfg.getInitParameter("templates");
-        if (temps != null) {
-            for (String t : temps.split(","))
-                try {
-                    t = t.trim();
-                    URL systemIdUrl = cfg.getResource(t);
-                    if (systemIdUrl == null)
-                        throw new IllegalArgumentException(temps + ": no such template");
-                    addTemplates(systemIdUrl);
-                } catch (MalformedURLException ex) {
-                    throw new RuntimeException(ex);
-                }
-        }
+        stylesheets.configure(cfg);
+
+        s = cfg.getInitParameter("parser-pool-size");
+        if (s != null)
+            parserPoolSize = Integer.parseInt(s);
 
         tidyProps.clear();
         for (String propName : cfg.getInitParameterNames())
             if (propName.startsWith("jtidy."))
                 setTidyProperty(propName.substring("jtidy.".length()), cfg.getInitParameter(propName));
+        configureParsers();
+
+        LOG.info("jtidy properties: " + tidyProps + ", up to " + parserPoolSize + " idle parser(s)");
+        if (LOG.isDebugEnabled()) {
+            StringWriter options = new StringWriter();
+            parsers.acquire().getConfiguration().printConfigOptions(options, true);
+            LOG.debug("jtidy configuration:\n" + options);
+        }
+    }
 
-        tidyProps.list(System.out);
+    public void destroy() {
+        stylesheets.shutdown();
     }
 
-    public void setTidyProperty(String key, String value) {
+    public synchronized void setTidyProperty(String key, String value) {
         tidyProps.setProperty(key, value);
+        configureParsers();
+    }
+
+    private synchronized void configureParsers() {
+        Properties config = new Properties();
+        config.putAll(tidyProps);
+        parsers = new ParserPool(config, parserPoolSize);
     }
 
+    /**
+     * Compiles a stylesheet and appends it to the chain.
+     *
+     * @throws IllegalArgumentException if the stylesheet doesn't compile
+     */
     public void addTemplates(URL stylesheet) {
-        systemIds.add(stylesheet.toString());
-     // StreamSource ss = new StreamSource(systemId.toString());
-     // try {
-     //     templates = tff.newTemplates(ss);
-     // } catch (TransformerConfigurationException ex) {
-     //     throw new RuntimeException(ex);
-     // }
+        stylesheets.add(stylesheet);
     }
 }
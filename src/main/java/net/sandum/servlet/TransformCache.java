@@ -0,0 +1,142 @@
+package net.sandum.servlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded memo of transformed responses, by a key naming the source and the state of both source
+ * and transformer (see {@link FormatConversionFilter}). The least recently used entries are dropped to
+ * keep the content within the size given; an entry larger than an eighth of that is not kept at all.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class TransformCache {
+
+    /**
+     * A transformed response.
+     */
+    public static class Entry {
+        private final String contentType;
+        private final byte[] content;
+
+        private Entry(String contentType, byte[] content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the content, not to be modified
+         */
+        public byte[] getContent() {
+            return content;
+        }
+    }
+
+    // bytes:
+    private final long maxSize;
+    private final long maxEntrySize;
+    private long size;
+    private int generation;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize   bytes of content
+     */
+    public TransformCache(long maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException(maxSize + ": invalid transform cache size");
+        this.maxSize = maxSize;
+        this.maxEntrySize = Math.max(1, maxSize / 8);
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return bytes, the largest content kept
+     */
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return bytes of content
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return the entry, null on a miss
+     */
+    public Entry get(String key) {
+        Entry res;
+        synchronized (this) {
+            res = entries.get(key);
+        }
+        (res != null ? hits : misses).incrementAndGet();
+        return res;
+    }
+
+    /**
+     * @return to pass to {@link #put}, so that what was made before a {@link #clear()} is not kept
+     */
+    public synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Keeps the content, unless larger than {@link #getMaxEntrySize()}.
+     *
+     * @param generation    of the cache when the content was made
+     */
+    public synchronized void put(String key, String contentType, byte[] content, int generation) {
+        if (generation != this.generation || content.length > maxEntrySize)
+            return;
+
+        Entry old = entries.put(key, new Entry(contentType, content));
+        if (old != null)
+            size -= old.content.length;
+        size += content.length;
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxSize) {
+            size -= eldest.next().content.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops all entries; to be called whenever the transformation changes.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        size = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TransformCache[" + entries.size() + " entries, " + size + "/" + maxSize + " bytes, hits=" + hits + ", misses=" + misses + "]";
+    }
+}
@@ -0,0 +1,150 @@
+package net.sandum.util.servlet;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One member of a {@link LoadBalancer} pool: an origin (scheme, host and port) with lock-free counters
+ * of its load and latency. A member failing several times in a row is considered unhealthy for a while,
+ * after which it is tried again.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class Backend {
+    // milliseconds; time constant of the latency average
+    private final static double DECAY_TIME = 10000;
+
+    private final String origin;
+    private final String protocol;
+    private final String host;
+    private final int port;
+    private final int maxFailures;
+    private final long failureTimeout;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong ewmaTime = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long unhealthyUntil;
+
+    /**
+     * @param origin            base URL; only scheme, host and port are used
+     * @param maxFailures       consecutive failures after which the member is skipped
+     * @param failureTimeout    milliseconds an unhealthy member is skipped
+     */
+    public Backend(String origin, int maxFailures, long failureTimeout) throws MalformedURLException {
+        URL url = new URL(origin);
+        this.protocol = url.getProtocol();
+        this.host = url.getHost();
+        this.port = url.getPort();
+        this.origin = origin(url);
+        this.maxFailures = maxFailures;
+        this.failureTimeout = failureTimeout;
+    }
+
+    /**
+     * @return "scheme://host[:port]" of the URL, as used to identify members
+     */
+    public static String origin(URL url) {
+        return url.getProtocol() + "://" + url.getAuthority();
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the URL with its scheme, host and port replaced by this member's
+     */
+    public URL resolve(URL url) throws MalformedURLException {
+        return new URL(protocol, host, port, url.getFile());
+    }
+
+    public boolean isHealthy(long now) {
+        return now >= unhealthyUntil;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * @return the peak-sensitive moving average of the time to response headers, in milliseconds
+     */
+    public double getLatency() {
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the expected cost of sending one more request here: latency times load
+     */
+    double getCost() {
+        double latency = getLatency();
+        int load = outstanding.get();
+        if (latency == 0)
+            // no measurements yet, prefer it unless it is busy
+            return load == 0 ? 0 : Double.MAX_VALUE / 2;
+        return latency * (load + 1);
+    }
+
+    public void started() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    /**
+     * @param latency   milliseconds until the response headers arrived
+     * @param failed    true if no usable response was received
+     */
+    public void finished(long latency, boolean failed, long now) {
+        outstanding.decrementAndGet();
+        if (failed) {
+            failures.incrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= maxFailures)
+                unhealthyUntil = now + failureTimeout;
+            return;
+        }
+
+        consecutiveFailures.set(0);
+        observe(latency, now);
+    }
+
+    private void observe(long latency, long now) {
+        while (true) {
+            long bits = ewmaBits.get();
+            double prev = Double.longBitsToDouble(bits);
+            long then = ewmaTime.get();
+            double next;
+            if (latency > prev)
+                // peak: jump to the new value at once
+                next = latency;
+            else {
+                double w = Math.exp(-Math.max(0, now - then) / DECAY_TIME);
+                next = prev * w + latency * (1 - w);
+            }
+            if (ewmaBits.compareAndSet(bits, Double.doubleToLongBits(next))) {
+                ewmaTime.set(now);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return origin + "[outstanding=" + outstanding + ", latency=" + Math.round(getLatency()) + "ms, requests=" + requests
+                + ", failures=" + failures + (isHealthy(System.currentTimeMillis()) ? "" : ", unhealthy") + "]";
+    }
+}
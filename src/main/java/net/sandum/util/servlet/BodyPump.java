@@ -0,0 +1,138 @@
+package net.sandum.util.servlet;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Copies message bodies through buffers from a {@link BufferPool}, sized after the expected length of
+ * the body so that a body up to the maximum buffer size moves in one read and one write. When both
+ * ends are channels (file streams, or streams implementing the channel interfaces) the body is moved
+ * channel to channel instead, with {@link FileChannel#transferTo} from a file.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class BodyPump {
+    public final static BodyPump INSTANCE = new BodyPump();
+
+    private final BufferPool pool;
+    // bytes:
+    private int maxBufferSize = 64 * 1024;
+    private boolean direct;
+
+    public BodyPump() {
+        this(new BufferPool(64));
+    }
+
+    public BodyPump(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * @param maxBufferSize     bytes, the largest buffer to copy through
+     */
+    public void setMaxBufferSize(int maxBufferSize) {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * @param direct    whether to use direct buffers between channels
+     */
+    public void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * Copies all of in to out.
+     *
+     * @param contentLength     the expected length of the body, -1 if unknown
+     * @return the number of bytes copied
+     */
+    public long pump(InputStream in, OutputStream out, long contentLength) throws IOException {
+        ReadableByteChannel src = readableChannel(in);
+        WritableByteChannel dst = src != null ? writableChannel(out) : null;
+        if (dst != null)
+            return transfer(src, dst, contentLength);
+
+        ByteBuffer buf = pool.acquire(size(contentLength), false);
+        try {
+            byte[] b = buf.array();
+            int off = buf.arrayOffset();
+            int len = buf.capacity();
+            long res = 0;
+            int n;
+            while ((n = in.read(b, off, len)) >= 0) {
+                out.write(b, off, n);
+                res += n;
+            }
+            return res;
+        } finally {
+            pool.release(buf);
+        }
+    }
+
+    private long transfer(ReadableByteChannel src, WritableByteChannel dst, long contentLength) throws IOException {
+        if (src instanceof FileChannel) {
+            FileChannel file = (FileChannel) src;
+            long start = file.position();
+            long end = file.size();
+            long pos = start;
+            while (pos < end) {
+                long n = file.transferTo(pos, end - pos, dst);
+                if (n <= 0)
+                    break;
+                pos += n;
+            }
+            file.position(pos);
+            return pos - start;
+        }
+
+        ByteBuffer buf = pool.acquire(size(contentLength), direct);
+        try {
+            long res = 0;
+            while (src.read(buf) >= 0 || buf.position() > 0) {
+                buf.flip();
+                res += dst.write(buf);
+                buf.compact();
+            }
+            return res;
+        } finally {
+            pool.release(buf);
+        }
+    }
+
+    private long size(long contentLength) {
+        return contentLength >= 0 ? Math.min(contentLength, maxBufferSize) : Math.min(16 * 1024, maxBufferSize);
+    }
+
+    private static ReadableByteChannel readableChannel(InputStream in) {
+        if (in instanceof FileInputStream)
+            return ((FileInputStream) in).getChannel();
+        if (in instanceof ReadableByteChannel)
+            return (ReadableByteChannel) in;
+        return null;
+    }
+
+    private static WritableByteChannel writableChannel(OutputStream out) {
+        if (out instanceof FileOutputStream)
+            return ((FileOutputStream) out).getChannel();
+        if (out instanceof WritableByteChannel)
+            return (WritableByteChannel) out;
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package net.sandum.util.servlet;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Byte buffers kept for reuse, in power-of-two sizes from {@link #MIN_SIZE} to {@link #MAX_SIZE}, on
+ * the heap or direct. Each size keeps at most a fixed number of idle buffers; buffers released beyond
+ * that are left to the garbage collector.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class BufferPool {
+    // bytes:
+    public final static int MIN_SIZE = 4096;
+    public final static int MAX_SIZE = 1024 * 1024;
+
+    private final static int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+
+    private final int maxIdle;
+    private final Queue<ByteBuffer>[] heap;
+    private final Queue<ByteBuffer>[] direct;
+    private final AtomicInteger[] heapIdle;
+    private final AtomicInteger[] directIdle;
+
+    /**
+     * @param maxIdle   idle buffers to keep per size and kind
+     */
+    public BufferPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+        heap = queues();
+        direct = queues();
+        heapIdle = new AtomicInteger[CLASSES];
+        directIdle = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            heapIdle[i] = new AtomicInteger();
+            directIdle[i] = new AtomicInteger();
+        }
+    }
+
+    private static Queue<ByteBuffer>[] queues() {
+        @SuppressWarnings("unchecked")
+        Queue<ByteBuffer>[] res = (Queue<ByteBuffer>[]) new Queue<?>[CLASSES];
+        for (int i = 0; i < CLASSES; i++)
+            res[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+        return res;
+    }
+
+    /**
+     * @return the size of the buffers handed out for the given size: the next power of two within
+     *         {@link #MIN_SIZE} and {@link #MAX_SIZE}
+     */
+    public static int bufferSize(long size) {
+        if (size <= MIN_SIZE)
+            return MIN_SIZE;
+        if (size >= MAX_SIZE)
+            return MAX_SIZE;
+        return Integer.highestOneBit((int) size - 1) << 1;
+    }
+
+    private static int sizeClass(int bufferSize) {
+        return Integer.numberOfTrailingZeros(bufferSize) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /**
+     * @return a cleared buffer of {@link #bufferSize(long)} bytes
+     */
+    public ByteBuffer acquire(long size, boolean isDirect) {
+        int bufferSize = bufferSize(size);
+        int c = sizeClass(bufferSize);
+        ByteBuffer res = (isDirect ? direct : heap)[c].poll();
+        if (res == null)
+            return isDirect ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+
+        (isDirect ? directIdle : heapIdle)[c].decrementAndGet();
+        res.clear();
+        return res;
+    }
+
+    public void release(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (Integer.bitCount(capacity) != 1 || capacity < MIN_SIZE || capacity > MAX_SIZE)
+            return;
+
+        int c = sizeClass(capacity);
+        AtomicInteger idle = (buf.isDirect() ? directIdle : heapIdle)[c];
+        if (idle.incrementAndGet() > maxIdle) {
+            idle.decrementAndGet();
+            return;
+        }
+        (buf.isDirect() ? direct : heap)[c].offer(buf);
+    }
+}
@@ -1,10 +1,12 @@
 
 package net.sandum.util.servlet;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
@@ -20,24 +22,67 @@ public class ByteBufferedHttpServletResponseWrapper extends HttpServletResponseW
         implements TransformingResponse {
     private final static Logger LOG = LoggerFactory.getLogger(ByteBufferedHttpServletResponseWrapper.class);
 
+    // bytes:
+    public final static long DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    private final long spillThreshold;
+    private final File spillDirectory;
     private String downstreamContentType;
     private int downstreamContentLength;
     private int downstreamStatus = 0;
+    private String downstreamETag;
+    private long downstreamLastModified = -1;
     private ServletOutputStream stream;
     private PrintWriter writer;
-    private ByteArrayOutputStream bo;
+    private SpillBuffer bo;
 
     public ByteBufferedHttpServletResponseWrapper(HttpServletResponse response) {
+        this(response, DEFAULT_SPILL_THRESHOLD, null);
+    }
+
+    /**
+     * @param spillThreshold    bytes of content to keep in memory, the rest goes to a temporary file
+     * @param spillDirectory    where to put temporary files, null for the default
+     */
+    public ByteBufferedHttpServletResponseWrapper(HttpServletResponse response, long spillThreshold, File spillDirectory) {
         super(response);
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
     }
 
-    public byte[] getDownstreamContent() {
+    public byte[] getDownstreamContent() throws IOException {
         if (bo == null)
             return null;
 
         return bo.toByteArray();
     }
 
+    public InputStream getDownstreamContentStream() throws IOException {
+        if (bo == null)
+            return null;
+
+        return bo.getInputStream();
+    }
+
+    public ByteBuffer getDownstreamContentBuffer() throws IOException {
+        if (bo == null)
+            return null;
+
+        return bo.getByteBuffer();
+    }
+
+    public long getDownstreamContentSize() {
+        if (bo == null)
+            return -1;
+
+        return bo.size();
+    }
+
+    public void releaseDownstreamContent() {
+        if (bo != null)
+            bo.release();
+    }
+
     public String getDownstreamContentType() {
         return downstreamContentType;
     }
@@ -46,6 +91,14 @@ public class ByteBufferedHttpServletResponseWrapper extends HttpServletResponseW
         return downstreamContentLength;
     }
 
+    public String getDownstreamETag() {
+        return downstreamETag;
+    }
+
+    public long getDownstreamLastModified() {
+        return downstreamLastModified;
+    }
+
     public int getDownstreamStatus() {
         return downstreamStatus;
     }
@@ -55,7 +108,7 @@ public class ByteBufferedHttpServletResponseWrapper extends HttpServletResponseW
     }
 
     private void createOutputStream() throws IOException {
-        bo = new ByteArrayOutputStream();
+        bo = new SpillBuffer(spillThreshold, spillDirectory);
         stream = new ServletOutputStreamWrapper(bo);
     }
 
@@ -113,8 +166,13 @@ public class ByteBufferedHttpServletResponseWrapper extends HttpServletResponseW
             this.downstreamContentType = value;
         else if ("Content-Length".equalsIgnoreCase(name))
             this.downstreamContentLength = Integer.valueOf(value);
-        else
+        else if ("ETag".equalsIgnoreCase(name))
+            this.downstreamETag = value;
+        else {
+            if ("Last-Modified".equalsIgnoreCase(name))
+                this.downstreamLastModified = CacheControl.parseDate(value);
             super.addHeader(name, value);
+        }
     }
 
     @Override
@@ -125,8 +183,27 @@ public class ByteBufferedHttpServletResponseWrapper extends HttpServletResponseW
             this.downstreamContentType = value;
         else if ("Content-Length".equalsIgnoreCase(name))
             this.downstreamContentLength = Integer.valueOf(value);
-        else
+        else if ("ETag".equalsIgnoreCase(name))
+            this.downstreamETag = value;
+        else {
+            if ("Last-Modified".equalsIgnoreCase(name))
+                this.downstreamLastModified = CacheControl.parseDate(value);
             super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        if ("Last-Modified".equalsIgnoreCase(name))
+            this.downstreamLastModified = date;
+        super.addDateHeader(name, date);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        if ("Last-Modified".equalsIgnoreCase(name))
+            this.downstreamLastModified = date;
+        super.setDateHeader(name, date);
     }
 
     @Override
@@ -0,0 +1,162 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * A bounded buffer between a thread writing a stream and another thread reading it. The writer waits
+ * while the buffer is full, the reader while it is empty. Unlike {@link java.io.PipedInputStream}, it
+ * is not tied to the threads that first used it, and either side can give up: after
+ * {@link #fail(Throwable)} both sides get an IOException, after the reader is done with
+ * {@link #closeInput()} whatever is still written is discarded.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class BytePipe {
+    private final byte[] buf;
+    private int head;
+    private int count;
+    private boolean outputClosed;
+    private boolean inputClosed;
+    private Throwable failure;
+
+    /**
+     * @param size  bytes
+     */
+    public BytePipe(int size) {
+        buf = new byte[size];
+    }
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return take(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (BytePipe.this) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            closeInput();
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            put(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeOutput();
+        }
+    };
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    private synchronized void put(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (count == buf.length && failure == null && !inputClosed)
+                await();
+            check();
+            if (outputClosed)
+                throw new IOException("pipe closed");
+            if (inputClosed)
+                return;
+
+            int tail = (head + count) % buf.length;
+            int n = Math.min(len, Math.min(buf.length - count, buf.length - tail));
+            System.arraycopy(b, off, buf, tail, n);
+            count += n;
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    private synchronized int take(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        while (count == 0 && failure == null && !outputClosed)
+            await();
+        check();
+        if (count == 0)
+            return -1;
+
+        int n = Math.min(len, Math.min(count, buf.length - head));
+        System.arraycopy(buf, head, b, off, n);
+        head = (head + n) % buf.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting on pipe");
+        }
+    }
+
+    private void check() throws IOException {
+        if (failure == null)
+            return;
+        if (failure instanceof IOException)
+            throw new IOException(failure.getMessage(), failure);
+        throw new IOException(failure);
+    }
+
+    /**
+     * The end of the stream: the reader gets the rest of the buffer, then end-of-file.
+     */
+    public synchronized void closeOutput() {
+        outputClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * The reader wants no more: the writer is no longer held up, its bytes are dropped.
+     */
+    public synchronized void closeInput() {
+        inputClosed = true;
+        count = 0;
+        notifyAll();
+    }
+
+    /**
+     * Aborts the pipe, both reader and writer fail with the cause.
+     */
+    public synchronized void fail(Throwable cause) {
+        if (failure == null)
+            failure = cause;
+        notifyAll();
+    }
+}
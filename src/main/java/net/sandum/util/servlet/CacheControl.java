@@ -0,0 +1,90 @@
+package net.sandum.util.servlet;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Parsed Cache-Control directives (RFC 7234, section 5.2), plus the HTTP date helpers needed to
+ * interpret them.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class CacheControl {
+    private final Map<String, String> directives = new HashMap<String, String>();
+
+    static CacheControl parse(Iterable<String> values) {
+        CacheControl cc = new CacheControl();
+        for (String value : values)
+            cc.add(value);
+        return cc;
+    }
+
+    private void add(String value) {
+        if (value == null)
+            return;
+        for (String d : value.split(",")) {
+            d = d.trim();
+            if (d.length() == 0)
+                continue;
+            int eq = d.indexOf('=');
+            if (eq < 0)
+                directives.put(d.toLowerCase(Locale.ENGLISH), null);
+            else {
+                String arg = d.substring(eq + 1).trim();
+                if (arg.length() >= 2 && arg.startsWith("\"") && arg.endsWith("\""))
+                    arg = arg.substring(1, arg.length() - 1);
+                directives.put(d.substring(0, eq).trim().toLowerCase(Locale.ENGLISH), arg);
+            }
+        }
+    }
+
+    boolean has(String directive) {
+        return directives.containsKey(directive);
+    }
+
+    /**
+     * @return the delta-seconds argument of the directive, or -1 when absent or invalid
+     */
+    long getSeconds(String directive) {
+        String arg = directives.get(directive);
+        if (arg == null)
+            return -1;
+        try {
+            return Math.max(0, Long.parseLong(arg));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the date in milliseconds, or -1 when absent or not a valid HTTP date
+     */
+    static long parseDate(String value) {
+        if (value == null)
+            return -1;
+        SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return fmt.parse(value.trim()).getTime();
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+
+    static String formatDate(long millis) {
+        SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(new Date(millis));
+    }
+
+    @Override
+    public String toString() {
+        return directives.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package net.sandum.util.servlet;
+
+/**
+ * An upstream response stored by {@link HttpCache}. Instances are immutable; a successful revalidation
+ * replaces the entry with an updated copy.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class CachedResponse {
+    private final static long MAX_HEURISTIC_LIFETIME = 24 * 3600 * 1000L;
+
+    private final String key;
+    private final int status;
+    private final String message;
+    private final HeaderFields headers;
+    private final byte[] body;
+    private final long requestTime;
+    private final long responseTime;
+    private final long freshnessLifetime;
+    private final long correctedInitialAge;
+    private final boolean noCache;
+    private final boolean mustRevalidate;
+
+    CachedResponse(String key, int status, String message, HeaderFields headers, byte[] body, long requestTime, long responseTime) {
+        this.key = key;
+        this.status = status;
+        this.message = message;
+        this.headers = headers;
+        this.body = body;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+
+        CacheControl cc = CacheControl.parse(headers.getAll("Cache-Control"));
+        this.noCache = cc.has("no-cache") || headers.containsToken("Pragma", "no-cache");
+        this.mustRevalidate = cc.has("must-revalidate") || cc.has("proxy-revalidate");
+
+        long date = CacheControl.parseDate(headers.getFirst("Date"));
+        if (date < 0)
+            date = responseTime;
+
+        // RFC 7234, section 4.2.1:
+        long lifetime = cc.getSeconds("s-maxage");
+        if (lifetime < 0)
+            lifetime = cc.getSeconds("max-age");
+        if (lifetime >= 0)
+            lifetime *= 1000;
+        else if (headers.contains("Expires")) {
+            long expires = CacheControl.parseDate(headers.getFirst("Expires"));
+            lifetime = Math.max(0, expires - date);
+        } else {
+            long lastModified = CacheControl.parseDate(headers.getFirst("Last-Modified"));
+            lifetime = lastModified >= 0 && lastModified < date ? Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME) : 0;
+        }
+        this.freshnessLifetime = lifetime;
+
+        // RFC 7234, section 4.2.3:
+        long apparentAge = Math.max(0, responseTime - date);
+        long ageValue = 0;
+        try {
+            String age = headers.getFirst("Age");
+            if (age != null)
+                ageValue = Math.max(0, Long.parseLong(age.trim())) * 1000;
+        } catch (NumberFormatException ex) {
+            // ignore
+        }
+        this.correctedInitialAge = Math.max(apparentAge, ageValue + (responseTime - requestTime));
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public HeaderFields getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    public long getFreshnessLifetime() {
+        return freshnessLifetime;
+    }
+
+    public long getCurrentAge(long now) {
+        return correctedInitialAge + (now - responseTime);
+    }
+
+    /**
+     * @return true if the response may only be used after successful revalidation
+     */
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    /**
+     * @return true if the response must not be served stale, whatever the client accepts
+     */
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    public String getETag() {
+        return headers.getFirst("ETag");
+    }
+
+    public String getLastModified() {
+        return headers.getFirst("Last-Modified");
+    }
+
+    public boolean hasValidator() {
+        return getETag() != null || getLastModified() != null;
+    }
+
+    long size() {
+        long size = 256 + body.length;
+        for (int i = 0; i < headers.size(); i++)
+            size += 2 * (headers.getName(i).length() + headers.getValue(i).length()) + 32;
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return key.replace('\u0000', ' ') + " [" + status + ", " + body.length + " byte(s)]";
+    }
+}
@@ -0,0 +1,293 @@
+package net.sandum.util.servlet;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending requests to an upstream host that keeps failing or answering slowly. Each host
+ * (scheme, host and port) has a {@link Circuit} judging the last calls to it: when too many of them
+ * failed or were slow the circuit opens, and requests are refused at once until a cool-down has passed.
+ * A few probe requests are then let through; the circuit closes again if they all succeed and reopens
+ * if one fails.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class CircuitBreaker {
+    private final static Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+
+    private int windowSize = 20;
+    private int minCalls = 10;
+    private int failureRateThreshold = 50;
+    private int slowCallRateThreshold = 100;
+    private long slowCallDuration = 5000;
+    private long openTimeout = 30000;
+    private int halfOpenCalls = 3;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param windowSize    number of recent calls judged
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param minCalls      calls in the window before the rates are judged at all
+     */
+    public void setMinCalls(int minCalls) {
+        this.minCalls = minCalls;
+    }
+
+    public int getMinCalls() {
+        return minCalls;
+    }
+
+    /**
+     * @param failureRateThreshold  percentage of failed calls opening the circuit
+     */
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold percentage of slow calls opening the circuit
+     */
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallDuration  milliseconds to response headers beyond which a call counts as slow
+     */
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * @param openTimeout   milliseconds an open circuit refuses requests before probing
+     */
+    public void setOpenTimeout(long openTimeout) {
+        this.openTimeout = openTimeout;
+    }
+
+    public long getOpenTimeout() {
+        return openTimeout;
+    }
+
+    /**
+     * @param halfOpenCalls     probe calls that must succeed to close the circuit again
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * @return the number of requests refused by open circuits
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the circuit of the URL's scheme, host and port
+     */
+    public Circuit circuit(URL url) {
+        return circuit(Backend.origin(url));
+    }
+
+    public Circuit circuit(String origin) {
+        Circuit c = circuits.get(origin);
+        if (c == null) {
+            Circuit created = new Circuit(origin);
+            c = circuits.putIfAbsent(origin, created);
+            if (c == null)
+                c = created;
+        }
+        return c;
+    }
+
+    /**
+     * @return true if requests to the host are currently being refused
+     */
+    public boolean isOpen(String origin) {
+        Circuit c = circuits.get(origin);
+        return c != null && !c.isPermitted(System.currentTimeMillis());
+    }
+
+    public List<Circuit> getCircuits() {
+        return new ArrayList<Circuit>(circuits.values());
+    }
+
+    /**
+     * The state of one upstream host.
+     */
+    public class Circuit {
+        private final String origin;
+
+        // outcomes of the last calls, as a ring:
+        private final boolean[] failed = new boolean[windowSize];
+        private final boolean[] slow = new boolean[windowSize];
+        private int next;
+        private int calls;
+        private int failures;
+        private int slowCalls;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int probes;
+        private int probeSuccesses;
+
+        Circuit(String origin) {
+            this.origin = origin;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+
+        synchronized boolean isPermitted(long now) {
+            return state == State.CLOSED
+                    || state == State.OPEN && now - openedAt >= openTimeout
+                    || state == State.HALF_OPEN && probes < halfOpenCalls;
+        }
+
+        /**
+         * @return true if a request may be sent; it must then be followed by {@link #record}
+         */
+        public synchronized boolean tryAcquire(long now) {
+            if (state == State.OPEN && now - openedAt >= openTimeout) {
+                state = State.HALF_OPEN;
+                probes = 0;
+                probeSuccesses = 0;
+                LOG.info(origin + ": circuit half-open");
+            }
+
+            if (state == State.CLOSED)
+                return true;
+            if (state == State.HALF_OPEN && probes < halfOpenCalls) {
+                probes++;
+                return true;
+            }
+
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * @param duration  milliseconds until the response headers arrived
+         * @param failure   true if no usable response was received
+         */
+        public synchronized void record(long duration, boolean failure, long now) {
+            boolean isSlow = duration >= slowCallDuration;
+            if (state == State.HALF_OPEN) {
+                if (failure || isSlow)
+                    open(now, "probe " + (failure ? "failed" : "slow"));
+                else if (++probeSuccesses >= halfOpenCalls)
+                    close();
+                return;
+            }
+            if (state == State.OPEN)
+                // a call started before the circuit opened
+                return;
+
+            int n = failed.length;
+            if (calls == n) {
+                if (failed[next])
+                    failures--;
+                if (slow[next])
+                    slowCalls--;
+            } else
+                calls++;
+            failed[next] = failure;
+            slow[next] = isSlow;
+            if (failure)
+                failures++;
+            if (isSlow)
+                slowCalls++;
+            next = (next + 1) % n;
+
+            if (calls < minCalls)
+                return;
+            if (100 * failures >= failureRateThreshold * calls)
+                open(now, failures + " of " + calls + " calls failed");
+            else if (100 * slowCalls >= slowCallRateThreshold * calls)
+                open(now, slowCalls + " of " + calls + " calls slower than " + slowCallDuration + "ms");
+        }
+
+        /**
+         * Opens the circuit regardless of the recent calls, e.g. after a failed health check.
+         */
+        public synchronized void trip(long now, String reason) {
+            if (state != State.OPEN)
+                open(now, reason);
+        }
+
+        /**
+         * Lets an open circuit probe right away, e.g. after a successful health check.
+         */
+        public synchronized void reset() {
+            if (state == State.OPEN)
+                openedAt = 0;
+        }
+
+        private void open(long now, String reason) {
+            state = State.OPEN;
+            openedAt = now;
+            LOG.warn(origin + ": circuit open - " + reason);
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slowCalls = 0;
+            LOG.info(origin + ": circuit closed");
+        }
+
+        @Override
+        public synchronized String toString() {
+            return origin + "[" + state + ", calls=" + calls + ", failures=" + failures + ", slow=" + slowCalls + "]";
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package net.sandum.util.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Content-coding negotiation for {@link RequestProxy}. Upstream is always asked for gzip or deflate;
+ * a compressed response is passed on untouched to clients accepting its coding and decompressed for the
+ * others, and an uncompressed one is gzipped for clients accepting gzip when its type is on the
+ * allowlist and it isn't too small to bother.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class Compression {
+    /** Pass the body on as it is */
+    public final static int PASS = 0;
+    /** Decompress the upstream body */
+    public final static int DECODE = 1;
+    /** Gzip the upstream body */
+    public final static int ENCODE = 2;
+
+    public final static String ACCEPT_ENCODING = "gzip, deflate";
+
+    private Set<String> mimeTypes = new HashSet<String>(Arrays.asList(new String[]{
+        "text/html",
+        "text/plain",
+        "text/css",
+        "text/xml",
+        "text/javascript",
+        "application/javascript",
+        "application/json",
+        "application/xml",
+        "application/xhtml+xml",
+        "image/svg+xml"
+    }));
+    private long minSize = 1024;
+
+    public void setMimeTypes(Set<String> mimeTypes) {
+        Set<String> res = new HashSet<String>();
+        for (String t : mimeTypes)
+            res.add(t.trim().toLowerCase(Locale.ENGLISH));
+        this.mimeTypes = res;
+    }
+
+    public Set<String> getMimeTypes() {
+        return mimeTypes;
+    }
+
+    /**
+     * @param minSize   bytes; responses known to be smaller are not compressed
+     */
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * @return true if upstream may be asked for a compressed response to the request
+     */
+    public boolean isNegotiable(HttpServletRequest request) {
+        // byte ranges of a coded representation are useless to a client that can't decode it
+        return request.getHeader("Range") == null;
+    }
+
+    /**
+     * @return {@link #PASS}, {@link #DECODE} or {@link #ENCODE}
+     */
+    public int negotiate(HttpServletRequest request, int status, HeaderFields headers) {
+        if (!hasBody(request, status) || !isNegotiable(request))
+            return PASS;
+
+        String coding = headers.getFirst("Content-Encoding");
+        if (coding != null) {
+            coding = coding.trim().toLowerCase(Locale.ENGLISH);
+            if (!"gzip".equals(coding) && !"deflate".equals(coding) || accepts(request, coding))
+                return PASS;
+            return DECODE;
+        }
+
+        if (status != 200 || !isCompressible(headers) || !accepts(request, "gzip"))
+            return PASS;
+        return ENCODE;
+    }
+
+    /**
+     * @return the headers to send the client along with a body coded as decided
+     */
+    public HeaderFields getClientHeaders(HeaderFields headers, int coding) {
+        if (coding == PASS && !headers.contains("Content-Encoding") && !isCompressible(headers))
+            return headers;
+
+        HeaderFields res = new HeaderFields();
+        for (int i = 0; i < headers.size(); i++) {
+            String name = headers.getName(i);
+            String value = headers.getValue(i);
+            if (coding != PASS) {
+                if ("Content-Length".equalsIgnoreCase(name) || "Content-Encoding".equalsIgnoreCase(name))
+                    continue;
+                if ("ETag".equalsIgnoreCase(name) && !value.startsWith("W/"))
+                    // no longer byte-for-byte the upstream representation:
+                    value = "W/" + value;
+            }
+            res.add(name, value);
+        }
+        if (coding == ENCODE)
+            res.add("Content-Encoding", "gzip");
+        if (!res.containsToken("Vary", "Accept-Encoding") && !res.containsToken("Vary", "*"))
+            res.add("Vary", "Accept-Encoding");
+        return res;
+    }
+
+    /**
+     * @return the decompressed body
+     */
+    public static InputStream decode(InputStream in, HeaderFields headers) throws IOException {
+        String coding = headers.getFirst("Content-Encoding").trim();
+        return "gzip".equalsIgnoreCase(coding) ? new GZIPInputStream(in, 8192) : new InflaterInputStream(in);
+    }
+
+    private boolean isCompressible(HeaderFields headers) {
+        String type = headers.getFirst("Content-Type");
+        if (type == null)
+            return false;
+        int semi = type.indexOf(';');
+        if (semi >= 0)
+            type = type.substring(0, semi);
+        if (!mimeTypes.contains(type.trim().toLowerCase(Locale.ENGLISH)))
+            return false;
+
+        String length = headers.getFirst("Content-Length");
+        try {
+            return length == null || Long.parseLong(length.trim()) >= minSize;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasBody(HttpServletRequest request, int status) {
+        return !"HEAD".equals(request.getMethod()) && status >= 200 && status != 204 && status != 304;
+    }
+
+    /**
+     * @return true if the request's Accept-Encoding allows the coding (RFC 7231, section 5.3.4)
+     */
+    static boolean accepts(HttpServletRequest request, String coding) {
+        float q = -1;
+        float wildcard = -1;
+        Enumeration<String> vals = request.getHeaders("Accept-Encoding");
+        while (vals != null && vals.hasMoreElements()) {
+            for (String item : vals.nextElement().split(",")) {
+                String[] parts = item.split(";");
+                String c = parts[0].trim();
+                float cq = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String p = parts[i].trim();
+                    if (p.startsWith("q=") || p.startsWith("Q="))
+                        try {
+                            cq = Float.parseFloat(p.substring(2));
+                        } catch (NumberFormatException ex) {
+                            cq = 0;
+                        }
+                }
+                if (c.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(c) && "gzip".equals(coding))
+                    q = Math.max(q, cq);
+                else if ("*".equals(c))
+                    wildcard = cq;
+            }
+        }
+        return q >= 0 ? q > 0 : wildcard > 0;
+    }
+
+    /**
+     * Gzips a body chunk by chunk, for writers that must hand each piece of output over themselves.
+     */
+    static class Encoder {
+        private final ByteArrayOutputStream sink = new ByteArrayOutputStream(8192);
+        private final GZIPOutputStream gzip;
+
+        Encoder() throws IOException {
+            gzip = new GZIPOutputStream(sink, 8192);
+        }
+
+        /**
+         * @return the compressed bytes produced so far, possibly none
+         */
+        byte[] encode(byte[] b, int off, int len) throws IOException {
+            gzip.write(b, off, len);
+            return drain();
+        }
+
+        /**
+         * @return the remaining compressed bytes, including the gzip trailer
+         */
+        byte[] finish() throws IOException {
+            gzip.finish();
+            return drain();
+        }
+
+        private byte[] drain() {
+            byte[] res = sink.toByteArray();
+            sink.reset();
+            return res;
+        }
+    }
+}
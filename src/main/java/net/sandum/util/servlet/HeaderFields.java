@@ -0,0 +1,121 @@
+package net.sandum.util.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ordered list of HTTP header fields. Names keep their original case, lookups ignore it.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class HeaderFields {
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> values = new ArrayList<String>();
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int i) {
+        return names.get(i);
+    }
+
+    public String getValue(int i) {
+        return values.get(i);
+    }
+
+    public void setValue(int i, String value) {
+        values.set(i, value);
+    }
+
+    public void add(String name, String value) {
+        names.add(name);
+        values.add(value);
+    }
+
+    public void set(String name, String value) {
+        remove(name);
+        add(name, value);
+    }
+
+    public void remove(String name) {
+        for (int i = names.size() - 1; i >= 0; i--)
+            if (names.get(i).equalsIgnoreCase(name)) {
+                names.remove(i);
+                values.remove(i);
+            }
+    }
+
+    public void clear() {
+        names.clear();
+        values.clear();
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    public String getFirst(String name) {
+        int i = indexOf(name);
+        return i >= 0 ? values.get(i) : null;
+    }
+
+    public String getLast(String name) {
+        for (int i = names.size() - 1; i >= 0; i--)
+            if (names.get(i).equalsIgnoreCase(name))
+                return values.get(i);
+        return null;
+    }
+
+    public List<String> getAll(String name) {
+        List<String> res = new ArrayList<String>();
+        for (int i = 0; i < names.size(); i++)
+            if (names.get(i).equalsIgnoreCase(name))
+                res.add(values.get(i));
+        return res;
+    }
+
+    /**
+     * @return true if some value of the named (comma separated) header contains the given token
+     */
+    public boolean containsToken(String name, String token) {
+        for (int i = 0; i < names.size(); i++)
+            if (names.get(i).equalsIgnoreCase(name))
+                for (String t : values.get(i).split(","))
+                    if (t.trim().equalsIgnoreCase(token))
+                        return true;
+        return false;
+    }
+
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> res = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < names.size(); i++) {
+            List<String> vals = res.get(names.get(i));
+            if (vals == null)
+                res.put(names.get(i), vals = new ArrayList<String>());
+            vals.add(values.get(i));
+        }
+        for (Map.Entry<String, List<String>> e : res.entrySet())
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        return Collections.unmodifiableMap(res);
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < names.size(); i++)
+            if (names.get(i).equalsIgnoreCase(name))
+                return i;
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.size(); i++)
+            sb.append(names.get(i)).append(": ").append(values.get(i)).append("\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package net.sandum.util.servlet;
+
+/**
+ * Per header name decisions of a {@link RequestProxy}, computed once for the well-known header names
+ * and then looked up case-insensitively without allocating. The table is filled when the policy is made
+ * and never changes, so lookups take no locks; other names, which come from clients and upstream servers
+ * and are not to be remembered, have their decisions computed on every call.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class HeaderPolicy {
+    public final static int IGNORE_REQUEST = 1;
+    public final static int IGNORE_RESPONSE = 2;
+    public final static int COOKIE = 4;
+    public final static int SET_COOKIE = 8;
+    public final static int HOST = 16;
+    public final static int CONTENT_LENGTH = 32;
+    public final static int X_FORWARDED_FOR = 64;
+
+    // the names whose decisions are remembered:
+    private final static String[] WELL_KNOWN = {
+        "accept", "accept-charset", "accept-encoding", "accept-language", "accept-ranges", "age", "allow",
+        "authorization", "cache-control", "connection", "content-disposition", "content-encoding",
+        "content-language", "content-length", "content-location", "content-range", "content-type", "cookie",
+        "date", "dnt", "etag", "expect", "expires", "forwarded", "from", "host", "if-match",
+        "if-modified-since", "if-none-match", "if-range", "if-unmodified-since", "keep-alive",
+        "last-modified", "link", "location", "max-forwards", "origin", "pragma", "proxy-authenticate",
+        "proxy-authorization", "proxy-connection", "range", "referer", "retry-after", "server", "set-cookie",
+        "te", "trailer", "transfer-encoding", "upgrade", "upgrade-insecure-requests", "user-agent", "vary",
+        "via", "warning", "www-authenticate", "x-content-type-options", "x-forwarded-for",
+        "x-forwarded-host", "x-forwarded-proto", "x-frame-options", "x-powered-by", "x-requested-with"
+    };
+
+    /**
+     * The decisions to cache. Called with lower-case header names.
+     */
+    public interface Rules {
+        boolean ignoreRequestHeader(String lhdr);
+
+        boolean ignoreResponseHeader(String lhdr);
+    }
+
+    private static class Table {
+        final String[] names;
+        final int[] flags;
+
+        Table(int capacity) {
+            this.names = new String[capacity];
+            this.flags = new int[capacity];
+        }
+    }
+
+    private final Rules rules;
+    private final Table table;
+
+    public HeaderPolicy(Rules rules) {
+        this.rules = rules;
+
+        int capacity = 16;
+        while (capacity < 2 * WELL_KNOWN.length)
+            capacity *= 2;
+        table = new Table(capacity);
+        for (String lhdr : WELL_KNOWN)
+            insert(table, lhdr, compute(lhdr));
+    }
+
+    /**
+     * @return the decisions for the header, as a bit set of the constants above
+     */
+    public int flags(String name) {
+        Table t = table;
+        int mask = t.names.length - 1;
+        for (int i = hash(name) & mask; t.names[i] != null; i = (i + 1) & mask)
+            if (t.names[i].equalsIgnoreCase(name))
+                return t.flags[i];
+
+        return compute(name.toLowerCase());
+    }
+
+    public boolean ignoreRequestHeader(String name) {
+        return (flags(name) & IGNORE_REQUEST) != 0;
+    }
+
+    public boolean ignoreResponseHeader(String name) {
+        return (flags(name) & IGNORE_RESPONSE) != 0;
+    }
+
+    private int compute(String lhdr) {
+        int f = 0;
+        if (rules.ignoreRequestHeader(lhdr))
+            f |= IGNORE_REQUEST;
+        if (rules.ignoreResponseHeader(lhdr))
+            f |= IGNORE_RESPONSE;
+        if ("cookie".equals(lhdr))
+            f |= COOKIE;
+        else if ("set-cookie".equals(lhdr))
+            f |= SET_COOKIE;
+        else if ("host".equals(lhdr))
+            f |= HOST;
+        else if ("content-length".equals(lhdr))
+            f |= CONTENT_LENGTH;
+        else if ("x-forwarded-for".equals(lhdr))
+            f |= X_FORWARDED_FOR;
+        return f;
+    }
+
+    private static void insert(Table t, String lhdr, int f) {
+        int mask = t.names.length - 1;
+        int i = hash(lhdr) & mask;
+        while (t.names[i] != null) {
+            if (t.names[i].equals(lhdr))
+                return;
+            i = (i + 1) & mask;
+        }
+        t.names[i] = lhdr;
+        t.flags[i] = f;
+    }
+
+    private static int hash(String name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+}
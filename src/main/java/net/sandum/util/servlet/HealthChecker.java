@@ -0,0 +1,136 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls a path on each known upstream host in the background and opens its {@link CircuitBreaker}
+ * circuit when the check fails, so requests don't have to find dead hosts first. A host passing the
+ * check again gets its circuit probed right away instead of after the cool-down.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class HealthChecker {
+    private final static Logger LOG = LoggerFactory.getLogger(HealthChecker.class);
+
+    private final CircuitBreaker breaker;
+    private final String path;
+    private final Set<String> origins = new CopyOnWriteArraySet<String>();
+    private final ScheduledExecutorService scheduler;
+
+    private long interval = 10000;
+    private int timeout = 2000;
+
+    /**
+     * @param path      path (and query) to GET from each host; any status below 500 counts as healthy
+     */
+    public HealthChecker(String name, CircuitBreaker breaker, String path) {
+        this.breaker = breaker;
+        this.path = path.startsWith("/") ? path : "/" + path;
+
+        final String threadName = name + "-health";
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @param interval  milliseconds between checks of a host
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param timeout   milliseconds to connect, and again to receive the response headers
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param origin    "scheme://host[:port]" of a host to check
+     */
+    public void addOrigin(String origin) {
+        origins.add(origin);
+    }
+
+    public Set<String> getOrigins() {
+        return origins;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (String origin : origins)
+                    check(origin);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    void check(String origin) {
+        CircuitBreaker.Circuit circuit = breaker.circuit(origin);
+        String failure = null;
+        InputStream in = null;
+        try {
+            URLConnection connection = new URL(origin + path).openConnection();
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setUseCaches(false);
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection http = (HttpURLConnection) connection;
+                http.setInstanceFollowRedirects(false);
+                int code = http.getResponseCode();
+                if (code >= 500)
+                    failure = "health check returned " + code;
+                in = code >= 400 ? http.getErrorStream() : http.getInputStream();
+            } else
+                in = connection.getInputStream();
+            // drain it, so the connection can be reused:
+            if (in != null)
+                IOUtils.copy(in, new NullOutputStream());
+        } catch (IOException ex) {
+            failure = "health check failed - " + ex;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        if (failure != null)
+            circuit.trip(System.currentTimeMillis(), failure);
+        else {
+            if (LOG.isDebugEnabled())
+                LOG.debug(origin + path + ": healthy");
+            circuit.reset();
+        }
+    }
+}
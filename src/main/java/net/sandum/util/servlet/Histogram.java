@@ -0,0 +1,129 @@
+package net.sandum.util.servlet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of non-negative values, in the manner of HdrHistogram: each power of two is
+ * split into 16 linear buckets, so any quantile is known within 1/16 of its value. Recording is a
+ * single atomic add into the current thread's stripe; reading merges the stripes into a
+ * {@link Snapshot}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class Histogram {
+    private final static int SUB_BITS = 4;
+    private final static int SUB = 1 << SUB_BITS;
+    // values from 2^(MAX_MAGNITUDE + 1) on go into the last bucket:
+    private final static int MAX_MAGNITUDE = 40;
+    private final static int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 2) << SUB_BITS;
+    // the sum is kept after the buckets:
+    private final static int SUM = BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public Histogram() {
+        int n = StripedCounter.stripes(4);
+        this.stripes = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        this.mask = n - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        AtomicLongArray s = stripes[StripedCounter.stripe(mask)];
+        s.incrementAndGet(bucket(value));
+        s.addAndGet(SUM, value);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB)
+            return (int) value;
+        int k = 63 - Long.numberOfLeadingZeros(value);
+        if (k > MAX_MAGNITUDE)
+            return BUCKETS - 1;
+        return ((k - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (k - SUB_BITS)) & (SUB - 1));
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB)
+            return bucket;
+        int k = (bucket >> SUB_BITS) + SUB_BITS - 1;
+        return (long) (SUB + (bucket & (SUB - 1))) << (k - SUB_BITS);
+    }
+
+    static long width(int bucket) {
+        if (bucket < SUB)
+            return 1;
+        return 1L << ((bucket >> SUB_BITS) - 1);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        for (AtomicLongArray s : stripes) {
+            for (int i = 0; i < BUCKETS; i++)
+                counts[i] += s.get(i);
+            sum += s.get(SUM);
+        }
+        return new Snapshot(counts, sum);
+    }
+
+    /**
+     * The values recorded up to a point in time. Counts and sum are read without stopping writers, so
+     * they may be off by the values recorded meanwhile.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        Snapshot(long[] counts, long sum) {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+            this.sum = sum;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile  e.g. 0.99
+         * @return a value no more than 1/16 off the value at the quantile, 0 if nothing was recorded
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return lowerBound(i) + (width(i) - 1) / 2;
+            }
+            return getMax();
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--)
+                if (counts[i] > 0)
+                    return lowerBound(i) + width(i) - 1;
+            return 0;
+        }
+    }
+}
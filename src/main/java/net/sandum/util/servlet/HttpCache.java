@@ -0,0 +1,428 @@
+package net.sandum.util.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process shared HTTP cache (RFC 7234) for {@link RequestProxy}. Responses are keyed by target URL and
+ * the request headers named by their <code>Vary</code> header, and evicted least-recently-used first when
+ * the total size exceeds {@link #setMaxBytes(long)}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class HttpCache {
+    private final static Logger LOG = LoggerFactory.getLogger(HttpCache.class);
+
+    // RFC 7231, section 6.1: cacheable by default
+    private final static HashSet<Integer> CACHEABLE_STATUS =
+            new HashSet<Integer>(Arrays.asList(new Integer[]{
+                200, 203, 204, 300, 301, 404, 405, 410, 414, 501
+            }));
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<String, CachedResponse>(256, 0.75f, true);
+    private final Map<String, Variants> variants = new HashMap<String, Variants>();
+    private long size;
+
+    private long maxBytes = 64L * 1024 * 1024;
+    private long maxEntryBytes = 1024 * 1024;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The Vary header names last seen for a URL, and the keys of the entries stored under it.
+     */
+    private static class Variants {
+        final List<String> vary;
+        final Set<String> keys = new HashSet<String>();
+
+        Variants(List<String> vary) {
+            this.vary = vary;
+        }
+    }
+
+    /**
+     * Response body collected while it is being proxied. Gives up (and drops what it has) once the
+     * entry size limit is exceeded.
+     */
+    static class Capture extends OutputStream {
+        private final long limit;
+        private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        Capture(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (buf == null)
+                return;
+            if (buf.size() + (long) len > limit)
+                buf = null;
+            else
+                buf.write(b, off, len);
+        }
+
+        boolean isOverflow() {
+            return buf == null;
+        }
+
+        byte[] toByteArray() {
+            return buf.toByteArray();
+        }
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    public long getStores() {
+        return stores.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getSize() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return true if a cached response may be used to answer the request at all
+     */
+    public static boolean isCacheableRequest(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method))
+            return false;
+        if (request.getHeader("Authorization") != null)
+            return false;
+
+        return !requestCacheControl(request).has("no-store");
+    }
+
+    /**
+     * @return the stored response matching the request (fresh or not), or null
+     */
+    public CachedResponse lookup(URL url, HttpServletRequest request) {
+        if (!isCacheableRequest(request))
+            return null;
+
+        String u = url.toExternalForm();
+        synchronized (lock) {
+            Variants v = variants.get(u);
+            return v != null ? entries.get(key(u, v.vary, request)) : null;
+        }
+    }
+
+    /**
+     * @return true if the entry may be served to this client without revalidation
+     */
+    public boolean isFresh(CachedResponse entry, HttpServletRequest request, long now) {
+        if (entry.isNoCache())
+            return false;
+
+        CacheControl cc = requestCacheControl(request);
+        if (cc.has("no-cache") || headerContainsToken(request, "Pragma", "no-cache"))
+            return false;
+
+        long age = entry.getCurrentAge(now);
+        long maxAge = cc.getSeconds("max-age");
+        if (maxAge >= 0 && age > maxAge * 1000)
+            return false;
+
+        long minFresh = cc.getSeconds("min-fresh");
+        if (minFresh > 0)
+            age += minFresh * 1000;
+
+        long lifetime = entry.getFreshnessLifetime();
+        if (age < lifetime)
+            return true;
+
+        if (!cc.has("max-stale") || entry.isMustRevalidate())
+            return false;
+        long maxStale = cc.getSeconds("max-stale");
+        return maxStale < 0 || age - lifetime <= maxStale * 1000;
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * @return true if the upstream response to the request may be stored
+     */
+    public boolean isStorable(HttpServletRequest request, int status, HeaderFields headers) {
+        if (!"GET".equals(request.getMethod()) || !isCacheableRequest(request))
+            return false;
+        if (!isShareable(status, headers))
+            return false;
+
+        CacheControl cc = CacheControl.parse(headers.getAll("Cache-Control"));
+        return cc.has("max-age") || cc.has("s-maxage") || headers.contains("Expires")
+                || headers.contains("ETag") || headers.contains("Last-Modified");
+    }
+
+    /**
+     * @return true if the response may be handed to other clients than the one that asked for it
+     */
+    static boolean isShareable(int status, HeaderFields headers) {
+        if (!CACHEABLE_STATUS.contains(status))
+            return false;
+
+        CacheControl cc = CacheControl.parse(headers.getAll("Cache-Control"));
+        if (cc.has("no-store") || cc.has("private"))
+            return false;
+
+        return !headers.contains("Set-Cookie") && !headers.containsToken("Vary", "*");
+    }
+
+    /**
+     * @return the response as a cache entry for the request, keyed by its URL and Vary headers
+     */
+    static CachedResponse newEntry(URL url, HttpServletRequest request, int status, String message, HeaderFields upstreamHeaders, byte[] body, long requestTime, long responseTime) {
+        HeaderFields headers = new HeaderFields();
+        for (int i = 0; i < upstreamHeaders.size(); i++) {
+            String name = upstreamHeaders.getName(i);
+            if (!"Transfer-Encoding".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name))
+                headers.add(name, upstreamHeaders.getValue(i));
+        }
+        headers.set("Content-Length", String.valueOf(body.length));
+
+        String key = key(url.toExternalForm(), varyNames(headers), request);
+        return new CachedResponse(key, status, message, headers, body, requestTime, responseTime);
+    }
+
+    /**
+     * @return true if the entry is the variant selected by the request's Vary headers
+     */
+    static boolean isVariantOf(CachedResponse entry, URL url, HttpServletRequest request) {
+        return entry.getKey().equals(key(url.toExternalForm(), varyNames(entry.getHeaders()), request));
+    }
+
+    public void store(CachedResponse entry) {
+        if (entry.size() > maxEntryBytes)
+            return;
+
+        String u = urlOf(entry.getKey());
+        List<String> vary = varyNames(entry.getHeaders());
+        synchronized (lock) {
+            Variants v = variants.get(u);
+            if (v != null && !v.vary.equals(vary)) {
+                // the response now varies on different headers, so older variants can never match again:
+                removeAll(v);
+                v = null;
+            }
+            if (v == null)
+                variants.put(u, v = new Variants(vary));
+            put(v, entry);
+        }
+        stores.incrementAndGet();
+        LOG.debug("stored " + entry);
+    }
+
+    /**
+     * Freshens a stored response with the headers of a 304 answer to a conditional request.
+     *
+     * @return the updated entry
+     */
+    public CachedResponse revalidated(CachedResponse entry, HeaderFields notModified, long requestTime, long responseTime) {
+        HeaderFields headers = new HeaderFields();
+        HeaderFields stored = entry.getHeaders();
+        for (int i = 0; i < stored.size(); i++)
+            headers.add(stored.getName(i), stored.getValue(i));
+
+        // RFC 7234, section 4.3.4:
+        Set<String> updated = new LinkedHashSet<String>();
+        for (int i = 0; i < notModified.size(); i++) {
+            String name = notModified.getName(i);
+            String lname = name.toLowerCase(Locale.ENGLISH);
+            if ("content-length".equals(lname) || "transfer-encoding".equals(lname) || "set-cookie".equals(lname))
+                continue;
+            if (updated.add(lname))
+                headers.remove(name);
+            headers.add(name, notModified.getValue(i));
+        }
+
+        CachedResponse fresh = new CachedResponse(entry.getKey(), entry.getStatus(), entry.getMessage(), headers, entry.getBody(), requestTime, responseTime);
+        String u = urlOf(entry.getKey());
+        synchronized (lock) {
+            Variants v = variants.get(u);
+            if (v != null && entries.get(entry.getKey()) == entry)
+                put(v, fresh);
+        }
+        revalidations.incrementAndGet();
+        return fresh;
+    }
+
+    /**
+     * Drops all stored responses for the URL, e.g. after a successful unsafe request (RFC 7234, section 4.4).
+     */
+    public void invalidate(URL url) {
+        synchronized (lock) {
+            Variants v = variants.get(url.toExternalForm());
+            if (v != null)
+                removeAll(v);
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            variants.clear();
+            size = 0;
+        }
+    }
+
+    private void put(Variants v, CachedResponse entry) {
+        CachedResponse old = entries.put(entry.getKey(), entry);
+        if (old != null)
+            size -= old.size();
+        size += entry.size();
+        v.keys.add(entry.getKey());
+
+        Iterator<CachedResponse> it = entries.values().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            CachedResponse lru = it.next();
+            if (lru == entry)
+                continue;
+            it.remove();
+            size -= lru.size();
+            forget(lru.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void removeAll(Variants v) {
+        for (String key : v.keys) {
+            CachedResponse old = entries.remove(key);
+            if (old != null)
+                size -= old.size();
+        }
+        v.keys.clear();
+        variants.values().remove(v);
+    }
+
+    private void forget(String key) {
+        String u = urlOf(key);
+        Variants v = variants.get(u);
+        if (v != null) {
+            v.keys.remove(key);
+            if (v.keys.isEmpty())
+                variants.remove(u);
+        }
+    }
+
+    private static String urlOf(String key) {
+        return key.substring(0, key.indexOf('\u0000'));
+    }
+
+    private static String key(String url, List<String> vary, HttpServletRequest request) {
+        StringBuilder sb = new StringBuilder(url).append('\u0000');
+        for (String name : vary) {
+            sb.append(name).append('=');
+            Enumeration<String> vals = request.getHeaders(name);
+            while (vals != null && vals.hasMoreElements())
+                sb.append(vals.nextElement()).append(',');
+            sb.append('\u0000');
+        }
+        return sb.toString();
+    }
+
+    private static List<String> varyNames(HeaderFields headers) {
+        List<String> names = new ArrayList<String>();
+        for (String value : headers.getAll("Vary"))
+            for (String name : value.split(","))
+                if (name.trim().length() > 0)
+                    names.add(name.trim().toLowerCase(Locale.ENGLISH));
+        Collections.sort(names);
+        return names;
+    }
+
+    private static CacheControl requestCacheControl(HttpServletRequest request) {
+        List<String> values = new ArrayList<String>();
+        Enumeration<String> vals = request.getHeaders("Cache-Control");
+        while (vals != null && vals.hasMoreElements())
+            values.add(vals.nextElement());
+        return CacheControl.parse(values);
+    }
+
+    private static boolean headerContainsToken(HttpServletRequest request, String name, String token) {
+        Enumeration<String> vals = request.getHeaders(name);
+        while (vals != null && vals.hasMoreElements())
+            for (String t : vals.nextElement().split(","))
+                if (t.trim().equalsIgnoreCase(token))
+                    return true;
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpCache[" + getEntryCount() + " entries, " + getSize() + "/" + maxBytes + " bytes, hits=" + hits
+                + ", misses=" + misses + ", revalidations=" + revalidations + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,22 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Leaves connection management to {@link URL#openConnection()} and the JDK keep-alive cache.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class JdkUpstreamConnector implements UpstreamConnector {
+    public final static UpstreamConnector INSTANCE = new JdkUpstreamConnector();
+
+    public URLConnection openConnection(URL url) throws IOException {
+        return url.openConnection();
+    }
+
+    public void shutdown() {
+    }
+}
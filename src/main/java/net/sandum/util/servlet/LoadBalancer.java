@@ -0,0 +1,119 @@
+package net.sandum.util.servlet;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Picks a {@link Backend} out of a pool for each upstream request, skipping unhealthy members as long as
+ * there are healthy ones.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class LoadBalancer {
+    public enum Policy {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING,
+        PEAK_EWMA;
+
+        /**
+         * @param s     "round-robin", "least-outstanding" or "peak-ewma"
+         */
+        public static Policy parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+        }
+    }
+
+    private final String name;
+    private final Backend[] members;
+    private final Policy policy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public LoadBalancer(String name, List<Backend> members, Policy policy) {
+        if (members.isEmpty())
+            throw new IllegalArgumentException(name + ": empty pool");
+        this.name = name;
+        this.members = members.toArray(new Backend[members.size()]);
+        this.policy = policy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public Backend[] getMembers() {
+        return members.clone();
+    }
+
+    public Backend choose() {
+        return choose(null);
+    }
+
+    /**
+     * @param breaker   members whose circuit is open are skipped too, if not null
+     */
+    public Backend choose(CircuitBreaker breaker) {
+        long now = System.currentTimeMillis();
+        int n = members.length;
+        int turn = next.getAndIncrement() & Integer.MAX_VALUE;
+        if (policy == Policy.ROUND_ROBIN)
+            return chooseInTurn(turn, breaker, now);
+
+        // rotate the starting point, so ties are spread too:
+        int start = turn % n;
+        Backend best = null;
+        double bestCost = 0;
+        for (int i = 0; i < n; i++) {
+            Backend b = members[(start + i) % n];
+            if (!isAvailable(b, breaker, now))
+                continue;
+
+            double cost = policy == Policy.LEAST_OUTSTANDING ? b.getOutstanding() : b.getCost();
+            if (best == null || cost < bestCost) {
+                best = b;
+                bestCost = cost;
+            }
+        }
+
+        // all members unhealthy: better try one than fail outright
+        return best != null ? best : members[start];
+    }
+
+    /**
+     * Rotates over the available members only, so that the share of a skipped member is spread evenly
+     * rather than falling to the one after it.
+     */
+    private Backend chooseInTurn(int turn, CircuitBreaker breaker, long now) {
+        int available = 0;
+        for (Backend b : members)
+            if (isAvailable(b, breaker, now))
+                available++;
+
+        if (available > 0) {
+            int k = turn % available;
+            for (Backend b : members)
+                if (isAvailable(b, breaker, now) && k-- == 0)
+                    return b;
+        }
+
+        // all members unhealthy, or some turned so meanwhile: better try one than fail outright
+        return members[turn % members.length];
+    }
+
+    private static boolean isAvailable(Backend b, CircuitBreaker breaker, long now) {
+        return b.isHealthy(now) && (breaker == null || !breaker.isOpen(b.getOrigin()));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(" (").append(policy).append("):");
+        for (Backend b : members)
+            sb.append(' ').append(b);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,110 @@
+package net.sandum.util.servlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A kept-alive socket to one upstream route, owned by {@link PooledUpstreamConnector}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class PooledConnection {
+    private final String route;
+    private final Socket socket;
+    private final BufferedInputStream in;
+    private final BufferedOutputStream out;
+    private long lastUsed;
+    // has been back in the pool, after an exchange:
+    private boolean reused;
+
+    PooledConnection(String route, Socket socket) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    String getRoute() {
+        return route;
+    }
+
+    InputStream getInputStream() {
+        return in;
+    }
+
+    OutputStream getOutputStream() {
+        return out;
+    }
+
+    void setReadTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+        reused = true;
+    }
+
+    boolean isReused() {
+        return reused;
+    }
+
+    boolean isExpired(long now, long ttl) {
+        return ttl > 0 && now - lastUsed > ttl;
+    }
+
+    /**
+     * An idle keep-alive connection must have nothing to read. EOF or unsolicited data both mean
+     * the upstream has given up on it. Only a connection idle for longer than the given time is probed
+     * for EOF with a blocking read, which takes a millisecond; others are trusted unless closed or with
+     * data waiting.
+     *
+     * @param inactivity    milliseconds idle before a connection is probed
+     */
+    boolean isStale(long now, long inactivity) {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown())
+            return true;
+        try {
+            if (in.available() > 0)
+                return true;
+            if (now - lastUsed <= inactivity)
+                return false;
+            int timeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                in.read();
+                return true;
+            } catch (SocketTimeoutException ex) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    @Override
+    public String toString() {
+        return route + " " + socket.getLocalPort();
+    }
+}
@@ -0,0 +1,661 @@
+package net.sandum.util.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal HTTP/1.1 client connection running on a socket leased from a {@link PooledUpstreamConnector}.
+ * The socket goes back to the pool when the response body has been read to the end, and is discarded
+ * when the body is closed early or the exchange fails.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class PooledHttpURLConnection extends HttpURLConnection {
+    private final static Logger LOG = LoggerFactory.getLogger(PooledHttpURLConnection.class);
+
+    private final static int MAX_REDIRECTS = 5;
+    private final static int MAX_LINE = 65536;
+    private final static byte[] CRLF = { '\r', '\n' };
+
+    private final PooledUpstreamConnector connector;
+    private final HeaderFields requestHeaders = new HeaderFields();
+
+    private PooledConnection conn;
+    // the connection leased had served an exchange before:
+    private boolean reused;
+    private boolean keepAlive;
+    private OutputStream requestBody;
+    private ByteArrayOutputStream bufferedBody;
+    private boolean requestSent;
+
+    private IOException failure;
+    private String statusLine;
+    private HeaderFields responseHeaders;
+    private InputStream responseBody;
+
+    PooledHttpURLConnection(URL url, PooledUpstreamConnector connector) {
+        super(url);
+        this.connector = connector;
+    }
+
+    /**
+     * Unlike the JDK implementation, any method token is allowed (e.g. PATCH).
+     */
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+        if (connected)
+            throw new ProtocolException("Can't reset method: already connected");
+        if (method == null || method.length() == 0 || method.indexOf(' ') >= 0)
+            throw new ProtocolException("Invalid HTTP method: " + method);
+        this.method = method;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        if (connected)
+            throw new IllegalStateException("Already connected");
+        if (key == null)
+            throw new NullPointerException("key is null");
+        requestHeaders.set(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        if (connected)
+            throw new IllegalStateException("Already connected");
+        if (key == null)
+            throw new NullPointerException("key is null");
+        requestHeaders.add(key, value);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return key == null ? null : requestHeaders.getFirst(key);
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (connected)
+            throw new IllegalStateException("Already connected");
+        return requestHeaders.toMap();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected)
+            return;
+        conn = connector.lease(url, getConnectTimeout(), getReadTimeout());
+        reused = conn.isReused();
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        releaseConnection(false);
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput)
+            throw new ProtocolException("cannot write to a URLConnection if doOutput=false - call setDoOutput(true)");
+        if (requestSent)
+            throw new ProtocolException("Cannot write output after reading input.");
+        if (requestBody != null)
+            return requestBody;
+
+        long fixedLength = fixedContentLengthLong != -1 ? fixedContentLengthLong : fixedContentLength;
+        if (fixedLength != -1) {
+            connect();
+            writeRequestHead(fixedLength, false);
+            requestBody = new FixedLengthOutputStream(fixedLength);
+        } else if (chunkLength != -1) {
+            connect();
+            writeRequestHead(-1, true);
+            requestBody = new ChunkedOutputStream(chunkLength > 0 ? chunkLength : 4096);
+        } else
+            requestBody = bufferedBody = new ByteArrayOutputStream();
+
+        return requestBody;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput)
+            throw new ProtocolException("Cannot read from URLConnection if doInput=false (call setDoInput(true))");
+        readResponse();
+        if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE)
+            throw new FileNotFoundException(url.toString());
+        if (responseCode >= 400)
+            throw new IOException("Server returned HTTP response code: " + responseCode + " for URL: " + url);
+        return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (responseHeaders == null || responseCode < 400)
+            return null;
+        return responseBody;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        readResponse();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        readResponse();
+        return responseMessage;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        if (!tryReadResponse())
+            return null;
+        if (n == 0)
+            return statusLine;
+        return n <= responseHeaders.size() ? responseHeaders.getValue(n - 1) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        if (!tryReadResponse())
+            return null;
+        if (n == 0)
+            return null;
+        return n <= responseHeaders.size() ? responseHeaders.getName(n - 1) : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!tryReadResponse())
+            return null;
+        if (name == null)
+            return statusLine;
+        return responseHeaders.getLast(name);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        if (!tryReadResponse())
+            return Collections.emptyMap();
+        Map<String, List<String>> res = new LinkedHashMap<String, List<String>>();
+        res.put(null, Collections.singletonList(statusLine));
+        res.putAll(responseHeaders.toMap());
+        return Collections.unmodifiableMap(res);
+    }
+
+    private boolean tryReadResponse() {
+        try {
+            readResponse();
+            return true;
+        } catch (IOException ex) {
+            LOG.debug(url + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private void sendRequest() throws IOException {
+        if (requestSent)
+            return;
+
+        boolean ok = false;
+        try {
+            if (requestBody == null) {
+                connect();
+                writeRequestHead(doOutput ? 0 : -1, false);
+            } else if (bufferedBody != null) {
+                connect();
+                writeRequestHead(bufferedBody.size(), false);
+                bufferedBody.writeTo(conn.getOutputStream());
+            } else
+                requestBody.close();
+
+            conn.getOutputStream().flush();
+            requestSent = true;
+            ok = true;
+        } finally {
+            if (!ok)
+                releaseConnection(false);
+        }
+    }
+
+    private void writeRequestHead(long contentLength, boolean chunked) throws IOException {
+        StringBuilder head = new StringBuilder(512);
+        String file = url.getFile();
+        head.append(method).append(' ').append(file.length() == 0 ? "/" : file).append(" HTTP/1.1\r\n");
+
+        if (!requestHeaders.contains("Host")) {
+            head.append("Host: ").append(url.getHost());
+            if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort())
+                head.append(':').append(url.getPort());
+            head.append("\r\n");
+        }
+
+        for (int i = 0; i < requestHeaders.size(); i++) {
+            String name = requestHeaders.getName(i);
+            if (isFramingHeader(name))
+                continue;
+            head.append(name).append(": ").append(requestHeaders.getValue(i)).append("\r\n");
+        }
+
+        if (chunked)
+            head.append("Transfer-Encoding: chunked\r\n");
+        else if (contentLength >= 0)
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        head.append("\r\n");
+
+        conn.getOutputStream().write(head.toString().getBytes("ISO-8859-1"));
+    }
+
+    private static boolean isFramingHeader(String name) {
+        return "Content-Length".equalsIgnoreCase(name)
+                || "Transfer-Encoding".equalsIgnoreCase(name)
+                || "Connection".equalsIgnoreCase(name)
+                || "Keep-Alive".equalsIgnoreCase(name)
+                || "Proxy-Connection".equalsIgnoreCase(name);
+    }
+
+    private void readResponse() throws IOException {
+        if (responseHeaders != null)
+            return;
+        if (failure != null)
+            throw failure;
+
+        boolean resent = false;
+        for (int redirects = 0;; redirects++) {
+            try {
+                sendRequest();
+                readResponseHead();
+            } catch (IOException ex) {
+                boolean resend = !resent && isResendable(ex);
+                releaseConnection(false);
+                if (!resend) {
+                    failure = ex;
+                    throw ex;
+                }
+                LOG.debug(url + ": kept-alive connection closed upstream, sending again - " + ex);
+                resent = true;
+                redirects--;
+                connected = false;
+                requestSent = false;
+                continue;
+            }
+
+            String location = responseHeaders.getLast("Location");
+            if (!instanceFollowRedirects || location == null || requestBody != null
+                    || !isRedirect(responseCode) || redirects >= MAX_REDIRECTS)
+                return;
+
+            URL target = new URL(url, location);
+            LOG.debug(url + ": " + responseCode + " redirect to " + target);
+            drain(responseBody);
+            if (!target.getHost().equalsIgnoreCase(url.getHost()))
+                requestHeaders.remove("Host");
+            if (responseCode == HTTP_SEE_OTHER && !"HEAD".equals(method))
+                method = "GET";
+            url = target;
+            connected = false;
+            requestSent = false;
+            responseHeaders = null;
+            responseBody = null;
+            responseCode = -1;
+        }
+    }
+
+    /**
+     * A kept-alive connection may have been closed upstream after it was last checked; an idempotent
+     * request that got no response on it is sent again on another, provided its body isn't streamed.
+     */
+    private boolean isResendable(IOException ex) {
+        return reused
+                && (ex instanceof EOFException || ex instanceof SocketException)
+                && (requestBody == null || bufferedBody != null)
+                && RetryPolicy.isIdempotent(method);
+    }
+
+    private void readResponseHead() throws IOException {
+        InputStream in = conn.getInputStream();
+        HeaderFields headers;
+        int code;
+        String line;
+        do {
+            line = readLine(in);
+            if (line == null)
+                throw new EOFException(url + ": upstream closed the connection without a response");
+            if (!line.startsWith("HTTP/") || line.length() < 12)
+                throw new ProtocolException(url + ": invalid status line \"" + line + "\"");
+            try {
+                code = Integer.parseInt(line.substring(9, 12));
+            } catch (NumberFormatException ex) {
+                throw new ProtocolException(url + ": invalid status line \"" + line + "\"");
+            }
+
+            headers = new HeaderFields();
+            String h;
+            while ((h = readLine(in)) != null && h.length() > 0) {
+                if ((h.charAt(0) == ' ' || h.charAt(0) == '\t') && headers.size() > 0) {
+                    int last = headers.size() - 1;
+                    headers.setValue(last, headers.getValue(last) + " " + h.trim());
+                    continue;
+                }
+                int colon = h.indexOf(':');
+                if (colon <= 0)
+                    continue;
+                headers.add(h.substring(0, colon).trim(), h.substring(colon + 1).trim());
+            }
+        } while (code >= 100 && code < 200 && code != 101);
+
+        statusLine = line;
+        responseCode = code;
+        responseMessage = line.length() > 13 ? line.substring(13) : "";
+        responseHeaders = headers;
+
+        boolean http10 = line.startsWith("HTTP/1.0");
+        keepAlive = http10 ? headers.containsToken("Connection", "keep-alive") : !headers.containsToken("Connection", "close");
+
+        String te = headers.getLast("Transfer-Encoding");
+        String cl = headers.getLast("Content-Length");
+        if ("HEAD".equals(method) || code < 200 || code == HTTP_NO_CONTENT || code == HTTP_NOT_MODIFIED)
+            responseBody = new FixedLengthInputStream(0);
+        else if (te != null && !"identity".equalsIgnoreCase(te))
+            responseBody = new ChunkedInputStream();
+        else if (cl != null)
+            try {
+                responseBody = new FixedLengthInputStream(Long.parseLong(cl.trim()));
+            } catch (NumberFormatException ex) {
+                throw new ProtocolException(url + ": invalid Content-Length \"" + cl + "\"");
+            }
+        else {
+            keepAlive = false;
+            responseBody = new UntilCloseInputStream();
+        }
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == HTTP_MOVED_PERM || code == HTTP_MOVED_TEMP || code == HTTP_SEE_OTHER
+                || code == 307 || code == 308;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte buf[] = new byte[4096];
+        while (in.read(buf) >= 0)
+            ;
+        in.close();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(80);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r')
+                    sb.setLength(len - 1);
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_LINE)
+                throw new ProtocolException("header line too long");
+            sb.append((char)c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private synchronized void releaseConnection(boolean reusable) {
+        if (conn == null)
+            return;
+        PooledConnection c = conn;
+        conn = null;
+        connector.release(c, reusable && keepAlive);
+    }
+
+    private abstract class BodyInputStream extends InputStream {
+        protected final InputStream in = conn.getInputStream();
+        private boolean eof;
+        private boolean closed;
+
+        protected abstract int readBody(byte[] b, int off, int len) throws IOException;
+
+        protected final void finished() {
+            eof = true;
+            releaseConnection(true);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte one[] = new byte[1];
+            int n;
+            while ((n = read(one, 0, 1)) == 0)
+                ;
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed)
+                throw new IOException("stream closed");
+            if (eof)
+                return -1;
+            if (len == 0)
+                return 0;
+            try {
+                return readBody(b, off, len);
+            } catch (IOException ex) {
+                eof = true;
+                releaseConnection(false);
+                throw ex;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            if (!eof) {
+                eof = true;
+                releaseConnection(false);
+            }
+        }
+    }
+
+    private class FixedLengthInputStream extends BodyInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(long length) {
+            remaining = length;
+            if (remaining == 0)
+                finished();
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(), remaining);
+        }
+
+        @Override
+        protected int readBody(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if (n < 0)
+                throw new EOFException(url + ": premature end of response body, " + remaining + " byte(s) missing");
+            remaining -= n;
+            if (remaining == 0)
+                finished();
+            return n;
+        }
+    }
+
+    private class ChunkedInputStream extends BodyInputStream {
+        private long chunkRemaining;
+
+        @Override
+        protected int readBody(byte[] b, int off, int len) throws IOException {
+            if (chunkRemaining == 0) {
+                String line = readLine(in);
+                if (line == null)
+                    throw new EOFException(url + ": premature end of chunked response body");
+                int semi = line.indexOf(';');
+                try {
+                    chunkRemaining = Long.parseLong((semi >= 0 ? line.substring(0, semi) : line).trim(), 16);
+                } catch (NumberFormatException ex) {
+                    throw new ProtocolException(url + ": invalid chunk size \"" + line + "\"");
+                }
+                if (chunkRemaining == 0) {
+                    // skip trailers
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && trailer.length() > 0)
+                        ;
+                    finished();
+                    return -1;
+                }
+            }
+
+            int n = in.read(b, off, (int)Math.min(len, chunkRemaining));
+            if (n < 0)
+                throw new EOFException(url + ": premature end of chunked response body");
+            chunkRemaining -= n;
+            if (chunkRemaining == 0)
+                readLine(in);
+            return n;
+        }
+    }
+
+    private class UntilCloseInputStream extends BodyInputStream {
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        protected int readBody(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                finished();
+                return -1;
+            }
+            return n;
+        }
+    }
+
+    private class FixedLengthOutputStream extends OutputStream {
+        private final OutputStream out = conn.getOutputStream();
+        private final long expected;
+        private long written;
+
+        FixedLengthOutputStream(long expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (written + len > expected)
+                throw new IOException("too many bytes written: expected " + expected);
+            out.write(b, off, len);
+            written += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (written < expected)
+                throw new IOException("insufficient data written: " + written + " of " + expected + " byte(s)");
+            out.flush();
+        }
+    }
+
+    private class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out = conn.getOutputStream();
+        private final byte[] buf;
+        private int count;
+        private boolean closed;
+
+        ChunkedOutputStream(int chunkSize) {
+            buf = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length)
+                writeChunk();
+            buf[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed)
+                throw new IOException("stream closed");
+            while (len > 0) {
+                if (count == buf.length)
+                    writeChunk();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0)
+                return;
+            out.write(Integer.toHexString(count).getBytes("ISO-8859-1"));
+            out.write(CRLF);
+            out.write(buf, 0, count);
+            out.write(CRLF);
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            writeChunk();
+            out.write('0');
+            out.write(CRLF);
+            out.write(CRLF);
+            out.flush();
+            closed = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PooledHttpURLConnection:" + url;
+    }
+}
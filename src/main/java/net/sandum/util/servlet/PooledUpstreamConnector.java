@@ -0,0 +1,282 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upstream connector keeping a bounded pool of keep-alive connections per route (scheme, host and port).
+ * HTTP and HTTPS targets are served by {@link PooledHttpURLConnection}, anything else is left to the JDK.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class PooledUpstreamConnector implements UpstreamConnector {
+    private final static Logger LOG = LoggerFactory.getLogger(PooledUpstreamConnector.class);
+
+    private final ConcurrentMap<String, RoutePool> pools = new ConcurrentHashMap<String, RoutePool>();
+    private final ScheduledExecutorService sweeper;
+
+    private int maxPerRoute = 20;
+    private long idleTtl = 30000;
+    private long maxWait = 10000;
+    private boolean validateOnBorrow = true;
+    private long validateAfterInactivity = 2000;
+    private volatile boolean shutdown;
+
+    public PooledUpstreamConnector() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "upstream-pool-sweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictExpired();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void setMaxPerRoute(int maxPerRoute) {
+        if (maxPerRoute < 1)
+            throw new IllegalArgumentException(maxPerRoute + ": invalid max-per-route");
+        this.maxPerRoute = maxPerRoute;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * @param idleTtl   milliseconds an idle connection is kept open; 0 for no limit
+     */
+    public void setIdleTtl(long idleTtl) {
+        this.idleTtl = idleTtl;
+    }
+
+    public long getIdleTtl() {
+        return idleTtl;
+    }
+
+    /**
+     * @param maxWait   milliseconds to wait for a connection when the route is at its limit
+     */
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setValidateOnBorrow(boolean validateOnBorrow) {
+        this.validateOnBorrow = validateOnBorrow;
+    }
+
+    public boolean isValidateOnBorrow() {
+        return validateOnBorrow;
+    }
+
+    /**
+     * @param validateAfterInactivity   milliseconds a connection may be idle and still be borrowed
+     *                                  without probing it for EOF
+     */
+    public void setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    public long getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    public URLConnection openConnection(URL url) throws IOException {
+        String protocol = url.getProtocol();
+        if ("http".equals(protocol) || "https".equals(protocol))
+            return new PooledHttpURLConnection(url, this);
+
+        return url.openConnection();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        sweeper.shutdownNow();
+        for (RoutePool pool : pools.values())
+            pool.closeIdle();
+    }
+
+    PooledConnection lease(URL url, int connectTimeout, int readTimeout) throws IOException {
+        if (shutdown)
+            throw new IOException("upstream connection pool has been shut down");
+
+        String route = routeOf(url);
+        RoutePool pool = pools.get(route);
+        if (pool == null) {
+            RoutePool p = new RoutePool(route, maxPerRoute);
+            pool = pools.putIfAbsent(route, p);
+            if (pool == null)
+                pool = p;
+        }
+
+        PooledConnection conn = pool.lease(url, connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    void release(PooledConnection conn, boolean reusable) {
+        RoutePool pool = pools.get(conn.getRoute());
+        if (pool == null)
+            conn.close();
+        else
+            pool.release(conn, reusable && !shutdown);
+    }
+
+    private void evictExpired() {
+        for (RoutePool pool : pools.values())
+            pool.evictExpired(System.currentTimeMillis());
+    }
+
+    static String routeOf(URL url) {
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    private Socket connect(URL url, int connectTimeout) throws IOException {
+        String host = url.getHost();
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+
+            if ("https".equals(url.getProtocol())) {
+                SSLSocket ssl = (SSLSocket)((SSLSocketFactory)SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+                socket = ssl;
+            }
+            return socket;
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PooledUpstreamConnector" + pools.values();
+    }
+
+    private class RoutePool {
+        private final String route;
+        private final int max;
+        private final Semaphore leases;
+        private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+
+        RoutePool(String route, int max) {
+            this.route = route;
+            this.max = max;
+            this.leases = new Semaphore(max, true);
+        }
+
+        PooledConnection lease(URL url, int connectTimeout) throws IOException {
+            try {
+                if (!leases.tryAcquire(maxWait, TimeUnit.MILLISECONDS))
+                    throw new IOException(route + ": no upstream connection available within " + maxWait + "ms (" + max + " in use)");
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(route + ": interrupted waiting for upstream connection");
+            }
+
+            boolean ok = false;
+            try {
+                PooledConnection conn;
+                while ((conn = pollIdle()) != null) {
+                    long now = System.currentTimeMillis();
+                    if (conn.isExpired(now, idleTtl) || validateOnBorrow && conn.isStale(now, validateAfterInactivity)) {
+                        LOG.debug(conn + ": discarded");
+                        conn.close();
+                        continue;
+                    }
+                    reused.incrementAndGet();
+                    ok = true;
+                    return conn;
+                }
+
+                conn = new PooledConnection(route, connect(url, connectTimeout));
+                created.incrementAndGet();
+                LOG.debug(conn + ": connected");
+                ok = true;
+                return conn;
+            } finally {
+                if (!ok)
+                    leases.release();
+            }
+        }
+
+        void release(PooledConnection conn, boolean reusable) {
+            try {
+                if (reusable) {
+                    conn.touch();
+                    synchronized (this) {
+                        idle.addFirst(conn);
+                    }
+                } else
+                    conn.close();
+            } finally {
+                leases.release();
+            }
+        }
+
+        private synchronized PooledConnection pollIdle() {
+            return idle.poll();
+        }
+
+        synchronized void evictExpired(long now) {
+            for (Iterator<PooledConnection> i = idle.iterator(); i.hasNext();) {
+                PooledConnection conn = i.next();
+                if (conn.isExpired(now, idleTtl)) {
+                    LOG.debug(conn + ": idle for too long");
+                    i.remove();
+                    conn.close();
+                }
+            }
+        }
+
+        synchronized void closeIdle() {
+            for (PooledConnection conn : idle)
+                conn.close();
+            idle.clear();
+        }
+
+        @Override
+        public synchronized String toString() {
+            return route + "[leased=" + (max - leases.availablePermits()) + ", idle=" + idle.size()
+                    + ", created=" + created + ", reused=" + reused + "]";
+        }
+    }
+}
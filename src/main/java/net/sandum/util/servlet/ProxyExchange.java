@@ -0,0 +1,96 @@
+package net.sandum.util.servlet;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * State of one proxied request, shared by the synchronous and asynchronous paths of {@link RequestProxy}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class ProxyExchange {
+    final HttpServletRequest request;
+    final HttpServletResponse response;
+    final URL url;
+    final long started = System.currentTimeMillis();
+    final long startedNanos = System.nanoTime();
+
+    volatile URLConnection connection;
+
+    // pool member and circuit the request was sent through, if any
+    Backend backend;
+    CircuitBreaker.Circuit circuit;
+    long sent;
+    final AtomicBoolean released = new AtomicBoolean();
+
+    UpstreamTimeouts timeouts;
+    ScheduledFuture<?> deadline;
+    volatile boolean timedOut;
+
+    // second attempt of a hedged request, and why an attempt failed:
+    volatile ProxyExchange hedge;
+    volatile Throwable error;
+
+    // stale cache entry being revalidated, if any
+    CachedResponse cached;
+
+    int code = 500;
+    String msg = "Error";
+    HeaderFields headers;
+    // announced length of the response body, -1 if unknown:
+    long contentLength = -1;
+    long responseTime;
+    long headersNanos;
+    // the response has been received in full:
+    boolean complete;
+
+    ProxyMetrics metrics;
+    ProxyMetrics.Series series;
+
+    // Compression.PASS, DECODE or ENCODE
+    int coding = Compression.PASS;
+
+    // fetch other requests are waiting for, if any
+    RequestCoalescer.Flight flight;
+
+    // response body on its way into the cache or to coalesced requests, if any
+    HttpCache.Capture capture;
+    CountingInputStream counter;
+    InputStream upstream;
+    long byteCount;
+    long t1;
+
+    ProxyExchange(HttpServletRequest request, HttpServletResponse response, URL url) {
+        this.request = request;
+        this.response = response;
+        this.url = url;
+    }
+
+    /**
+     * @return another, not yet connected, attempt at the same request
+     */
+    ProxyExchange attempt() {
+        ProxyExchange res = new ProxyExchange(request, response, url);
+        res.cached = cached;
+        res.timeouts = timeouts;
+        return res;
+    }
+
+    /**
+     * Takes over the upstream connection of another attempt.
+     */
+    void takeUpstream(ProxyExchange other) {
+        connection = other.connection;
+        backend = other.backend;
+        circuit = other.circuit;
+        sent = other.sent;
+        error = other.error;
+    }
+}
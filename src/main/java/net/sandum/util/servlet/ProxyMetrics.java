@@ -0,0 +1,280 @@
+package net.sandum.util.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Telemetry of the upstream exchanges of a {@link RequestProxy}, per route and upstream host: times to
+ * response headers and to the last byte of the body, body sizes, response statuses, failures without
+ * a response, and requests in flight. Exchanges retried or hedged onto another host are counted under
+ * the host tried first.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class ProxyMetrics implements ProxyMetricsMXBean {
+    // beyond this many route/upstream pairs, new upstream hosts are lumped together:
+    private final static int MAX_SERIES = 1000;
+    private final static String OTHER = "other";
+
+    private final ConcurrentMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+    /**
+     * The metrics of one route and upstream host.
+     */
+    public static class Series {
+        private final String route;
+        private final String upstream;
+
+        // microseconds:
+        final Histogram timeToHeaders = new Histogram();
+        final Histogram timeToLastByte = new Histogram();
+        // bytes:
+        final Histogram responseBytes = new Histogram();
+
+        final StripedCounter inFlight = new StripedCounter();
+        final StripedCounter errors = new StripedCounter();
+        private final ConcurrentMap<Integer, StripedCounter> statuses = new ConcurrentHashMap<Integer, StripedCounter>();
+
+        Series(String route, String upstream) {
+            this.route = route;
+            this.upstream = upstream;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public String getUpstream() {
+            return upstream;
+        }
+
+        public Histogram.Snapshot getTimeToHeaders() {
+            return timeToHeaders.snapshot();
+        }
+
+        public Histogram.Snapshot getTimeToLastByte() {
+            return timeToLastByte.snapshot();
+        }
+
+        public Histogram.Snapshot getResponseBytes() {
+            return responseBytes.snapshot();
+        }
+
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return response status -> count
+         */
+        public Map<Integer, Long> getStatuses() {
+            Map<Integer, Long> res = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, StripedCounter> e : statuses.entrySet())
+                res.put(e.getKey(), e.getValue().sum());
+            return res;
+        }
+
+        void status(int code) {
+            StripedCounter c = statuses.get(code);
+            if (c == null) {
+                StripedCounter created = new StripedCounter(StripedCounter.stripes(4));
+                c = statuses.putIfAbsent(code, created);
+                if (c == null)
+                    c = created;
+            }
+            c.increment();
+        }
+    }
+
+    /**
+     * @param route     name of the route, "" if there's only one
+     * @param upstream  "scheme://host[:port]" of the upstream host
+     */
+    public Series series(String route, String upstream) {
+        String key = route + ' ' + upstream;
+        Series s = series.get(key);
+        if (s != null)
+            return s;
+
+        if (series.size() >= MAX_SERIES && !OTHER.equals(upstream))
+            return series(route, OTHER);
+        Series created = new Series(route, upstream);
+        s = series.putIfAbsent(key, created);
+        return s != null ? s : created;
+    }
+
+    /**
+     * @return all series, by route and upstream host
+     */
+    public List<Series> getSeries() {
+        List<Series> res = new ArrayList<Series>(series.values());
+        Collections.sort(res, new Comparator<Series>() {
+            public int compare(Series a, Series b) {
+                int c = a.route.compareTo(b.route);
+                return c != 0 ? c : a.upstream.compareTo(b.upstream);
+            }
+        });
+        return res;
+    }
+
+    void started(Series s) {
+        s.inFlight.increment();
+    }
+
+    /**
+     * @param timeToHeaders     microseconds, or -1 if no response was received
+     * @param timeToLastByte    microseconds, or -1 if the body wasn't received in full
+     */
+    void finished(Series s, int status, long timeToHeaders, long timeToLastByte, long bytes) {
+        s.inFlight.decrement();
+        if (timeToHeaders < 0) {
+            s.errors.increment();
+            return;
+        }
+
+        s.status(status);
+        s.timeToHeaders.record(timeToHeaders);
+        if (timeToLastByte >= 0) {
+            s.timeToLastByte.record(timeToLastByte);
+            s.responseBytes.record(bytes);
+        }
+    }
+
+    // ProxyMetricsMXBean:
+
+    public long getInFlight() {
+        long res = 0;
+        for (Series s : series.values())
+            res += s.getInFlight();
+        return res;
+    }
+
+    public long getResponses() {
+        long res = 0;
+        for (Series s : series.values())
+            res += s.timeToHeaders.snapshot().getCount();
+        return res;
+    }
+
+    public long getErrors() {
+        long res = 0;
+        for (Series s : series.values())
+            res += s.getErrors();
+        return res;
+    }
+
+    public List<SeriesStats> getRoutes() {
+        List<SeriesStats> res = new ArrayList<SeriesStats>();
+        for (Series s : getSeries())
+            res.add(new SeriesStats(s));
+        return res;
+    }
+
+    /**
+     * A summary of a {@link Series}, as shown through JMX.
+     */
+    public static class SeriesStats {
+        private final String route;
+        private final String upstream;
+        private final long inFlight;
+        private final long errors;
+        private final long responses;
+        private final Map<String, Long> statuses = new TreeMap<String, Long>();
+        private final long headersP50;
+        private final long headersP99;
+        private final long headersP999;
+        private final long lastByteP50;
+        private final long lastByteP99;
+        private final long lastByteP999;
+        private final long bytes;
+
+        SeriesStats(Series s) {
+            route = s.route;
+            upstream = s.upstream;
+            inFlight = s.getInFlight();
+            errors = s.getErrors();
+            for (Map.Entry<Integer, Long> e : s.getStatuses().entrySet())
+                statuses.put(String.valueOf(e.getKey()), e.getValue());
+
+            Histogram.Snapshot h = s.getTimeToHeaders();
+            responses = h.getCount();
+            headersP50 = h.getValueAtQuantile(0.5);
+            headersP99 = h.getValueAtQuantile(0.99);
+            headersP999 = h.getValueAtQuantile(0.999);
+            Histogram.Snapshot l = s.getTimeToLastByte();
+            lastByteP50 = l.getValueAtQuantile(0.5);
+            lastByteP99 = l.getValueAtQuantile(0.99);
+            lastByteP999 = l.getValueAtQuantile(0.999);
+            bytes = s.getResponseBytes().getSum();
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public String getUpstream() {
+            return upstream;
+        }
+
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getResponses() {
+            return responses;
+        }
+
+        public Map<String, Long> getStatuses() {
+            return statuses;
+        }
+
+        /** microseconds */
+        public long getTimeToHeadersP50() {
+            return headersP50;
+        }
+
+        /** microseconds */
+        public long getTimeToHeadersP99() {
+            return headersP99;
+        }
+
+        /** microseconds */
+        public long getTimeToHeadersP999() {
+            return headersP999;
+        }
+
+        /** microseconds */
+        public long getTimeToLastByteP50() {
+            return lastByteP50;
+        }
+
+        /** microseconds */
+        public long getTimeToLastByteP99() {
+            return lastByteP99;
+        }
+
+        /** microseconds */
+        public long getTimeToLastByteP999() {
+            return lastByteP999;
+        }
+
+        public long getBytesProxied() {
+            return bytes;
+        }
+    }
+}
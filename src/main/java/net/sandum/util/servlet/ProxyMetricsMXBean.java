@@ -0,0 +1,19 @@
+package net.sandum.util.servlet;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link ProxyMetrics}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public interface ProxyMetricsMXBean {
+    long getInFlight();
+
+    long getResponses();
+
+    long getErrors();
+
+    List<ProxyMetrics.SeriesStats> getRoutes();
+}
@@ -0,0 +1,149 @@
+package net.sandum.util.servlet;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses concurrent identical GET requests into one upstream fetch (single-flight). The first request
+ * for a target URL fetches it; requests arriving while it is under way wait for its response and are
+ * answered with a copy of it, provided the response is shareable and the same variant (see
+ * <code>Vary</code>). When it is not, or the wait times out, they fetch the URL themselves. Requests
+ * with cookies are never coalesced.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class RequestCoalescer {
+    private final static Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+    private long waitTimeout = 5000;
+    private long maxBodyBytes = 1024 * 1024;
+
+    private final AtomicLong leaders = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * One upstream fetch in progress.
+     */
+    static class Flight {
+        private final String key;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final AtomicBoolean landed = new AtomicBoolean();
+        private volatile CachedResponse result;
+
+        Flight(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * @param waitTimeout   milliseconds a request waits for the fetch it joined before fetching itself
+     */
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /**
+     * @param maxBodyBytes  largest response body handed to waiting requests
+     */
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public long getLeaders() {
+        return leaders.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Either makes the exchange the one to fetch the URL (setting {@link ProxyExchange#flight}), or waits
+     * for the fetch already in flight.
+     *
+     * @return the shared response, or null if the exchange must go upstream itself
+     */
+    CachedResponse join(ProxyExchange exchange) throws InterruptedException {
+        HttpServletRequest request = exchange.request;
+        // the response to one client's cookies is no one else's, even if it isn't marked private:
+        if (!"GET".equals(request.getMethod()) || !HttpCache.isCacheableRequest(request) || request.getHeader("Cookie") != null)
+            return null;
+
+        String key = exchange.url.toExternalForm();
+        Flight mine = new Flight(key);
+        Flight flight = flights.putIfAbsent(key, mine);
+        if (flight == null) {
+            leaders.incrementAndGet();
+            exchange.flight = mine;
+            return null;
+        }
+
+        if (!flight.latch.await(waitTimeout, TimeUnit.MILLISECONDS)) {
+            LOG.debug(key + ": gave up waiting for coalesced request after " + waitTimeout + "ms");
+            timeouts.incrementAndGet();
+            return null;
+        }
+
+        CachedResponse result = flight.result;
+        if (result == null || !HttpCache.isVariantOf(result, exchange.url, request)) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+
+        coalesced.incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Ends the flight, releasing the waiting requests. Only the first call has any effect.
+     *
+     * @param result    the response to share, or null to let the waiting requests fetch for themselves
+     */
+    void land(Flight flight, CachedResponse result) {
+        if (!flight.landed.compareAndSet(false, true))
+            return;
+
+        flight.result = result;
+        flights.remove(flight.key, flight);
+        flight.latch.countDown();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestCoalescer[in-flight=" + flights.size() + ", leaders=" + leaders + ", coalesced=" + coalesced
+                + ", fallbacks=" + fallbacks + ", timeouts=" + timeouts + "]";
+    }
+}
@@ -1,23 +1,44 @@
 package net.sandum.util.servlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpCookie;
 import java.net.HttpURLConnection;
+import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,12 +72,32 @@ public abstract class RequestProxy {
                 "expires"
             }));
 
+    // the default ignore*Header rules, compiled once for the proxies of service(request, response, target):
+    private final static HeaderPolicy DEFAULT_HEADER_POLICY = new HeaderPolicy(new HeaderPolicy.Rules() {
+        public boolean ignoreRequestHeader(String lhdr) {
+            return IGNORE_HEADER.contains(lhdr);
+        }
+
+        public boolean ignoreResponseHeader(String lhdr) {
+            return IGNORE_HEADER.contains(lhdr);
+        }
+    });
+
+    /**
+     * Name of the request attribute holding the upstream response headers ({@link HeaderFields}) once
+     * they have been received.
+     */
+    public final static String UPSTREAM_RESPONSE_HEADERS = RequestProxy.class.getName() + ".upstreamResponseHeaders";
+
+    private volatile HeaderPolicy headerPolicy;
+
     public abstract URL getTargetUrl(HttpServletRequest request) throws RequestHandlingException;
 
     // Override as necessary
     protected void addRequestProperty(URLConnection connection, String name, String value) {
         connection.addRequestProperty(name, value);
-        LOG.debug("[request ->] " + name + ": " + value);
+        if (LOG.isDebugEnabled())
+            LOG.debug("[request ->] " + name + ": " + value);
     }
 
     // Override as necessary
@@ -66,7 +107,8 @@ public abstract class RequestProxy {
     // Override as necessary
     protected void addResponseHeader(HttpServletResponse response, String name, String value) {
         response.addHeader(name, value);
-        LOG.debug("[<- response] " + name + ": " + value);
+        if (LOG.isDebugEnabled())
+            LOG.debug("[<- response] " + name + ": " + value);
     }
 
     // Override as necessary
@@ -92,9 +134,37 @@ public abstract class RequestProxy {
             public URL getTargetUrl(HttpServletRequest request) {
                 return target;
             }
+
+            @Override
+            protected HeaderPolicy getHeaderPolicy() {
+                return DEFAULT_HEADER_POLICY;
+            }
         }.service(request, response);
     }
 
+    /**
+     * Recompiles the header policy. The answers of {@link #ignoreRequestHeader(String)} and
+     * {@link #ignoreResponseHeader(String)} are remembered per well-known header name, so call this
+     * whenever they change, typically once configuration is complete.
+     */
+    public void compileHeaderPolicy() {
+        headerPolicy = new HeaderPolicy(new HeaderPolicy.Rules() {
+            public boolean ignoreRequestHeader(String lhdr) {
+                return RequestProxy.this.ignoreRequestHeader(lhdr);
+            }
+
+            public boolean ignoreResponseHeader(String lhdr) {
+                return RequestProxy.this.ignoreResponseHeader(lhdr);
+            }
+        });
+    }
+
+    protected HeaderPolicy getHeaderPolicy() {
+        if (headerPolicy == null)
+            compileHeaderPolicy();
+        return headerPolicy;
+    }
+
     protected boolean ignoreRequestHeader(String hdr) {
         return IGNORE_HEADER.contains(hdr);
     }
@@ -108,6 +178,97 @@ public abstract class RequestProxy {
         return false;
     }
 
+    // Override as necessary. Methods the upstream connection refuses, e.g. PATCH with the JDK connection,
+    // are answered 501 unless true, in which case they are sent as POST with X-HTTP-Method-Override
+    protected boolean isMethodOverride() {
+        return false;
+    }
+
+    // Override as necessary
+    protected UpstreamConnector getUpstreamConnector() {
+        return JdkUpstreamConnector.INSTANCE;
+    }
+
+    // Override as necessary. Requests are proxied synchronously when null
+    protected Executor getAsyncExecutor() {
+        return null;
+    }
+
+    // Override as necessary. Milliseconds, 0 for no timeout
+    protected long getAsyncTimeout() {
+        return 0;
+    }
+
+    // Override as necessary. CONNECT requests use connectSocket() when null
+    protected TunnelEngine getTunnelEngine() {
+        return null;
+    }
+
+    // Override as necessary. Responses are not cached when null
+    protected HttpCache getHttpCache() {
+        return null;
+    }
+
+    // Override as necessary. Response bodies are passed on as they are when null
+    protected Compression getCompression() {
+        return null;
+    }
+
+    // Override as necessary. Concurrent identical requests are not coalesced when null
+    protected RequestCoalescer getRequestCoalescer() {
+        return null;
+    }
+
+    // Override as necessary
+    protected boolean isCoalescing(HttpServletRequest request) {
+        return true;
+    }
+
+    // Override as necessary
+    protected BodyPump getBodyPump() {
+        return BodyPump.INSTANCE;
+    }
+
+    // Override as necessary. Requests go to the target URL's own host when null
+    protected LoadBalancer getLoadBalancer(URL url) {
+        return null;
+    }
+
+    // Override as necessary. Failing upstream hosts are not shielded when null
+    protected CircuitBreaker getCircuitBreaker() {
+        return null;
+    }
+
+    // Override as necessary. Upstream requests wait as long as the connection lets them when null
+    protected UpstreamTimeouts getUpstreamTimeouts(HttpServletRequest request) {
+        return null;
+    }
+
+    // Override as necessary. Total timeouts are not enforced when null
+    protected ScheduledExecutorService getTimer() {
+        return null;
+    }
+
+    // Override as necessary. Requests are not hedged when null, or without a timer
+    protected Executor getHedgeExecutor() {
+        return null;
+    }
+
+    // Override as necessary. Failed requests are not retried when null
+    protected RetryPolicy getRetryPolicy() {
+        return null;
+    }
+
+    // Override as necessary. Upstream exchanges are not measured when null
+    protected ProxyMetrics getMetrics() {
+        return null;
+    }
+
+    // Override as necessary. Name of the route the request took, for the metrics
+    protected String getRouteName(HttpServletRequest request) {
+        return "";
+    }
+
     /* (non-Javadoc)
      * @see javax.servlet.Servlet#service(javax.servlet.ServletRequest, javax.servlet.ServletResponse)
      */
@@ -116,31 +277,555 @@ public abstract class RequestProxy {
         System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
 
         try {
-            URLConnection connection = proxyRequest(request, response);
-            proxyResponse(request, connection, response);
+            String method = request.getMethod();
+            LOG.debug(method + " request: " + request.getRequestURI());
+            URL url = getTargetUrl(request);
+                LOG.debug("URL=" + url);
+
+            if ("CONNECT".equalsIgnoreCase(method)) {
+                TunnelEngine tunnels = getTunnelEngine();
+                if (tunnels != null && request.isAsyncSupported())
+                    tunnels.open(request, response, url);
+                else
+                    connectSocket(request, response, url);
+                return;
+            }
+
+            ProxyExchange exchange = new ProxyExchange(request, response, url);
+            if (lookupCache(exchange) || joinFlight(exchange))
+                return;
+
+            exchange.timeouts = getUpstreamTimeouts(request);
+            exchange.metrics = getMetrics();
+            boolean async = false;
+            try {
+                startDeadline(exchange);
+                Executor executor = getAsyncExecutor();
+                if (executor != null && request.isAsyncSupported()) {
+                    proxyAsync(exchange, executor);
+                    async = true;
+                } else {
+                    proxyRequest(exchange);
+                    proxyResponse(exchange);
+                }
+            } catch (IOException ex) {
+                if (!isTimeout(exchange, ex) || response.isCommitted())
+                    throw ex;
+                LOG.warn(url + ": upstream timed out - " + ex.getMessage());
+                throw RequestHandlingException.error(url + ": upstream timed out", HttpServletResponse.SC_GATEWAY_TIMEOUT).noLog();
+            } finally {
+                if (!async) {
+                    release(exchange);
+                    land(exchange, null);
+                }
+            }
         } catch (RequestHandlingException ex) {
             ex.go(request, response);
         }
     }
 
-    private URLConnection proxyRequest(HttpServletRequest request, HttpServletResponse response) throws RequestHandlingException, IOException {
-        String method = request.getMethod();
-        LOG.debug(method + " request: " + request.getRequestURI());
-        URL url = getTargetUrl(request);
-            LOG.debug("URL=" + url);
+    /**
+     * @return true if the request was answered from the cache
+     */
+    private boolean lookupCache(ProxyExchange exchange) throws IOException {
+        HttpCache cache = getHttpCache();
+        if (cache == null)
+            return false;
+
+        CachedResponse entry = cache.lookup(exchange.url, exchange.request);
+        if (entry != null && cache.isFresh(entry, exchange.request, exchange.started)) {
+            cache.hit();
+            serveCached(exchange, entry, "HIT");
+            return true;
+        }
+
+        cache.miss();
+        if (entry != null && entry.hasValidator()
+                && exchange.request.getHeader("If-None-Match") == null
+                && exchange.request.getHeader("If-Modified-Since") == null)
+            exchange.cached = entry;
+        return false;
+    }
+
+    /**
+     * @return true if the request was answered with the response to a concurrent identical request
+     */
+    private boolean joinFlight(ProxyExchange exchange) throws IOException {
+        RequestCoalescer coalescer = getRequestCoalescer();
+        if (coalescer == null || !isCoalescing(exchange.request))
+            return false;
+
+        CachedResponse shared;
+        try {
+            shared = coalescer.join(exchange);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exchange.url + ": interrupted waiting for coalesced request");
+        }
+        if (shared == null)
+            return false;
+
+        serveCached(exchange, shared, "COALESCED");
+        return true;
+    }
+
+    /**
+     * Releases the requests waiting for this exchange's response, if any.
+     */
+    private void land(ProxyExchange exchange, CachedResponse result) {
+        RequestCoalescer.Flight flight = exchange.flight;
+        if (flight != null)
+            getRequestCoalescer().land(flight, result);
+    }
+
+    /**
+     * Ends the exchange's deadline and reports its outcome to the pool member and the circuit it went
+     * through, if any. Only the first call counts.
+     */
+    private void release(ProxyExchange exchange) {
+        if (!exchange.released.compareAndSet(false, true))
+            return;
+        if (exchange.deadline != null)
+            exchange.deadline.cancel(false);
+        if (exchange.series != null) {
+            long start = exchange.startedNanos;
+            exchange.metrics.finished(exchange.series, exchange.code,
+                    exchange.responseTime == 0 ? -1 : (exchange.headersNanos - start) / 1000,
+                    exchange.complete ? (System.nanoTime() - start) / 1000 : -1,
+                    exchange.byteCount);
+        }
+        if (exchange.sent == 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        boolean failed = exchange.responseTime == 0
+                || exchange.code == HttpServletResponse.SC_BAD_GATEWAY
+                || exchange.code == HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                || exchange.code == HttpServletResponse.SC_GATEWAY_TIMEOUT;
+        long latency = (failed ? now : exchange.responseTime) - exchange.sent;
+        if (exchange.backend != null)
+            exchange.backend.finished(latency, failed, now);
+        if (exchange.circuit != null)
+            exchange.circuit.record(latency, failed, now);
+        if (!failed && exchange.timeouts != null)
+            exchange.timeouts.record(latency);
+    }
 
-        if ("CONNECT".equalsIgnoreCase(method)) {
-            connectSocket(request, response, url);
+    /**
+     * Reports a hedged attempt that lost the race; it didn't fail unless it did so before it was dropped.
+     */
+    private void abandon(ProxyExchange attempt) {
+        disconnect(attempt.connection);
+        if (attempt.error != null || attempt.sent == 0) {
+            release(attempt);
+            return;
+        }
+        if (!attempt.released.compareAndSet(false, true))
+            return;
+
+        long now = System.currentTimeMillis();
+        if (attempt.backend != null)
+            attempt.backend.finished(now - attempt.sent, false, now);
+        if (attempt.circuit != null)
+            attempt.circuit.record(now - attempt.sent, false, now);
+    }
+
+    /**
+     * Aborts the exchange when its total timeout expires.
+     */
+    private void startDeadline(final ProxyExchange exchange) {
+        UpstreamTimeouts timeouts = exchange.timeouts;
+        ScheduledExecutorService timer = getTimer();
+        if (timeouts == null || timeouts.getTotalTimeout() <= 0 || timer == null)
+            return;
+
+        exchange.deadline = timer.schedule(new Runnable() {
+            public void run() {
+                exchange.timedOut = true;
+                disconnect(exchange.connection);
+                if (exchange.hedge != null)
+                    disconnect(exchange.hedge.connection);
+            }
+        }, timeouts.getTotalTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isTimeout(ProxyExchange exchange, Throwable err) {
+        return exchange.timedOut || err instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Sends the request upstream, and again in parallel if it is hedged and the first attempt is slow.
+     */
+    private void connect(ProxyExchange exchange) throws IOException {
+        UpstreamTimeouts timeouts = exchange.timeouts;
+        Executor executor = getHedgeExecutor();
+        ScheduledExecutorService timer = getTimer();
+        String method = exchange.request.getMethod();
+        long delay = timeouts != null && timeouts.isHedging() ? timeouts.getHedgeDelay() : -1;
+        if (delay < 0 || executor == null || timer == null || !("GET".equals(method) || "HEAD".equals(method))
+                || !(exchange.connection instanceof HttpURLConnection))
+            exchange.connection.connect();
+        else
+            hedge(exchange, delay, executor, timer);
+    }
+
+    /**
+     * Waits for the first attempt on the request thread, while the timer has the hedge executor send
+     * the second one if the first hasn't answered within the delay. The first attempt to answer wins.
+     */
+    private void hedge(ProxyExchange exchange, long delay, Executor executor, ScheduledExecutorService timer) throws IOException {
+        Hedge hedge = new Hedge(exchange, executor);
+        ScheduledFuture<?> scheduled = timer.schedule(hedge, delay, TimeUnit.MILLISECONDS);
+        IOException error = null;
+        try {
+            ((HttpURLConnection) exchange.connection).getResponseCode();
+        } catch (IOException ex) {
+            error = ex;
+        }
+        scheduled.cancel(false);
+
+        ProxyExchange winner;
+        try {
+            winner = hedge.finish(error);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exchange.url + ": interrupted waiting for hedged request");
+        }
+        if (winner == null)
+            throw error;
+
+        if (hedge.isSent())
+            exchange.timeouts.hedged(winner != exchange);
+        if (winner != exchange) {
+            // carry on with the second attempt, and drop the first:
+            ProxyExchange first = exchange.attempt();
+            first.takeUpstream(exchange);
+            exchange.takeUpstream(winner);
+            abandon(first);
+        }
+    }
+
+    /**
+     * The second attempt of a hedged request, sent from the hedge executor when the timer runs it. It is
+     * not sent if the executor has no thread to spare.
+     */
+    private class Hedge implements Runnable {
+        private final ProxyExchange exchange;
+        private final Executor executor;
+
+        // guarded by this:
+        private ProxyExchange second;
+        private ProxyExchange winner;
+        private boolean firstDone;
+        private boolean running;
+        private boolean sent;
+
+        Hedge(ProxyExchange exchange, Executor executor) {
+            this.exchange = exchange;
+            this.executor = executor;
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (firstDone || exchange.timedOut)
+                    return;
+                running = true;
+            }
+            try {
+                executor.execute(send);
+            } catch (RejectedExecutionException ex) {
+                LOG.debug(exchange.url + ": not hedged - " + ex);
+                stopped();
+            }
+        }
+
+        private final Runnable send = new Runnable() {
+            public void run() {
+                ProxyExchange attempt = exchange.attempt();
+                try {
+                    openConnection(attempt);
+                } catch (RequestHandlingException ex) {
+                    // circuit open, wait for the first attempt then
+                    LOG.debug(exchange.url + ": not hedged - " + ex.getMessage());
+                    stopped();
+                    return;
+                } catch (IOException ex) {
+                    attempt.error = ex;
+                    LOG.debug(exchange.url + ": not hedged - " + ex);
+                    abandon(attempt);
+                    stopped();
+                    return;
+                }
+                if (!start(attempt)) {
+                    abandon(attempt);
+                    stopped();
+                    return;
+                }
+
+                Throwable error = null;
+                try {
+                    ((HttpURLConnection) attempt.connection).getResponseCode();
+                } catch (Throwable err) {
+                    error = err;
+                }
+                if (!won(attempt, error))
+                    abandon(attempt);
+            }
+        };
+
+        private synchronized boolean start(ProxyExchange attempt) {
+            if (winner != null)
+                return false;
+            second = attempt;
+            sent = true;
+            exchange.hedge = attempt;
+            return true;
+        }
+
+        private synchronized void stopped() {
+            running = false;
+            notifyAll();
+        }
+
+        /**
+         * @return true if the second attempt answered first, the first one then cut short
+         */
+        private synchronized boolean won(ProxyExchange attempt, Throwable error) {
+            running = false;
+            notifyAll();
+            if (winner != null)
+                // cut short by the first attempt answering, which is no failure
+                return false;
+            if (error != null) {
+                attempt.error = error;
+                return false;
+            }
+            winner = attempt;
+            if (!firstDone)
+                disconnect(exchange.connection);
+            return true;
+        }
+
+        /**
+         * Reports the end of the first attempt, and waits for the second one if the first failed.
+         *
+         * @return the attempt that answered first, null if none did
+         */
+        synchronized ProxyExchange finish(IOException error) throws InterruptedException {
+            firstDone = true;
+            if (winner == null) {
+                if (error == null)
+                    winner = exchange;
+                else
+                    exchange.error = error;
+            }
+            if (winner == exchange && second != null)
+                disconnect(second.connection);
+            while (winner == null && running)
+                wait();
+            return winner;
+        }
+
+        synchronized boolean isSent() {
+            return sent;
+        }
+    }
+
+    private void proxyAsync(ProxyExchange exchange, Executor executor) throws IOException, RequestHandlingException {
+        openConnection(exchange);
+        boolean ok = false;
+        try {
+            AsyncContext ctx = exchange.request.startAsync(exchange.request, exchange.response);
+            ctx.setTimeout(getAsyncTimeout());
+            new AsyncExchange(ctx, exchange, executor).start();
+            ok = true;
+        } finally {
+            if (!ok)
+                disconnect(exchange.connection);
+        }
+    }
+
+    private void proxyRequest(ProxyExchange exchange) throws IOException, RequestHandlingException {
+        byte[] body = readReplayableBody(exchange.request);
+        openConnection(exchange);
+        boolean ok = false;
+        try {
+            sendRequest(exchange, body);
+            ok = true;
+        } finally {
+            if (!ok)
+                disconnect(exchange.connection);
+        }
+    }
+
+    /**
+     * @return the request body if it is small enough to keep for a retry, otherwise null
+     */
+    private byte[] readReplayableBody(HttpServletRequest request) throws IOException {
+        RetryPolicy retries = getRetryPolicy();
+        if (retries == null || !hasRequestBody(request))
             return null;
+        long contentLength = request.getContentLengthLong();
+        if (contentLength < 0 || contentLength > retries.getMaxBodyBytes())
+            return null;
+        return IOUtils.toByteArray(request.getInputStream());
+    }
+
+    /**
+     * Sends the request upstream and waits for the response headers, trying again as long as the
+     * retry policy allows.
+     *
+     * @param body  the request body if it can be sent again, null to stream it (once)
+     */
+    private void sendRequest(ProxyExchange exchange, byte[] body) throws IOException, RequestHandlingException {
+        RetryPolicy retries = getRetryPolicy();
+        if (retries != null)
+            retries.requested();
+
+        for (int retry = 0; ; retry++) {
+            if (exchange.connection == null)
+                openConnection(exchange);
+            URLConnection connection = exchange.connection;
+            boolean replayable = body != null || !connection.getDoOutput();
+            try {
+                // do input thang!
+                if (connection.getDoOutput()) {
+                    OutputStream out = connection.getOutputStream();
+                    if (body != null)
+                        out.write(body);
+                    else
+                        getBodyPump().pump(exchange.request.getInputStream(), out, exchange.request.getContentLengthLong());
+                }
+
+                // Connect
+                connect(exchange);
+                if (connection instanceof HttpURLConnection)
+                    ((HttpURLConnection) exchange.connection).getResponseCode();
+                if (retry > 0)
+                    retries.recovered();
+                return;
+            } catch (IOException ex) {
+                if (retries == null || !replayable || !isRetriable(exchange, ex) || !retries.tryRetry(retry))
+                    throw ex;
+
+                long delay = retries.getBackoff(retry);
+                LOG.info(exchange.url + ": retrying in " + delay + "ms - " + ex);
+                dropAttempt(exchange);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(exchange.url + ": interrupted waiting to retry");
+                }
+                if (exchange.timedOut)
+                    throw ex;
+            }
         }
+    }
+
+    private static boolean isRetriable(ProxyExchange exchange, IOException ex) {
+        if (isTimeout(exchange, ex))
+            return false;
+        // nothing reached the server if the connection failed:
+        return ex instanceof ConnectException || RetryPolicy.isIdempotent(exchange.request.getMethod());
+    }
+
+    /**
+     * Reports a failed attempt and clears the way for the next one.
+     */
+    private void dropAttempt(ProxyExchange exchange) {
+        disconnect(exchange.connection);
+        ProxyExchange failed = exchange.attempt();
+        failed.takeUpstream(exchange);
+        release(failed);
+
+        exchange.connection = null;
+        exchange.backend = null;
+        exchange.circuit = null;
+        exchange.sent = 0;
+        exchange.hedge = null;
+        exchange.error = null;
+    }
 
-        URLConnection connection = url.openConnection();
+    private void openConnection(ProxyExchange exchange) throws IOException, RequestHandlingException {
+        URL url = exchange.url;
+        LoadBalancer balancer = getLoadBalancer(url);
+        CircuitBreaker breaker = getCircuitBreaker();
+        Backend backend = null;
+        if (balancer != null) {
+            backend = balancer.choose(breaker);
+            url = backend.resolve(url);
+        }
+
+        URLConnection connection = getUpstreamConnector().openConnection(url);
+        boolean ok = false;
+        try {
+            // before anything is counted, a request that can't be sent is no upstream failure:
+            prepareRequest(exchange.request, connection, url, exchange.request.getMethod());
+
+            if (exchange.metrics != null && exchange.series == null) {
+                exchange.series = exchange.metrics.series(getRouteName(exchange.request), Backend.origin(url));
+                exchange.metrics.started(exchange.series);
+            }
+
+            long now = System.currentTimeMillis();
+            if (breaker != null) {
+                CircuitBreaker.Circuit circuit = breaker.circuit(url);
+                if (!circuit.tryAcquire(now))
+                    throw RequestHandlingException.error(circuit.getOrigin() + ": circuit open",
+                            HttpServletResponse.SC_SERVICE_UNAVAILABLE).noLog();
+                exchange.circuit = circuit;
+            }
+            exchange.sent = now;
+            if (backend != null) {
+                exchange.backend = backend;
+                backend.started();
+            }
+
+            UpstreamTimeouts timeouts = exchange.timeouts;
+            if (timeouts != null) {
+                connection.setConnectTimeout(timeouts.getConnectTimeout());
+                connection.setReadTimeout(timeouts.getFirstByteTimeout());
+            }
+
+            // revalidate a stale cache entry:
+            CachedResponse cached = exchange.cached;
+            if (cached != null) {
+                if (cached.getETag() != null)
+                    addRequestProperty(connection, "If-None-Match", cached.getETag());
+                if (cached.getLastModified() != null)
+                    addRequestProperty(connection, "If-Modified-Since", cached.getLastModified());
+            }
+            ok = true;
+        } finally {
+            if (!ok)
+                disconnect(connection);
+        }
+
+        exchange.connection = connection;
+        if (exchange.timedOut) {
+            disconnect(connection);
+            throw new SocketTimeoutException(exchange.url + ": total timeout expired");
+        }
+    }
+
+    private void prepareRequest(HttpServletRequest request, URLConnection connection, URL url, String method) throws IOException, RequestHandlingException {
         connection.setAllowUserInteraction(false);
 
         // Set method
         if (connection instanceof HttpURLConnection) {
             HttpURLConnection http = (HttpURLConnection) connection;
-            http.setRequestMethod(method);
+            try {
+                http.setRequestMethod(method);
+            } catch (ProtocolException ex) {
+                // The JDK implementation refuses e.g. PATCH:
+                if (!isMethodOverride())
+                    throw RequestHandlingException.error(method + " not supported by " + http.getClass().getName(),
+                            HttpServletResponse.SC_NOT_IMPLEMENTED).noLog();
+                LOG.debug(method + " not supported by " + http.getClass().getName() + ", sending POST with X-HTTP-Method-Override");
+                http.setRequestMethod("POST");
+                http.setRequestProperty("X-HTTP-Method-Override", method);
+            }
       //      http.setRequestProperty("Host", "jerry:8080");
             http.setInstanceFollowRedirects(getFollowRedirects());
 
@@ -151,21 +836,19 @@ public abstract class RequestProxy {
         // check connection header
         String connectionHdr = request.getHeader("Connection");
         if (connectionHdr != null) {
-            connectionHdr = connectionHdr.toLowerCase();
-            if (connectionHdr.equals("keep-alive") || connectionHdr.equals("close"))
+            if (connectionHdr.equalsIgnoreCase("keep-alive") || connectionHdr.equalsIgnoreCase("close"))
                 connectionHdr = null;
         }
 
         // copy headers
+        HeaderPolicy policy = getHeaderPolicy();
         boolean xForwardedFor = false;
-        boolean hasContentType = false;
         Enumeration enm = request.getHeaderNames();
         while (enm.hasMoreElements()) {
-            // TODO could be better than this!
             String hdr = (String) enm.nextElement();
-            String lhdr = hdr.toLowerCase();
+            int flags = policy.flags(hdr);
 
-            if ("cookie".equals(lhdr)) {
+            if ((flags & HeaderPolicy.COOKIE) != 0) {
                 Enumeration headers = request.getHeaders(hdr);
                 while (headers.hasMoreElements()) {
                     String val = (String) headers.nextElement();
@@ -173,27 +856,29 @@ public abstract class RequestProxy {
                 }
                 continue;
             }
-            if (ignoreRequestHeader(lhdr))
+            if ((flags & HeaderPolicy.IGNORE_REQUEST) != 0)
                 continue;
-            if (connectionHdr != null && connectionHdr.indexOf(lhdr) >= 0)
+            if (connectionHdr != null && containsIgnoreCase(connectionHdr, hdr))
                 continue;
 
-            if ("host".equals(lhdr)) {
+            if ((flags & HeaderPolicy.HOST) != 0) {
                 String host = url.getAuthority();
             //  addRequestProperty(connection, hdr, host);
-                LOG.debug(hdr + ": " + host + " - ignored");
+                if (LOG.isDebugEnabled())
+                    LOG.debug(hdr + ": " + host + " - ignored");
                 continue;
             }
 
-            if ("content-type".equals(lhdr))
-                hasContentType = true;
+            if ((flags & HeaderPolicy.CONTENT_LENGTH) != 0)
+                // framing is up to the upstream connection
+                continue;
 
             Enumeration vals = request.getHeaders(hdr);
             while (vals.hasMoreElements()) {
                 String val = (String) vals.nextElement();
                 if (val != null) {
                     addRequestProperty(connection, hdr, val);
-                    xForwardedFor |= "X-Forwarded-For".equalsIgnoreCase(hdr);
+                    xForwardedFor |= (flags & HeaderPolicy.X_FORWARDED_FOR) != 0;
                 }
             }
         }
@@ -210,40 +895,264 @@ public abstract class RequestProxy {
                 || cache_control.indexOf("no-store") >= 0))
             connection.setUseCaches(false);
 
+        // let upstream compress, the response is re-coded for the client as necessary
+        Compression compression = getCompression();
+        if (compression != null && compression.isNegotiable(request))
+            addRequestProperty(connection, "Accept-Encoding", Compression.ACCEPT_ENCODING);
+
         // customize Connection
+        connection.setDoInput(true);
+        if (hasRequestBody(request) && connection instanceof HttpURLConnection) {
+            // Stream the request body instead of letting HttpURLConnection buffer all of it:
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setDoOutput(true);
+            long contentLength = request.getContentLengthLong();
+            if (contentLength >= 0)
+                http.setFixedLengthStreamingMode(contentLength);
+            else
+                http.setChunkedStreamingMode(0);
+        }
+    }
+
+    private static boolean containsIgnoreCase(String s, String part) {
+        for (int i = 0; i + part.length() <= s.length(); i++)
+            if (s.regionMatches(true, i, part, 0, part.length()))
+                return true;
+        return false;
+    }
+
+    /**
+     * A body is forwarded for any method but GET and HEAD when the client sent a Content-Length or
+     * a Transfer-Encoding. (HttpURLConnection would turn a GET with a body into a POST.)
+     */
+    private static boolean hasRequestBody(HttpServletRequest request) {
+        String method = request.getMethod();
+        if ("GET".equals(method) || "HEAD".equals(method))
+            return false;
+
+        return request.getContentLengthLong() >= 0 || request.getHeader("Transfer-Encoding") != null;
+    }
+
+    private static void disconnect(URLConnection connection) {
+        if (connection instanceof HttpURLConnection)
+            ((HttpURLConnection) connection).disconnect();
+    }
+
+    private void proxyResponse(ProxyExchange exchange) throws IOException {
+        InputStream proxy_in = null;
+        boolean ok = false;
         try {
-            connection.setDoInput(true);
+            proxy_in = startResponse(exchange);
+            if (proxy_in != null) {
+                OutputStream out = exchange.response.getOutputStream();
+                if (exchange.coding == Compression.ENCODE)
+                    out = new GZIPOutputStream(out, 8192);
 
-            // do input thang!
-            InputStream in = request.getInputStream();
-            if (hasContentType && ("POST".equals(method) || "PUT".equals(method))) {
-                connection.setDoOutput(true);
-                IOUtils.copy(in, connection.getOutputStream());
-            }
+                getBodyPump().pump(proxy_in, out, exchange.contentLength);
+                if (out instanceof GZIPOutputStream)
+                    ((GZIPOutputStream) out).finish();
 
-            // Connect
-            connection.connect();
+                finishResponse(exchange);
+            }
+            ok = true;
         } finally {
-            copyResponseHeaders(request, connection, response);
+            IOUtils.closeQuietly(proxy_in);
+            if (!ok)
+                disconnect(exchange.connection);
         }
-
-        return connection;
     }
 
-    private void proxyResponse(HttpServletRequest request, URLConnection connection, HttpServletResponse response) throws IOException {
-        InputStream proxy_in = null;
+    /**
+     * Reads the upstream status and headers and passes them on to the client.
+     *
+     * @return the stream to copy the response body from, or null if the response is already complete
+     */
+    private InputStream startResponse(ProxyExchange exchange) throws IOException {
+        HttpServletRequest request = exchange.request;
+        HttpServletResponse response = exchange.response;
+        URLConnection connection = exchange.connection;
 
         // handler status codes etc.
-        int code = 500;
-        String msg = "Error";
         if (connection instanceof HttpURLConnection) {
             HttpURLConnection http = (HttpURLConnection) connection;
-            proxy_in = http.getErrorStream();
-            code = http.getResponseCode();
-            msg = http.getResponseMessage();
-            LOG.debug("response = " + http.getResponseCode());
+            exchange.code = http.getResponseCode();
+            exchange.msg = http.getResponseMessage();
+            LOG.debug("response = " + exchange.code);
+        }
+        exchange.responseTime = System.currentTimeMillis();
+        exchange.headersNanos = System.nanoTime();
+        exchange.headers = getResponseHeaders(connection);
+        exchange.contentLength = getContentLength(exchange.headers);
+
+        HttpCache cache = getHttpCache();
+        if (cache != null) {
+            if (exchange.cached != null && exchange.code == HttpServletResponse.SC_NOT_MODIFIED) {
+                IOUtils.closeQuietly(openResponseStream(connection, exchange.code));
+                CachedResponse entry = cache.revalidated(exchange.cached, exchange.headers, exchange.started, exchange.responseTime);
+                exchange.complete = true;
+                release(exchange);
+                land(exchange, entry);
+                serveCached(exchange, entry, "REVALIDATED");
+                return null;
+            }
+
+            // RFC 7234, section 4.4:
+            String method = request.getMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method) && exchange.code < 400)
+                cache.invalidate(exchange.url);
+        }
+
+        // release the waiting requests at once if they won't get this response:
+        boolean sharing = false;
+        if (exchange.flight != null) {
+            sharing = HttpCache.isShareable(exchange.code, exchange.headers)
+                    && exchange.contentLength <= getRequestCoalescer().getMaxBodyBytes();
+            if (!sharing)
+                land(exchange, null);
+        }
+
+        Compression compression = getCompression();
+        HeaderFields clientHeaders = exchange.headers;
+        if (compression != null) {
+            exchange.coding = compression.negotiate(request, exchange.code, exchange.headers);
+            clientHeaders = compression.getClientHeaders(exchange.headers, exchange.coding);
+        }
+        copyResponseHeaders(request, connection, response, clientHeaders);
+        request.setAttribute(UPSTREAM_RESPONSE_HEADERS, exchange.headers);
+
+        InputStream proxy_in = openResponseStream(connection, exchange.code);
+        if (proxy_in == null) {
+            exchange.complete = true;
+            release(exchange);
+            response.sendError(exchange.code, exchange.msg);
+            return null;
+        }
+
+        response.setStatus(exchange.code);
+        if (cache != null)
+            response.setHeader("X-Cache", "MISS");
+
+        // keep a copy of the body for the cache and for coalesced requests:
+        long captureLimit = 0;
+        if (cache != null && cache.isStorable(request, exchange.code, exchange.headers))
+            captureLimit = cache.getMaxEntryBytes();
+        if (sharing)
+            captureLimit = Math.max(captureLimit, getRequestCoalescer().getMaxBodyBytes());
+        if (captureLimit > 0)
+            exchange.capture = new HttpCache.Capture(captureLimit);
+
+        exchange.t1 = System.currentTimeMillis();
+
+        // count and capture the body as received, decompress it for the client if necessary:
+        exchange.counter = new CountingInputStream(proxy_in);
+        exchange.upstream = exchange.counter;
+        if (exchange.capture != null)
+            exchange.upstream = new TeeInputStream(exchange.upstream, exchange.capture);
+        proxy_in = exchange.upstream;
+        if (exchange.coding == Compression.DECODE)
+            proxy_in = Compression.decode(proxy_in, exchange.headers);
+        return proxy_in;
+    }
+
+    private void finishResponse(ProxyExchange exchange) throws IOException {
+        if (exchange.coding == Compression.DECODE) {
+            // the decompressor stops at the end of the compressed data, read up to the end of the response:
+            byte[] buf = new byte[512];
+            while (exchange.upstream.read(buf) >= 0)
+                ;
+        }
+        exchange.byteCount = exchange.counter.getByteCount();
+        exchange.complete = true;
+        release(exchange);
+        responseProxied(exchange);
+
+        HttpCache.Capture capture = exchange.capture;
+        if (capture == null || capture.isOverflow())
+            return;
+
+        CachedResponse entry = HttpCache.newEntry(exchange.url, exchange.request, exchange.code, exchange.msg, exchange.headers,
+                capture.toByteArray(), exchange.started, exchange.responseTime);
+        land(exchange, entry);
+
+        HttpCache cache = getHttpCache();
+        if (cache != null && cache.isStorable(exchange.request, exchange.code, exchange.headers))
+            cache.store(entry);
+    }
+
+    private void serveCached(ProxyExchange exchange, CachedResponse entry, String status) throws IOException {
+        HttpServletRequest request = exchange.request;
+        HttpServletResponse response = exchange.response;
+        long now = System.currentTimeMillis();
+
+        int code = entry.getStatus();
+        if (code == HttpServletResponse.SC_OK && isNotModified(request, entry))
+            code = HttpServletResponse.SC_NOT_MODIFIED;
+
+        Compression compression = getCompression();
+        HeaderFields clientHeaders = entry.getHeaders();
+        int coding = Compression.PASS;
+        if (compression != null) {
+            coding = compression.negotiate(request, entry.getStatus(), entry.getHeaders());
+            clientHeaders = compression.getClientHeaders(entry.getHeaders(), coding);
+        }
+
+        copyResponseHeaders(request, exchange.connection, response, clientHeaders);
+        request.setAttribute(UPSTREAM_RESPONSE_HEADERS, entry.getHeaders());
+        response.setHeader("Age", String.valueOf(entry.getCurrentAge(now) / 1000));
+        response.setHeader("X-Cache", status);
+        response.setStatus(code);
+        LOG.debug(exchange.url + ": " + code + " served from cache (" + status + ")");
+
+        if (code == HttpServletResponse.SC_NOT_MODIFIED || "HEAD".equals(request.getMethod()))
+            return;
+
+        if (coding == Compression.PASS) {
+            response.getOutputStream().write(entry.getBody());
+            return;
+        }
+
+        InputStream in = new ByteArrayInputStream(entry.getBody());
+        OutputStream out = response.getOutputStream();
+        if (coding == Compression.DECODE)
+            in = Compression.decode(in, entry.getHeaders());
+        else
+            out = new GZIPOutputStream(out, 8192);
+        getBodyPump().pump(in, out, entry.getBody().length);
+        if (out instanceof GZIPOutputStream)
+            ((GZIPOutputStream) out).finish();
+    }
+
+    /**
+     * @return true if the client's own validators match the cached response (RFC 7232, section 6)
+     */
+    private static boolean isNotModified(HttpServletRequest request, CachedResponse entry) {
+        String inm = request.getHeader("If-None-Match");
+        if (inm != null) {
+            String etag = entry.getETag();
+            if (etag == null)
+                return false;
+            for (String t : inm.split(",")) {
+                t = t.trim();
+                if ("*".equals(t) || weak(t).equals(weak(etag)))
+                    return true;
+            }
+            return false;
         }
 
+        long ims = CacheControl.parseDate(request.getHeader("If-Modified-Since"));
+        long lastModified = CacheControl.parseDate(entry.getLastModified());
+        return ims >= 0 && lastModified >= 0 && lastModified <= ims;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private InputStream openResponseStream(URLConnection connection, int code) {
+        InputStream proxy_in = null;
+        if (connection instanceof HttpURLConnection)
+            proxy_in = ((HttpURLConnection) connection).getErrorStream();
+
         if (proxy_in == null)
             try {
                 proxy_in = connection.getInputStream();
@@ -253,56 +1162,72 @@ public abstract class RequestProxy {
                 LOG.info("stream", ex);
             }
 
-        // Handle
-        if (proxy_in == null) {
-            response.sendError(code, msg);
-        } else {
-            response.setStatus(code);
-
-            long t1 = System.currentTimeMillis();
+        return proxy_in;
+    }
 
-            int byteCount = IOUtils.copy(proxy_in, response.getOutputStream());
+    private void responseProxied(ProxyExchange exchange) {
+        URLConnection connection = exchange.connection;
+        long byteCount = exchange.byteCount;
+        long t1 = exchange.t1;
+        long t2 = System.currentTimeMillis();
+        if (t2 - t1 > 200 && getMetrics() == null)
+            LOG.warn(connection.getURL() + ": slow URL - " + byteCount + " byte(s) proxied in " + (t2 - t1) + "ms");
+        else if (LOG.isDebugEnabled())
+            LOG.debug(connection.getURL() + ": " + byteCount + " byte(s) proxied in " + (t2 - t1) + "ms");
 
-            long t2 = System.currentTimeMillis();
-            if (t2 - t1 > 200)
-                LOG.warn(connection.getURL() + ": slow URL - " + byteCount + " byte(s) proxied in " + (t2 - t1) + "ms");
-            else if (LOG.isDebugEnabled())
-                LOG.debug(connection.getURL() + ": " + byteCount + " byte(s) proxied in " + (t2 - t1) + "ms");
+        if (exchange.contentLength >= 0 && exchange.contentLength != byteCount)
+            LOG.error(connection.getURL() + ": wrong Content-Length: " + exchange.contentLength + " - " + byteCount + " byte(s) proxied");
+    }
 
-            String s = (String)request.getAttribute("_response.content-length");
-            if (s != null) {
-                int contentLength = Integer.parseInt(s);
-                if (contentLength != byteCount)
-                    LOG.error(connection.getURL() + ": wrong Content-Length: " + contentLength + " - " + byteCount + " byte(s) proxied");
-            }
+    /**
+     * @return the length of the body as announced, -1 if unknown
+     */
+    private static long getContentLength(HeaderFields headers) {
+        String s = headers.getLast("Content-Length");
+        if (s == null)
+            return -1;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException ex) {
+            LOG.warn("invalid Content-Length: " + s);
+            return -1;
         }
     }
 
-    private void copyResponseHeaders(HttpServletRequest request, URLConnection connection, HttpServletResponse response) {
-        //  response.setHeader("Date", null);
-        //  response.setHeader("Server", null);
-
-        // set response headers
+    private static HeaderFields getResponseHeaders(URLConnection connection) {
+        HeaderFields headers = new HeaderFields();
         int h = 0;
         String hdr = connection.getHeaderFieldKey(h);
         String val = connection.getHeaderField(h);
         while (hdr != null || val != null) {
-            String lhdr = hdr != null ? hdr.toLowerCase() : null;
-            if (hdr != null && val != null) {
-                if ("set-cookie".equals(lhdr)) {
-                    proxySetCookie(request, connection, response, hdr, val);
-                } else if (ignoreResponseHeader(lhdr)) {
-                    LOG.debug("res " + hdr + ": " + val + " - trapped by proxy");
-                } else {
-                    addResponseHeader(response, hdr, val);
-                }
-
-                request.setAttribute("_response." + lhdr, val);
-            }
+            if (hdr != null && val != null)
+                headers.add(hdr, val);
             h++;
             hdr = connection.getHeaderFieldKey(h);
             val = connection.getHeaderField(h);
         }
+        return headers;
+    }
+
+    private void copyResponseHeaders(HttpServletRequest request, URLConnection connection, HttpServletResponse response, HeaderFields headers) {
+        //  response.setHeader("Date", null);
+        //  response.setHeader("Server", null);
+
+        // set response headers
+        HeaderPolicy policy = getHeaderPolicy();
+        for (int h = 0; h < headers.size(); h++) {
+            String hdr = headers.getName(h);
+            String val = headers.getValue(h);
+            int flags = policy.flags(hdr);
+            if ((flags & HeaderPolicy.SET_COOKIE) != 0) {
+                proxySetCookie(request, connection, response, hdr, val);
+            } else if ((flags & HeaderPolicy.IGNORE_RESPONSE) != 0) {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("res " + hdr + ": " + val + " - trapped by proxy");
+            } else {
+                addResponseHeader(response, hdr, val);
+            }
+        }
 
         if (getMaxAge() > 0) {
             response.setHeader("Cache-Control", "public, max-age=" + getMaxAge());
@@ -313,6 +1238,7 @@ public abstract class RequestProxy {
     }
 
     /* ------------------------------------------------------------ */
+    // Blocking fallback for containers without async support, one thread per tunnel
     protected void connectSocket(HttpServletRequest request, HttpServletResponse response, URL url) throws IOException {
         InetAddress host = InetAddress.getByName(url.getHost());
         int port = url.getPort();
@@ -369,4 +1295,256 @@ public abstract class RequestProxy {
     protected int getMaxAge() {
         return -1;
     }
-}
\ No newline at end of file
+
+    /**
+     * One proxied request running on an {@link AsyncContext}. The request body is read with a
+     * {@link ReadListener} and the response body written with a {@link WriteListener}, so container
+     * threads never wait for the client. The upstream URLConnection is still blocking; all calls on it
+     * are made from the async executor. The request body goes upstream a chunk at a time: read on a
+     * container thread, written from the executor, and the next one read only once that is written.
+     */
+    private class AsyncExchange implements ReadListener, WriteListener, AsyncListener {
+        private final AsyncContext ctx;
+        private final ProxyExchange exchange;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final Executor executor;
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final byte buf[] = new byte[4096];
+
+        private volatile ServletInputStream in;
+        private volatile OutputStream upstream_out;
+        private volatile InputStream proxy_in;
+        private volatile ServletOutputStream out;
+        private Compression.Encoder encoder;
+        private byte[] pending;
+        private boolean eof;
+        // bytes of buf to write upstream:
+        private int uploadLength;
+        private boolean uploading;
+        private boolean allRead;
+
+        AsyncExchange(AsyncContext ctx, ProxyExchange exchange, Executor executor) {
+            this.ctx = ctx;
+            this.exchange = exchange;
+            this.request = exchange.request;
+            this.response = exchange.response;
+            this.executor = executor;
+        }
+
+        void start() {
+            ctx.addListener(this);
+            if (exchange.connection.getDoOutput())
+                execute(readRequest);
+            else
+                execute(respond);
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ex) {
+                fail(ex);
+            }
+        }
+
+        private final Runnable readRequest = new Runnable() {
+            public void run() {
+                try {
+                    upstream_out = exchange.connection.getOutputStream();
+                    in = request.getInputStream();
+                    in.setReadListener(AsyncExchange.this);
+                } catch (Throwable err) {
+                    fail(err);
+                }
+            }
+        };
+
+        private final Runnable respond = new Runnable() {
+            public void run() {
+                try {
+                    if (exchange.connection.getDoOutput())
+                        // the body has been streamed, it can't be sent again
+                        connect(exchange);
+                    else
+                        sendRequest(exchange, null);
+
+                    proxy_in = startResponse(exchange);
+                    if (proxy_in == null) {
+                        complete();
+                        return;
+                    }
+
+                    if (exchange.coding == Compression.ENCODE)
+                        encoder = new Compression.Encoder();
+                    out = response.getOutputStream();
+                    out.setWriteListener(AsyncExchange.this);
+                } catch (Throwable err) {
+                    fail(err);
+                }
+            }
+        };
+
+        private final Runnable writeResponse = new Runnable() {
+            public void run() {
+                synchronized (AsyncExchange.this) {
+                    try {
+                        while (out.isReady()) {
+                            if (pending != null) {
+                                byte[] b = pending;
+                                pending = null;
+                                out.write(b);
+                                continue;
+                            }
+                            if (eof) {
+                                finishResponse(exchange);
+                                complete();
+                                return;
+                            }
+
+                            int n = proxy_in.read(buf);
+                            if (n < 0) {
+                                eof = true;
+                                if (encoder != null)
+                                    pending = encoder.finish();
+                            } else if (encoder != null)
+                                pending = encoder.encode(buf, 0, n);
+                            else
+                                out.write(buf, 0, n);
+
+                            if (pending != null && pending.length == 0)
+                                pending = null;
+                        }
+                    } catch (Throwable err) {
+                        fail(err);
+                    }
+                }
+            }
+        };
+
+        private final Runnable writeRequest = new Runnable() {
+            public void run() {
+                try {
+                    upstream_out.write(buf, 0, uploadLength);
+                    boolean done;
+                    synchronized (AsyncExchange.this) {
+                        uploading = false;
+                        done = allRead;
+                    }
+                    if (done)
+                        respond.run();
+                    else
+                        readChunk();
+                } catch (Throwable err) {
+                    fail(err);
+                }
+            }
+        };
+
+        /**
+         * Reads what is available of the request body, if anything, and has the executor write it
+         * upstream. When nothing is, the container calls {@link #onDataAvailable} or
+         * {@link #onAllDataRead} later.
+         */
+        private void readChunk() throws IOException {
+            if (!in.isReady())
+                return;
+            int n = in.read(buf);
+            if (n < 0)
+                return;
+
+            synchronized (this) {
+                uploading = true;
+            }
+            uploadLength = n;
+            execute(writeRequest);
+        }
+
+        public void onDataAvailable() throws IOException {
+            readChunk();
+        }
+
+        public void onAllDataRead() throws IOException {
+            boolean done;
+            synchronized (this) {
+                allRead = true;
+                done = !uploading;
+            }
+            // else writeRequest goes on when the last chunk is written:
+            if (done)
+                execute(respond);
+        }
+
+        public void onWritePossible() throws IOException {
+            execute(writeResponse);
+        }
+
+        public void onError(Throwable err) {
+            fail(err);
+        }
+
+        public void onComplete(AsyncEvent event) throws IOException {
+            release(exchange);
+            land(exchange, null);
+            if (completed.compareAndSet(false, true)) {
+                IOUtils.closeQuietly(proxy_in);
+                disconnect(exchange.connection);
+            }
+        }
+
+        public void onTimeout(AsyncEvent event) throws IOException {
+            release(exchange);
+            land(exchange, null);
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            LOG.warn(exchange.connection.getURL() + ": async proxy timed out after " + getAsyncTimeout() + "ms");
+            IOUtils.closeQuietly(proxy_in);
+            disconnect(exchange.connection);
+            if (!response.isCommitted())
+                response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+            ctx.complete();
+        }
+
+        public void onError(AsyncEvent event) throws IOException {
+            fail(event.getThrowable());
+        }
+
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+        private void complete() {
+            release(exchange);
+            land(exchange, null);
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            IOUtils.closeQuietly(proxy_in);
+            ctx.complete();
+        }
+
+        private void fail(Throwable err) {
+            release(exchange);
+            land(exchange, null);
+            if (!completed.compareAndSet(false, true))
+                return;
+
+            IOUtils.closeQuietly(proxy_in);
+            disconnect(exchange.connection);
+            boolean timeout = isTimeout(exchange, err);
+            if (timeout)
+                LOG.warn(exchange.connection.getURL() + ": upstream timed out - " + err.getMessage());
+            else
+                LOG.info(exchange.connection.getURL() + ": async proxy failure", err);
+            try {
+                if (!response.isCommitted())
+                    response.sendError(timeout ? HttpServletResponse.SC_GATEWAY_TIMEOUT : HttpServletResponse.SC_BAD_GATEWAY, err.getMessage());
+                ctx.complete();
+            } catch (IOException ex) {
+                LOG.debug("failed to report async proxy failure", ex);
+            } catch (IllegalStateException ex) {
+                LOG.debug("failed to report async proxy failure", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package net.sandum.util.servlet;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When and how often {@link RequestProxy} tries a failed upstream request again. Retries back off
+ * exponentially with jitter, and are paid for from a budget that every request adds a fraction of a
+ * retry to, so that retries can't multiply the load on a backend that is already failing.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class RetryPolicy {
+    // the budget in thousandths of a retry:
+    private final static long UNIT = 1000;
+
+    private int maxRetries = 2;
+    private long backoff = 50;
+    private long maxBackoff = 1000;
+    private int budgetPercent = 10;
+    private int minBudget = 10;
+    private long maxBodyBytes = 64 * 1024;
+
+    private final AtomicLong balance = new AtomicLong(minBudget * UNIT);
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+
+    /**
+     * @param maxRetries    retries of one request at most
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @param backoff   milliseconds before the first retry; doubled for each further one
+     */
+    public void setBackoff(long backoff) {
+        this.backoff = backoff;
+    }
+
+    public long getBackoff() {
+        return backoff;
+    }
+
+    /**
+     * @param maxBackoff    milliseconds between retries at most
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * @param budgetPercent retries allowed per hundred requests
+     */
+    public void setBudgetPercent(int budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+
+    public int getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    /**
+     * @param minBudget     retries the budget holds at least room for, e.g. right after startup
+     */
+    public void setMinBudget(int minBudget) {
+        this.minBudget = minBudget;
+        balance.set(minBudget * UNIT);
+    }
+
+    public int getMinBudget() {
+        return minBudget;
+    }
+
+    /**
+     * @param maxBodyBytes  largest request body kept in memory so the request can be sent again
+     */
+    public void setMaxBodyBytes(long maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    public long getMaxBodyBytes() {
+        return maxBodyBytes;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the number of retries refused because the budget was spent
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return the number of requests that got a response after failing at first
+     */
+    public long getRecovered() {
+        return recovered.get();
+    }
+
+    /**
+     * Pays a request's share into the budget.
+     */
+    void requested() {
+        requests.incrementAndGet();
+        long share = budgetPercent * UNIT / 100;
+        // the budget saves up for a burst of failures, but not indefinitely:
+        long max = Math.max(minBudget * UNIT, 100 * share);
+        while (true) {
+            long b = balance.get();
+            if (b >= max || balance.compareAndSet(b, Math.min(max, b + share)))
+                return;
+        }
+    }
+
+    /**
+     * @param retry     0 for the first retry of the request
+     * @return true if the retry is allowed, and paid for
+     */
+    boolean tryRetry(int retry) {
+        if (retry >= maxRetries)
+            return false;
+        while (true) {
+            long b = balance.get();
+            if (b < UNIT) {
+                exhausted.incrementAndGet();
+                return false;
+            }
+            if (balance.compareAndSet(b, b - UNIT)) {
+                retries.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    void recovered() {
+        recovered.incrementAndGet();
+    }
+
+    /**
+     * @return milliseconds to wait before the retry: between half and all of the exponential backoff
+     */
+    long getBackoff(int retry) {
+        long d = Math.min(maxBackoff, backoff << Math.min(retry, 20));
+        return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+    }
+
+    static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+                || "PUT".equals(method) || "DELETE".equals(method) || "TRACE".equals(method);
+    }
+
+    @Override
+    public String toString() {
+        return "max-retries=" + maxRetries + ", backoff=" + backoff + "-" + maxBackoff + "ms, budget=" + budgetPercent
+                + "%, max-body=" + maxBodyBytes;
+    }
+}
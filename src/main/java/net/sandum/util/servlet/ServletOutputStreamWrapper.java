@@ -3,6 +3,7 @@ package net.sandum.util.servlet;
 import java.io.IOException;
 import java.io.OutputStream;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 
 /**
  * @author     osa
@@ -54,4 +55,21 @@ public class ServletOutputStreamWrapper extends ServletOutputStream {
             throw new IOException("output stream has already been closed");
         out.write(b, off, len);
     }
+
+    /**
+     * The wrapped stream is written synchronously, so it is always ready.
+     */
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener listener) {
+        try {
+            listener.onWritePossible();
+        } catch (IOException ex) {
+            listener.onError(ex);
+        }
+    }
 }
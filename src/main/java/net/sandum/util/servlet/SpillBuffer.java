@@ -0,0 +1,259 @@
+package net.sandum.util.servlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-once buffer for message bodies of any size. Bytes are kept in memory, in chunks that are
+ * never copied to grow, up to a threshold; a body beyond that is moved to a temporary file and the rest
+ * written there. Once closed the content can be read back as a stream (a file stream when spilled, so
+ * that {@link BodyPump} can transfer it channel to channel) or as a read-only {@link ByteBuffer}, the
+ * temporary file being mapped into memory. Call {@link #release()} when done to delete the file.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class SpillBuffer extends OutputStream {
+    private final static Logger log = LoggerFactory.getLogger(SpillBuffer.class);
+
+    // bytes:
+    private final static int FIRST_CHUNK_SIZE = 4096;
+    private final static int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final long threshold;
+    private final File directory;
+
+    // all full, but the last one which is filled up to pos:
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private int pos;
+    private long size;
+    private boolean closed;
+
+    private File file;
+    private OutputStream fileOut;
+    private MappedByteBuffer mapped;
+
+    /**
+     * @param threshold     bytes to keep in memory before spilling to a file
+     * @param directory     where to create the file, null for the default temporary-file directory
+     */
+    public SpillBuffer(long threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * @return bytes written
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!closed && fileOut == null && pos < lastChunkSize() && size < threshold) {
+            chunks.get(chunks.size() - 1)[pos++] = (byte) b;
+            size++;
+        } else
+            write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed)
+            throw new IOException("buffer has already been closed");
+        if (fileOut == null && size + len > threshold)
+            spill();
+        if (fileOut != null) {
+            fileOut.write(b, off, len);
+            size += len;
+            return;
+        }
+
+        while (len > 0) {
+            if (pos == lastChunkSize()) {
+                chunks.add(new byte[nextChunkSize()]);
+                pos = 0;
+            }
+            byte[] chunk = chunks.get(chunks.size() - 1);
+            int n = Math.min(len, chunk.length - pos);
+            System.arraycopy(b, off, chunk, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    private int lastChunkSize() {
+        return chunks.isEmpty() ? 0 : chunks.get(chunks.size() - 1).length;
+    }
+
+    private int nextChunkSize() {
+        return Math.min(MAX_CHUNK_SIZE, Math.max(FIRST_CHUNK_SIZE, lastChunkSize() * 2));
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("spill", ".tmp", directory);
+        log.debug("spilling " + size + " bytes to " + file);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file), FIRST_CHUNK_SIZE * 2);
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            fileOut.write(chunk, 0, i < chunks.size() - 1 ? chunk.length : pos);
+        }
+        chunks.clear();
+        pos = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null)
+            fileOut.flush();
+    }
+
+    /**
+     * Ends the content, further writes fail.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (fileOut != null)
+            fileOut.close();
+    }
+
+    /**
+     * @return the content, to be closed by the caller
+     */
+    public InputStream getInputStream() throws IOException {
+        close();
+        if (file != null)
+            return new FileInputStream(file);
+
+        return new InputStream() {
+            private int chunk;
+            private int off;
+
+            private int available(int i) {
+                return (i < chunks.size() - 1 ? chunks.get(i).length : pos) - off;
+            }
+
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int boff, int len) {
+                if (len == 0)
+                    return 0;
+                while (chunk < chunks.size() && available(chunk) == 0) {
+                    chunk++;
+                    off = 0;
+                }
+                if (chunk == chunks.size())
+                    return -1;
+
+                int n = Math.min(len, available(chunk));
+                System.arraycopy(chunks.get(chunk), off, b, boff, n);
+                off += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return chunk < chunks.size() ? available(chunk) : 0;
+            }
+        };
+    }
+
+    /**
+     * A read-only view of the content: the memory-mapped file when spilled, the chunk when there is only
+     * one, otherwise the chunks joined into one (once).
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        close();
+        if (file != null) {
+            if (mapped == null) {
+                if (size > Integer.MAX_VALUE)
+                    throw new IOException(file + ": " + size + " bytes, too large to map");
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } finally {
+                    raf.close();
+                }
+            }
+            return mapped.asReadOnlyBuffer();
+        }
+
+        if (chunks.size() > 1) {
+            byte[] all = toByteArray();
+            chunks.clear();
+            chunks.add(all);
+            pos = all.length;
+        }
+        if (chunks.isEmpty())
+            return ByteBuffer.allocate(0);
+        return ByteBuffer.wrap(chunks.get(0), 0, pos).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the content
+     */
+    public byte[] toByteArray() throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(size + " bytes, too large for an array");
+        byte[] res = new byte[(int) size];
+        InputStream in = getInputStream();
+        try {
+            int off = 0;
+            int n;
+            while (off < res.length && (n = in.read(res, off, res.length - off)) >= 0)
+                off += n;
+        } finally {
+            in.close();
+        }
+        return res;
+    }
+
+    /**
+     * Drops the content and deletes the temporary file, if any.
+     */
+    public void release() {
+        closed = true;
+        chunks.clear();
+        pos = 0;
+        mapped = null;
+        if (fileOut != null) {
+            try {
+                fileOut.close();
+            } catch (IOException ex) {
+                log.debug(file + ": close failed", ex);
+            }
+        }
+        if (file != null && !file.delete())
+            log.warn(file + ": could not delete");
+        file = null;
+        fileOut = null;
+    }
+}
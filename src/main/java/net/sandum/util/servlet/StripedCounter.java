@@ -0,0 +1,64 @@
+package net.sandum.util.servlet;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over a few cache-line-padded cells picked by thread, so that threads counting
+ * concurrently rarely touch the same cell. Reading it sums the cells.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+class StripedCounter {
+    // longs per 128 bytes, keeping each cell on a cache line (pair) of its own:
+    private final static int PAD = 16;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        this(stripes(16));
+    }
+
+    StripedCounter(int stripes) {
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    /**
+     * @return the number of stripes for the processors at hand, a power of two no larger than max
+     */
+    static int stripes(int max) {
+        int n = Math.min(max, Runtime.getRuntime().availableProcessors());
+        int res = 1;
+        while (res < n)
+            res <<= 1;
+        return res;
+    }
+
+    /**
+     * @return the stripe of the current thread
+     */
+    static int stripe(int mask) {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+    void add(long x) {
+        cells.addAndGet(stripe(mask) * PAD, x);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void decrement() {
+        add(-1);
+    }
+
+    long sum() {
+        long res = 0;
+        for (int i = 0; i <= mask; i++)
+            res += cells.get(i * PAD);
+        return res;
+    }
+}
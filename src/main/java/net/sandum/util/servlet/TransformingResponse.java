@@ -1,5 +1,8 @@
 package net.sandum.util.servlet;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import javax.servlet.http.HttpServletResponse;
 
 /**
@@ -7,7 +10,42 @@ import javax.servlet.http.HttpServletResponse;
  */
 public interface TransformingResponse extends HttpServletResponse {
 
-    byte[] getDownstreamContent();
+    /**
+     * @return a copy of the content, null if none was written
+     */
+    byte[] getDownstreamContent() throws IOException;
+
+    /**
+     * @return the content, to be closed by the caller; null if none was written
+     */
+    InputStream getDownstreamContentStream() throws IOException;
+
+    /**
+     * @return a read-only view of the content, valid until it is released; null if none was written
+     */
+    ByteBuffer getDownstreamContentBuffer() throws IOException;
+
+    /**
+     * @return bytes of content written, -1 if none
+     */
+    long getDownstreamContentSize();
+
+    /**
+     * Frees the content, and any temporary file holding it.
+     */
+    void releaseDownstreamContent();
+
+    /**
+     * @return the ETag set by the chain, which describes the content before it is transformed and so
+     *         is not passed on; null if none
+     */
+    String getDownstreamETag();
+
+    /**
+     * @return the Last-Modified date set by the chain, in milliseconds; -1 if none
+     */
+    long getDownstreamLastModified();
+
     int getDownstreamStatus();
     String getDownstreamContentType();
     int getDownstreamContentLength();
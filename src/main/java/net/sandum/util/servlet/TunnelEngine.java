@@ -0,0 +1,519 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs CONNECT tunnels on a few selector threads instead of a thread per tunnel. The upstream side is
+ * a non-blocking {@link SocketChannel}, the client side the servlet streams in non-blocking
+ * (Servlet 3.1) mode. All I/O of a tunnel happens on the selector thread it is registered with;
+ * servlet callbacks only schedule work there.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class TunnelEngine {
+    private final static Logger LOG = LoggerFactory.getLogger(TunnelEngine.class);
+
+    private final static int BUFFER_SIZE = 16384;
+
+    private final String name;
+    private final IoLoop loops[];
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private int maxTunnels = 1000;
+    private long idleTimeout = 300000;
+    private long maxLifetime = 0;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong bytesUpstream = new AtomicLong();
+    private final AtomicLong bytesDownstream = new AtomicLong();
+
+    public TunnelEngine(String name, int ioThreads) {
+        if (ioThreads < 1)
+            throw new IllegalArgumentException(ioThreads + ": invalid number of I/O threads");
+        this.name = name;
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++)
+            loops[i] = new IoLoop(name + "-tunnel-" + (i + 1));
+    }
+
+    public void setMaxTunnels(int maxTunnels) {
+        this.maxTunnels = maxTunnels;
+    }
+
+    public int getMaxTunnels() {
+        return maxTunnels;
+    }
+
+    /**
+     * @param idleTimeout   milliseconds without traffic before a tunnel is closed; 0 for no limit
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @param maxLifetime   milliseconds a tunnel may stay open in total; 0 for no limit
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public int getActiveTunnels() {
+        return active.get();
+    }
+
+    public long getOpenedTunnels() {
+        return opened.get();
+    }
+
+    public long getRejectedTunnels() {
+        return rejected.get();
+    }
+
+    public long getTimedOutTunnels() {
+        return timedOut.get();
+    }
+
+    public long getBytesUpstream() {
+        return bytesUpstream.get();
+    }
+
+    public long getBytesDownstream() {
+        return bytesDownstream.get();
+    }
+
+    /**
+     * Connects to the target and, once connected, answers 200 and relays bytes both ways until either
+     * side closes or a timeout expires. The request must support async processing.
+     */
+    public void open(HttpServletRequest request, HttpServletResponse response, URL target) throws IOException, RequestHandlingException {
+        if (active.incrementAndGet() > maxTunnels) {
+            active.decrementAndGet();
+            rejected.incrementAndGet();
+            throw RequestHandlingException.error(target.getAuthority() + ": too many tunnels (" + maxTunnels + ")",
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+
+        boolean ok = false;
+        try {
+            int port = target.getPort() >= 0 ? target.getPort() : target.getDefaultPort();
+            InetSocketAddress address = new InetSocketAddress(target.getHost(), port);
+            if (address.isUnresolved())
+                throw RequestHandlingException.error(target.getHost() + ": unknown host", HttpServletResponse.SC_BAD_GATEWAY);
+
+            SocketChannel channel = SocketChannel.open();
+            AsyncContext ctx = null;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                // a local address may connect at once, and then never be reported connectable:
+                boolean connected = channel.connect(address);
+
+                ctx = request.startAsync(request, response);
+                ctx.setTimeout(0);
+
+                IoLoop loop = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+                Tunnel tunnel = new Tunnel(loop, channel, ctx, request, response, target.getAuthority());
+                ctx.addListener(tunnel);
+                loop.register(tunnel, connected);
+                opened.incrementAndGet();
+                ok = true;
+            } finally {
+                if (!ok) {
+                    channel.close();
+                    if (ctx != null)
+                        ctx.complete();
+                }
+            }
+        } finally {
+            if (!ok)
+                active.decrementAndGet();
+        }
+    }
+
+    public void shutdown() {
+        for (IoLoop loop : loops)
+            loop.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[active=" + active + ", opened=" + opened + ", rejected=" + rejected + ", timed-out=" + timedOut
+                + ", upstream=" + bytesUpstream + " byte(s), downstream=" + bytesDownstream + " byte(s)]";
+    }
+
+    private class IoLoop implements Runnable {
+        private final String threadName;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final List<Tunnel> tunnels = new ArrayList<Tunnel>();
+        private volatile Selector selector;
+        private Thread thread;
+        private volatile boolean stopped;
+
+        IoLoop(String threadName) {
+            this.threadName = threadName;
+        }
+
+        private synchronized void ensureStarted() throws IOException {
+            if (thread != null)
+                return;
+            if (stopped)
+                throw new IOException(threadName + ": tunnel engine has been shut down");
+
+            selector = Selector.open();
+            thread = new Thread(this, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void register(final Tunnel tunnel, final boolean connected) throws IOException {
+            ensureStarted();
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        tunnel.key = tunnel.channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, tunnel);
+                        tunnels.add(tunnel);
+                    } catch (ClosedChannelException ex) {
+                        tunnel.close(ex);
+                        return;
+                    }
+                    if (connected)
+                        tunnel.connected();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            Selector s = selector;
+            if (s != null)
+                s.wakeup();
+        }
+
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            while (!stopped) {
+                try {
+                    selector.select(1000);
+
+                    for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+                        SelectionKey key = i.next();
+                        i.remove();
+                        Tunnel tunnel = (Tunnel)key.attachment();
+                        if (!key.isValid()) {
+                            tunnel.close(null);
+                            continue;
+                        }
+                        if (key.isConnectable())
+                            tunnel.connected();
+                        else
+                            tunnel.pump();
+                    }
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                        task.run();
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        sweep(now);
+                    }
+                } catch (Throwable err) {
+                    LOG.error(threadName + ": unexpected failure", err);
+                }
+            }
+
+            for (Tunnel tunnel : new ArrayList<Tunnel>(tunnels))
+                tunnel.close(null);
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+
+        private void sweep(long now) {
+            for (Tunnel tunnel : new ArrayList<Tunnel>(tunnels)) {
+                if (idleTimeout > 0 && now - tunnel.lastActivity > idleTimeout) {
+                    timedOut.incrementAndGet();
+                    LOG.info(tunnel + ": idle for " + (now - tunnel.lastActivity) + "ms - closing");
+                    tunnel.close(null);
+                } else if (maxLifetime > 0 && now - tunnel.created > maxLifetime) {
+                    timedOut.incrementAndGet();
+                    LOG.info(tunnel + ": open for " + (now - tunnel.created) + "ms - closing");
+                    tunnel.close(null);
+                }
+            }
+        }
+
+        void shutdown() {
+            stopped = true;
+            Selector s = selector;
+            if (s != null)
+                s.wakeup();
+        }
+    }
+
+    private class Tunnel implements ReadListener, WriteListener, AsyncListener {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final AsyncContext ctx;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final String authority;
+        private final long created = System.currentTimeMillis();
+
+        // Everything below is only touched by the loop thread
+        private SelectionKey key;
+        private ServletInputStream in;
+        private ServletOutputStream out;
+        private final ByteBuffer up = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer down = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean clientEof;
+        private boolean upstreamEof;
+        private boolean outputShutdown;
+        private boolean closed;
+        private long upCount;
+        private long downCount;
+        private volatile long lastActivity = created;
+
+        private final Runnable pump = new Runnable() {
+            public void run() {
+                pump();
+            }
+        };
+
+        Tunnel(IoLoop loop, SocketChannel channel, AsyncContext ctx, HttpServletRequest request, HttpServletResponse response, String authority) {
+            this.loop = loop;
+            this.channel = channel;
+            this.ctx = ctx;
+            this.request = request;
+            this.response = response;
+            this.authority = authority;
+        }
+
+        void connected() {
+            try {
+                channel.finishConnect();
+            } catch (IOException ex) {
+                LOG.info(this + ": connect failed - " + ex.getMessage());
+                try {
+                    response.sendError(HttpServletResponse.SC_BAD_GATEWAY, ex.getMessage());
+                } catch (IOException ignore) {
+                    // the client is gone as well
+                }
+                close(null);
+                return;
+            }
+            LOG.debug(this + ": connected");
+
+            try {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setHeader("Connection", "close");
+                key.interestOps(SelectionKey.OP_READ);
+                out = response.getOutputStream();
+                in = request.getInputStream();
+                out.setWriteListener(this);
+                in.setReadListener(this);
+            } catch (Exception ex) {
+                close(ex);
+            }
+        }
+
+        void pump() {
+            if (closed || out == null)
+                return;
+            try {
+                boolean progress = true;
+                while (progress && !closed) {
+                    progress = clientToUpstream() | upstreamToClient();
+                }
+                if (!closed) {
+                    int ops = 0;
+                    if (up.position() > 0)
+                        ops |= SelectionKey.OP_WRITE;
+                    if (!upstreamEof && down.hasRemaining())
+                        ops |= SelectionKey.OP_READ;
+                    key.interestOps(ops);
+                }
+            } catch (Exception ex) {
+                close(ex);
+            }
+        }
+
+        private boolean clientToUpstream() throws IOException {
+            boolean progress = false;
+            while (!clientEof && up.hasRemaining() && in.isReady()) {
+                int n = in.read(up.array(), up.arrayOffset() + up.position(), up.remaining());
+                if (n < 0) {
+                    clientEof = true;
+                    break;
+                }
+                up.position(up.position() + n);
+                progress |= n > 0;
+            }
+            if (!clientEof && in.isFinished())
+                clientEof = true;
+
+            if (up.position() > 0) {
+                up.flip();
+                int n = channel.write(up);
+                up.compact();
+                if (n > 0) {
+                    upCount += n;
+                    bytesUpstream.addAndGet(n);
+                    lastActivity = System.currentTimeMillis();
+                    progress = true;
+                }
+            }
+
+            if (clientEof && up.position() == 0 && !outputShutdown) {
+                outputShutdown = true;
+                channel.socket().shutdownOutput();
+            }
+            return progress;
+        }
+
+        private boolean upstreamToClient() throws IOException {
+            boolean progress = false;
+            if (!upstreamEof && down.hasRemaining()) {
+                int n = channel.read(down);
+                if (n < 0)
+                    upstreamEof = true;
+                else if (n > 0) {
+                    lastActivity = System.currentTimeMillis();
+                    progress = true;
+                }
+            }
+
+            if (!response.isCommitted() && out.isReady()) {
+                // send the 200 right away; the client waits for it before it starts talking
+                out.flush();
+                progress = true;
+            }
+
+            if (down.position() > 0 && out.isReady()) {
+                int n = down.position();
+                out.write(down.array(), down.arrayOffset(), n);
+                down.clear();
+                downCount += n;
+                bytesDownstream.addAndGet(n);
+                progress = true;
+                if (out.isReady())
+                    out.flush();
+            }
+
+            if (upstreamEof && down.position() == 0 && out.isReady())
+                close(null);
+            return progress;
+        }
+
+        public void onDataAvailable() {
+            loop.execute(pump);
+        }
+
+        public void onAllDataRead() {
+            loop.execute(pump);
+        }
+
+        public void onWritePossible() {
+            loop.execute(pump);
+        }
+
+        public void onError(final Throwable err) {
+            loop.execute(new Runnable() {
+                public void run() {
+                    close(err);
+                }
+            });
+        }
+
+        public void onComplete(AsyncEvent event) {
+            loop.execute(new Runnable() {
+                public void run() {
+                    close(null);
+                }
+            });
+        }
+
+        public void onTimeout(AsyncEvent event) {
+            onComplete(event);
+        }
+
+        public void onError(AsyncEvent event) {
+            onError(event.getThrowable());
+        }
+
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        void close(Throwable err) {
+            if (closed)
+                return;
+            closed = true;
+
+            if (err != null)
+                LOG.info(this + ": tunnel failure", err);
+            if (key != null)
+                key.cancel();
+            loop.tunnels.remove(this);
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+            try {
+                ctx.complete();
+            } catch (IllegalStateException ex) {
+                // already completed by the container
+            }
+            active.decrementAndGet();
+
+            LOG.debug(this + ": closed after " + (System.currentTimeMillis() - created) + "ms, "
+                    + upCount + " byte(s) up, " + downCount + " byte(s) down");
+        }
+
+        @Override
+        public String toString() {
+            return "CONNECT " + authority;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.sandum.util.servlet;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Opens the upstream connections used by {@link RequestProxy}.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public interface UpstreamConnector {
+    URLConnection openConnection(URL url) throws IOException;
+
+    void shutdown();
+}
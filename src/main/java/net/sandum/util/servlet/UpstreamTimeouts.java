@@ -0,0 +1,150 @@
+package net.sandum.util.servlet;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Deadlines for the upstream requests of one route, and the route's hedging settings. A hedged GET or
+ * HEAD request is sent a second time when the first attempt hasn't produced response headers within
+ * the given percentile of the route's recent times to headers; whichever attempt answers first is used.
+ *
+ * @author      osa
+ * @since       18-10-2026
+ */
+public class UpstreamTimeouts {
+    // recent times to headers kept for the percentile:
+    private final static int SAMPLES = 1024;
+    // no hedging before this many have been seen:
+    private final static int MIN_SAMPLES = 20;
+    // the percentile is recomputed after this many new samples:
+    private final static int REFRESH = 64;
+
+    private int connectTimeout;
+    private int firstByteTimeout;
+    private long totalTimeout;
+    private double hedgePercentile;
+    private long minHedgeDelay = 1;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private volatile long hedgeDelay = -1;
+
+    /**
+     * @param connectTimeout    milliseconds to establish the connection, 0 for none
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param firstByteTimeout  milliseconds to wait for the response, and for each further piece of the
+     *                          body, 0 for none
+     */
+    public void setFirstByteTimeout(int firstByteTimeout) {
+        this.firstByteTimeout = firstByteTimeout;
+    }
+
+    public int getFirstByteTimeout() {
+        return firstByteTimeout;
+    }
+
+    /**
+     * @param totalTimeout  milliseconds for the whole upstream exchange, body included, 0 for none
+     */
+    public void setTotalTimeout(long totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    public long getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    /**
+     * @param hedgePercentile   e.g. 95 to hedge requests slower than 95% of recent ones, 0 not to hedge
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        if (hedgePercentile < 0 || hedgePercentile >= 100)
+            throw new IllegalArgumentException("hedge percentile " + hedgePercentile + " not in [0; 100)");
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * @param minHedgeDelay     milliseconds a request is given at least before it is hedged
+     */
+    public void setMinHedgeDelay(long minHedgeDelay) {
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    public long getMinHedgeDelay() {
+        return minHedgeDelay;
+    }
+
+    public boolean isHedging() {
+        return hedgePercentile > 0;
+    }
+
+    /**
+     * @return milliseconds to wait for the first attempt before hedging, or -1 if there is too little
+     *         history to tell what is slow
+     */
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the number of hedged requests answered by the second attempt
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    void hedged(boolean won) {
+        hedges.incrementAndGet();
+        if (won)
+            hedgeWins.incrementAndGet();
+    }
+
+    /**
+     * @param latency   milliseconds until the response headers arrived
+     */
+    void record(long latency) {
+        if (!isHedging())
+            return;
+
+        int n = count.getAndIncrement();
+        samples.set((n & Integer.MAX_VALUE) % SAMPLES, latency);
+        n++;
+        if (n >= MIN_SAMPLES && (n % REFRESH == 0 || hedgeDelay < 0))
+            hedgeDelay = Math.max(minHedgeDelay, percentile(Math.min(n, SAMPLES)));
+    }
+
+    private long percentile(int n) {
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = samples.get(i);
+        Arrays.sort(sorted);
+        return sorted[Math.min(n - 1, (int) Math.ceil(hedgePercentile / 100 * n) - 1)];
+    }
+
+    @Override
+    public String toString() {
+        return "connect=" + connectTimeout + "ms, first-byte=" + firstByteTimeout + "ms, total=" + totalTimeout
+                + "ms" + (isHedging() ? ", hedge at p" + hedgePercentile : "");
+    }
+}